@@ -0,0 +1,66 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding one report's batch, as json and in the binary form, into a reused buffer.
+ * The batch holds a timer's fifteen series per metric, the count whole and the rest floating
+ * point, all with the same host and tags. Each benchmark returns the payload's size, so the
+ * two can be compared for size as well as time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    private static final int TIMER_FIELDS = 15;
+    private static final String HOST = "host-01.example.com";
+    private static final String[] TAGS = new String[]{"env:prod", "service:datadog-reporter"};
+
+    @Param({"1000", "10000"})
+    public int metrics;
+
+    private SeriesBatch batch;
+    private ByteArrayBuffer out;
+    private JsonSeriesEncoder json;
+    private BinarySeriesEncoder binary;
+
+    @Setup
+    public void setup() {
+        batch = new SeriesBatch(1400000000L, metrics * TIMER_FIELDS);
+        String[] fields = new String[TIMER_FIELDS];
+        for (int i = 0; i < metrics; i++) {
+            for (int j = 0; j < TIMER_FIELDS; j++) {
+                fields[j] = "com.example.service.requests." + i + ".f" + j;
+            }
+            Series[] series = Series.group(fields, SeriesStream.MetricType.GAUGE, HOST, TAGS);
+            batch.add(series[0], (long) i);
+            for (int j = 1; j < series.length; j++) {
+                batch.add(series[j], 0.25d * i * j);
+            }
+        }
+        out = new ByteArrayBuffer(1 << 20);
+        json = new JsonSeriesEncoder(SeriesStream.DEFAULT_PRECISION, 100);
+        binary = new BinarySeriesEncoder();
+    }
+
+    @Benchmark
+    public int json() throws IOException {
+        out.reset();
+        json.encodePoints(batch, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int binary() throws IOException {
+        out.reset();
+        binary.encodePoints(batch, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,87 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.codahale.metrics.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Writer;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full report cycles over a synthetic registry, from snapshotting the metrics to writing the
+ * requests, which are thrown away rather than sent. A fifth each of the metrics are gauges,
+ * counters, histograms, meters and timers. <code>threads</code> of 0 collects on the calling
+ * thread; otherwise on a pool of that size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int metrics;
+
+    @Param({"0", "4"})
+    public int threads;
+
+    @Param({"true", "false"})
+    public boolean cacheSeries;
+
+    private ExecutorService executor;
+    private DatadogReporter reporter;
+
+    @Setup
+    public void setup() {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < metrics / 5; i++) {
+            final int value = i;
+            registry.register("gauge." + i, new Gauge<Integer>() {
+                public Integer getValue() {
+                    return value;
+                }
+            });
+            registry.counter("counter." + i).inc(i);
+            Histogram histogram = registry.histogram("histogram." + i);
+            Meter meter = registry.meter("meter." + i);
+            Timer timer = registry.timer("timer." + i);
+            for (int j = 0; j < 100; j++) {
+                histogram.update(i + j);
+                meter.mark();
+                timer.update(i + j, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        DatadogReporter.Builder builder = DatadogReporter.forRegistry(registry)
+                .writeUsing(new NullURLWriterFactory())
+                .cacheSeries(cacheSeries);
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads);
+            builder.collectInParallel(executor);
+        }
+        reporter = builder.build("host-01.example.com", "key");
+    }
+
+    @TearDown
+    public void teardown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report();
+    }
+
+    static final class NullURLWriterFactory implements URLWriterFactory {
+        public Writer getWriter(URL url) {
+            return new SerializationBenchmark.NullWriter();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting series and events, with the output thrown away, so neither encoding nor
+ * sending is included. <code>gauges</code> writes one series per metric; <code>timers</code>
+ * writes the fifteen series a timer is reported as, from values prepared up front.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final int TIMER_FIELDS = 15;
+    private static final String HOST = "host-01.example.com";
+    private static final String[] TAGS = new String[]{"env:prod", "service:datadog-reporter"};
+
+    @Param({"1000", "10000"})
+    public int metrics;
+
+    private String[] names;
+    private Series[] gauges;
+    private Series[][] timers;
+    private Writer sink;
+
+    @Setup
+    public void setup() {
+        names = new String[metrics];
+        gauges = new Series[metrics];
+        timers = new Series[metrics][];
+        String[] fields = new String[TIMER_FIELDS];
+        for (int i = 0; i < metrics; i++) {
+            names[i] = "com.example.service.requests." + i;
+            gauges[i] = new Series(names[i], SeriesStream.MetricType.GAUGE, HOST, TAGS);
+            for (int j = 0; j < TIMER_FIELDS; j++) {
+                fields[j] = names[i] + ".f" + j;
+            }
+            timers[i] = Series.group(fields, SeriesStream.MetricType.GAUGE, HOST, TAGS);
+        }
+        sink = new NullWriter();
+    }
+
+    @Benchmark
+    public int gaugesByName() throws IOException {
+        SeriesStream stream = new SeriesStream(sink);
+        for (int i = 0; i < metrics; i++) {
+            stream.writeMetric(names[i], 1400000000L, 12.34d * i, HOST, TAGS);
+        }
+        stream.close();
+        return stream.getSeriesCount();
+    }
+
+    @Benchmark
+    public int gauges() throws IOException {
+        SeriesStream stream = new SeriesStream(sink);
+        for (int i = 0; i < metrics; i++) {
+            stream.writeMetric(gauges[i], 1400000000L, 12.34d * i);
+        }
+        stream.close();
+        return stream.getSeriesCount();
+    }
+
+    @Benchmark
+    public int timers() throws IOException {
+        SeriesStream stream = new SeriesStream(sink);
+        for (int i = 0; i < metrics; i++) {
+            Series[] fields = timers[i];
+            stream.writeMetric(fields[0], 1400000000L, (long) i);
+            for (int j = 1; j < fields.length; j++) {
+                stream.writeMetric(fields[j], 1400000000L, 0.25d * i * j);
+            }
+        }
+        stream.close();
+        return stream.getSeriesCount();
+    }
+
+    @Benchmark
+    public int events() {
+        int length = 0;
+        for (int i = 0; i < metrics; i++) {
+            Event event = new Event("deploy " + i, "deployed build " + i, 1400000000L, Event.Priority.NORMAL, TAGS,
+                    Event.AlertType.INFO, "deploy", Event.SourceType.MY_APPS);
+            length += event.toString().length();
+        }
+        return length;
+    }
+
+    static final class NullWriter extends Writer {
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
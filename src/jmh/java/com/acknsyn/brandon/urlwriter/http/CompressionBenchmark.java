@@ -0,0 +1,66 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.Utf8Writer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of compressing a series payload as it is encoded, against the bytes that would go
+ * on the wire. The primary score is requests encoded per second; the <code>wireBytes</code>
+ * secondary result is the bytes those requests would put on the wire per second, so
+ * <code>wireBytes / score</code> is the body size of one request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"100", "1000", "10000", "40000"})
+    public int series;
+
+    @Param({"IDENTITY", "GZIP", "DEFLATE"})
+    public ContentEncoding encoding;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private String[] writes;
+    private ByteArrayBuffer request;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Wire {
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        writes = SeriesPayload.record(series);
+        request = new ByteArrayBuffer();
+    }
+
+    @Benchmark
+    public int encodeAndCompress(Wire wire) throws IOException {
+        request.reset();
+        Writer encoder = new Utf8Writer(encoding.compress(request, level));
+        for (String write : writes) {
+            encoder.write(write);
+        }
+        encoder.close();
+
+        wire.wireBytes += request.size();
+        return request.size();
+    }
+}
@@ -0,0 +1,97 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.BufferedReaderFactory;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Sending a recorded series payload to an in-process HTTP server on the loopback interface,
+ * which reads and discards the body, through each of the writers. Measures the client side
+ * of a request, including connection setup for the unpooled writer, without a real network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackWriterBenchmark {
+
+    @Param({"100", "5000"})
+    public int series;
+
+    @Param({"UNCHUNKED", "KEEP_ALIVE"})
+    public Transport transport;
+
+    @Param({"IDENTITY", "GZIP"})
+    public ContentEncoding encoding;
+
+    private HttpServer server;
+    private URL url;
+    private String[] writes;
+    private URLWriterFactory writerFactory;
+    private HttpConnectionPool connectionPool;
+
+    public static enum Transport {
+        UNCHUNKED, KEEP_ALIVE
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buf = new byte[8192];
+                while (in.read(buf) >= 0) {
+                    //discard
+                }
+                exchange.sendResponseHeaders(202, -1);
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1/series?api_key=key");
+
+        writes = SeriesPayload.record(series);
+        if (transport == Transport.KEEP_ALIVE) {
+            connectionPool = new HttpConnectionPool();
+            writerFactory = new KeepAliveHttpURLWriterFactory(connectionPool, new Utf8WriterFactory(),
+                    encoding, Deflater.DEFAULT_COMPRESSION);
+        } else {
+            writerFactory = new UnchunkedHttpURLWriterFactory(new Utf8WriterFactory(), new BufferedReaderFactory(),
+                    encoding, Deflater.DEFAULT_COMPRESSION);
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        server.stop(0);
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        Writer writer = writerFactory.getWriter(url);
+        for (String write : writes) {
+            writer.write(write);
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,85 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import com.acknsyn.brandon.urlwriter.io.Utf8Writer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original request buffering of {@link UnchunkedHttpURLWriter} (one char at a
+ * time into a <code>ByteArrayOutputStream</code>, then a <code>String</code> re-encoded on flush)
+ * with encoding straight into a pooled {@link ByteArrayBuffer}. The payload is replayed as the
+ * same sequence of small writes <code>SeriesStream</code> makes, so formatting cost is excluded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBufferingBenchmark {
+
+    @Param({"1000", "40000"})
+    public int series;
+
+    private String[] writes;
+    private ByteArrayBufferPool pool;
+    private CountingOutputStream socket;
+
+    @Setup
+    public void setup() throws IOException {
+        writes = SeriesPayload.record(series);
+        pool = new ByteArrayBufferPool();
+        socket = new CountingOutputStream();
+    }
+
+    @Benchmark
+    public long charByCharThenString() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        for (String write : writes) {
+            char[] cbuf = write.toCharArray();
+            for (int i = 0; i < cbuf.length; i++) {
+                request.write(cbuf[i]);
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(socket, "UTF-8"));
+        writer.write(request.toString());
+        writer.flush();
+        return socket.count;
+    }
+
+    @Benchmark
+    public long utf8IntoPooledBuffer() throws IOException {
+        ByteArrayBuffer request = pool.acquire();
+        try {
+            Writer encoder = new Utf8Writer(request);
+            for (String write : writes) {
+                encoder.write(write);
+            }
+            encoder.close();
+
+            request.writeTo(socket);
+            return socket.count;
+        } finally {
+            pool.release(request);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
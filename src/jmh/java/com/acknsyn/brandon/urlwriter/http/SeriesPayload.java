@@ -0,0 +1,50 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.datadog.reporter.SeriesStream;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A series payload recorded as the sequence of small writes {@link SeriesStream} makes, so
+ * writer benchmarks can replay it without paying for formatting.
+ */
+final class SeriesPayload {
+    private SeriesPayload() {
+    }
+
+    static String[] record(int series) throws IOException {
+        final List<String> recorded = new ArrayList<String>();
+        Writer recorder = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                recorded.add(new String(cbuf, off, len));
+            }
+
+            @Override
+            public void write(String str, int off, int len) {
+                recorded.add(str.substring(off, off + len));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        SeriesStream stream = new SeriesStream(recorder);
+        String[] tags = new String[]{"env:prod", "service:datadog-reporter"};
+        for (int i = 0; i < series; i++) {
+            stream.writeMetric("com.example.service.requests.p" + i, 1400000000L + i, 12.34d * i,
+                    "host-01.example.com", tags);
+        }
+        stream.close();
+
+        return recorded.toArray(new String[recorded.size()]);
+    }
+}
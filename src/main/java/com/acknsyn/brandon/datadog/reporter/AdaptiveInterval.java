@@ -0,0 +1,59 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+/**
+ * Works out how long to wait between reports from how the last one went, within
+ * <code>[min, max]</code>. Reporting takes no more than half the time: a report taking
+ * longer than half the interval stretches the next interval to twice as long as it took.
+ * While nothing is being counted, the interval doubles each report, and it's back to the
+ * period asked for as soon as something is.
+ *
+ * Not thread safe; it's only used from the thread reports are scheduled on.
+ */
+final class AdaptiveInterval {
+    //the most of an interval a report is allowed to take up is 1 / LOAD_FACTOR
+    static final int LOAD_FACTOR = 2;
+
+    private final long minNanos;
+    private final long maxNanos;
+    private long periodNanos;
+    private long currentNanos;
+
+    AdaptiveInterval(long minNanos, long maxNanos) {
+        if (minNanos <= 0 || maxNanos < minNanos) {
+            throw new IllegalArgumentException("min must be positive and no more than max");
+        }
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Starts over from the period the reporter was started with.
+     */
+    void reset(long periodNanos) {
+        this.periodNanos = clamp(periodNanos);
+        this.currentNanos = this.periodNanos;
+    }
+
+    /**
+     * @param reportNanos how long the last report took
+     * @param idle        whether nothing was counted since the report before it
+     * @return the interval from the start of the last report to the start of the next
+     */
+    long next(long reportNanos, boolean idle) {
+        long target = idle ? saturatedMultiply(currentNanos, 2) : periodNanos;
+        currentNanos = clamp(Math.max(target, saturatedMultiply(reportNanos, LOAD_FACTOR)));
+        return currentNanos;
+    }
+
+    long current() {
+        return currentNanos;
+    }
+
+    private long clamp(long nanos) {
+        return Math.min(maxNanos, Math.max(minNanos, nanos));
+    }
+
+    private static long saturatedMultiply(long nanos, int factor) {
+        return nanos > Long.MAX_VALUE / factor ? Long.MAX_VALUE : nanos * factor;
+    }
+}
@@ -0,0 +1,19 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.Metric;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A {@link com.acknsyn.brandon.datadog.reporter.FieldStrategy} which reports every field of
+ * every metric.
+ */
+public final class AllFieldsStrategy implements FieldStrategy {
+    static final Set<SeriesField> ALL = Collections.unmodifiableSet(EnumSet.allOf(SeriesField.class));
+
+    public Set<SeriesField> fields(String name, Metric metric) {
+        return ALL;
+    }
+}
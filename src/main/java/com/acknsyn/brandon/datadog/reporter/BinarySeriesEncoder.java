@@ -0,0 +1,342 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes batches in a compact binary form, for a relay which forwards them on to Datadog,
+ * rather than for Datadog itself. Encoding is mostly copying bytes, with no number formatting
+ * and no keys, and strings repeated across series, like hosts and tags, are only sent once per
+ * payload.
+ *
+ * A payload is:
+ * <pre>
+ * 'S' 'B' version kind timestamp count entry*
+ * </pre>
+ * where <code>version</code> is 1, <code>kind</code> is 0 for points and 1 for distributions,
+ * <code>timestamp</code> is in seconds, and each entry is
+ * <pre>
+ * flags name host tagCount tag* value
+ * </pre>
+ * Counts and whole numbers are unsigned varints, 7 bits to a byte, low bits first, with the
+ * high bit set on all but the last byte; whole values are zigzag encoded first, so that small
+ * negative values stay small. Floating point values are the 8 bytes of their ieee 754 bits,
+ * high byte first, unrounded.
+ *
+ * <code>flags</code> is a byte of the series' type, 0 for a gauge, 1 for a counter and 2 for
+ * none, as for a distribution, plus 4 if a point's value is floating point. Strings are varints:
+ * 0 for none, 1 for a new string, followed by the varint length and UTF-8 bytes of the string,
+ * or <i>n</i> + 2 for the <i>n</i>th new string of the payload.
+ *
+ * A point's value is a zigzag varint or floating point, as its flags say. A distribution's is
+ * the varint number of values it holds, the varint number of buckets and, lowest first, each
+ * bucket's floating point value and varint count.
+ *
+ * An encoder reuses its buffer and string table between payloads, so isn't thread safe.
+ */
+public class BinarySeriesEncoder implements SeriesEncoder {
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    static final byte[] MAGIC = {'S', 'B'};
+    static final byte VERSION = 1;
+    static final byte POINTS = 0;
+    static final byte DISTRIBUTIONS = 1;
+    static final int GAUGE = 0;
+    static final int COUNTER = 1;
+    static final int UNTYPED = 2;
+    static final int DOUBLE = 4;
+
+    private static final int NO_STRING = 0;
+    private static final int NEW_STRING = 1;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private int stringCount;
+
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public void encodePoints(SeriesBatch batch, OutputStream out) throws IOException {
+        start(POINTS, batch.getTimestamp(), batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Series series = batch.getSeries(i);
+            boolean isDouble = batch.isDouble(i);
+            writeHeader(series, isDouble);
+            if (isDouble) {
+                writeDouble(batch.getDouble(i));
+            } else {
+                long value = batch.getLong(i);
+                writeVarint((value << 1) ^ (value >> 63));
+            }
+        }
+        finish(out);
+    }
+
+    public void encodeDistributions(SeriesBatch batch, OutputStream out) throws IOException {
+        start(DISTRIBUTIONS, batch.getTimestamp(), batch.getDistributionCount());
+        for (int i = 0; i < batch.getDistributionCount(); i++) {
+            SeriesBatch.Distribution distribution = batch.getDistribution(i);
+            writeHeader(distribution.getSeries(), false);
+            writeVarint(distribution.getCount());
+            writeVarint(distribution.getBucketCount());
+            for (int bucket = 0; bucket < distribution.getBucketCount(); bucket++) {
+                writeDouble(distribution.getValue(bucket));
+                writeVarint(distribution.getCount(bucket));
+            }
+        }
+        finish(out);
+    }
+
+    private void start(byte kind, long timestamp, int count) {
+        position = 0;
+        strings.clear();
+        stringCount = 0;
+        ensureCapacity(4);
+        buffer[position++] = MAGIC[0];
+        buffer[position++] = MAGIC[1];
+        buffer[position++] = VERSION;
+        buffer[position++] = kind;
+        writeVarint(timestamp);
+        writeVarint(count);
+    }
+
+    private void finish(OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+        //don't hang on to the strings of a large batch until the next one
+        strings.clear();
+    }
+
+    private void writeHeader(Series series, boolean isDouble) {
+        SeriesStream.MetricType type = series.getMetricType();
+        int flags = type == null ? UNTYPED : type == SeriesStream.MetricType.COUNTER ? COUNTER : GAUGE;
+        if (isDouble) {
+            flags |= DOUBLE;
+        }
+        ensureCapacity(1);
+        buffer[position++] = (byte) flags;
+
+        //names are rarely repeated within a payload, so aren't worth looking up, though
+        //they still take up a place in the table
+        writeVarint(NEW_STRING);
+        writeBytes(series.utf8MetricName());
+        stringCount++;
+
+        writeString(series.getHost());
+        String[] tags = series.getTags();
+        if (tags == null) {
+            writeVarint(0);
+        } else {
+            writeVarint(tags.length);
+            for (String tag : tags) {
+                writeString(tag);
+            }
+        }
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarint(NO_STRING);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarint(index + 2);
+            return;
+        }
+        strings.put(value, stringCount++);
+        writeVarint(NEW_STRING);
+        writeBytes(Series.utf8(value));
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeDouble(double value) {
+        ensureCapacity(8);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (bits >>> shift);
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (position + needed > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + needed)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Decodes a payload back into a batch, as a relay would; the points or distributions of
+     * the batch are those of the payload.
+     *
+     * @throws IOException if the payload is malformed or of an unknown version
+     */
+    public static SeriesBatch decode(byte[] payload, int offset, int length) throws IOException {
+        return new Decoder(payload, offset, length).decode();
+    }
+
+    private static final class Decoder {
+        private final byte[] payload;
+        private final int end;
+        private int position;
+        private final List<String> strings = new ArrayList<String>();
+
+        Decoder(byte[] payload, int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > payload.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            this.payload = payload;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        SeriesBatch decode() throws IOException {
+            if (readByte() != MAGIC[0] || readByte() != MAGIC[1]) {
+                throw new IOException("not a binary series payload");
+            }
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("unknown binary series version " + version);
+            }
+            int kind = readByte();
+            if (kind != POINTS && kind != DISTRIBUTIONS) {
+                throw new IOException("unknown binary series payload kind " + kind);
+            }
+            long timestamp = readVarint();
+            int count = readCount();
+
+            SeriesBatch batch = new SeriesBatch(timestamp, kind == POINTS ? count : 1);
+            for (int i = 0; i < count; i++) {
+                int flags = readByte();
+                Series series = readSeries(flags);
+                if (kind == POINTS) {
+                    if ((flags & DOUBLE) != 0) {
+                        batch.add(series, readDouble());
+                    } else {
+                        long value = readVarint();
+                        batch.add(series, (value >>> 1) ^ -(value & 1));
+                    }
+                } else {
+                    SeriesBatch.Distribution distribution = new SeriesBatch.Distribution(series, readVarint());
+                    int buckets = readCount();
+                    for (int bucket = 0; bucket < buckets; bucket++) {
+                        distribution.add(readDouble(), readVarint());
+                    }
+                    batch.addDistribution(distribution);
+                }
+            }
+            if (position != end) {
+                throw new IOException("trailing bytes after binary series payload");
+            }
+            return batch;
+        }
+
+        private Series readSeries(int flags) throws IOException {
+            SeriesStream.MetricType type;
+            switch (flags & ~DOUBLE) {
+                case GAUGE:
+                    type = SeriesStream.MetricType.GAUGE;
+                    break;
+                case COUNTER:
+                    type = SeriesStream.MetricType.COUNTER;
+                    break;
+                case UNTYPED:
+                    type = null;
+                    break;
+                default:
+                    throw new IOException("unknown series flags " + flags);
+            }
+            String name = readString();
+            if (name == null) {
+                throw new IOException("series without a name in binary series payload");
+            }
+            String host = readString();
+            int tagCount = readCount();
+            String[] tags = tagCount == 0 ? null : new String[tagCount];
+            for (int i = 0; i < tagCount; i++) {
+                tags[i] = readString();
+            }
+            return new Series(name, type, host, tags);
+        }
+
+        private String readString() throws IOException {
+            long ref = readVarint();
+            if (ref == NO_STRING) {
+                return null;
+            }
+            if (ref == NEW_STRING) {
+                int length = readCount();
+                if (length > end - position) {
+                    throw new IOException("truncated binary series payload");
+                }
+                String value = new String(payload, position, length, "UTF-8");
+                position += length;
+                strings.add(value);
+                return value;
+            }
+            //a varint with its top bit set reads as negative
+            if (ref < 0 || ref - 2 >= strings.size()) {
+                throw new IOException("unknown string " + ref + " in binary series payload");
+            }
+            return strings.get((int) (ref - 2));
+        }
+
+        private int readByte() throws IOException {
+            if (position >= end) {
+                throw new IOException("truncated binary series payload");
+            }
+            return payload[position++] & 0xff;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint in binary series payload");
+        }
+
+        private int readCount() throws IOException {
+            long count = readVarint();
+            //every entry takes at least a byte, so a count past what's left can't be right
+            if (count < 0 || count > end - position) {
+                throw new IOException("bad count " + count + " in binary series payload");
+            }
+            return (int) count;
+        }
+
+        private double readDouble() throws IOException {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+    }
+}
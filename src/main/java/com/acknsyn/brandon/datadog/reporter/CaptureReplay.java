@@ -0,0 +1,183 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import com.acknsyn.brandon.urlwriter.http.UnchunkedHttpURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.BufferedReaderFactory;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends payloads captured by a {@link FileCaptureSink} on to Datadog, one request per
+ * payload, through the same http writers the reporter uses. Payloads keep the timestamps
+ * they were captured with, and Datadog only takes points up to an hour or so old, so this is
+ * for replaying recent captures, or captures into a test account.
+ *
+ * From the command line, with the reporter's dependencies on the classpath:
+ * <pre>
+ * java com.acknsyn.brandon.datadog.reporter.CaptureReplay &lt;segment file or capture directory&gt; &lt;api key&gt; [api base url]
+ * </pre>
+ */
+public final class CaptureReplay {
+    private static final Logger log = LoggerFactory.getLogger(CaptureReplay.class);
+
+    private final URLWriterFactory writerFactory;
+    private final String apiBaseUrl;
+    private final String apiKey;
+    private final byte[] scratch = new byte[FileCaptureSink.SCRATCH_BYTES];
+
+    private long sent;
+    private long failed;
+    private long corrupt;
+
+    public CaptureReplay(URLWriterFactory writerFactory, String apiBaseUrl, String apiKey) {
+        this.writerFactory = writerFactory;
+        this.apiBaseUrl = apiBaseUrl;
+        this.apiKey = apiKey;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CaptureReplay <segment file or capture directory> <api key> [api base url]");
+            System.exit(2);
+        }
+        File file = new File(args[0]);
+        String apiBaseUrl = args.length > 2 ? args[2] : DatadogReporter.DATADOG_API_BASE_URL;
+        CaptureReplay replay = new CaptureReplay(
+                new UnchunkedHttpURLWriterFactory(new Utf8WriterFactory(), new BufferedReaderFactory()),
+                apiBaseUrl, args[1]);
+
+        File[] segments = file.isDirectory() ? FileCaptureSink.segments(file) : new File[]{file};
+        for (File segment : segments) {
+            replay.replay(segment);
+        }
+        System.out.println("sent " + replay.getSentCount() + " payloads, " + replay.getFailedCount()
+                + " failed, " + replay.getCorruptCount() + " corrupt");
+        System.exit(replay.getFailedCount() + replay.getCorruptCount() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Sends every whole payload in a segment, oldest first. A payload Datadog rejects is
+     * logged and skipped; a corrupt one ends the segment.
+     */
+    public void replay(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+
+        int position = 0;
+        while (position + FileCaptureSink.RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0) {
+                return;
+            }
+            int start = position + FileCaptureSink.RECORD_HEADER_BYTES;
+            if (length > buffer.capacity() - start) {
+                corrupt++;
+                log.warn("discarding torn payload at {} in capture segment {}", position, segment);
+                return;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(start);
+            payload.limit(start + length);
+            if (FileCaptureSink.crc(payload, scratch) != buffer.getInt(position + 4)) {
+                corrupt++;
+                log.warn("discarding corrupt remainder of capture segment {} from {}", segment, position);
+                return;
+            }
+
+            send(payload, buffer.get(position + 8), buffer.get(position + 9) == FileCaptureSink.GZIP);
+            position = start + length;
+        }
+    }
+
+    private void send(ByteBuffer payload, byte type, boolean gzip) throws IOException {
+        String template = type == FileCaptureSink.DISTRIBUTION_POINTS
+                ? DatadogReporter.DISTRIBUTION_URL_TEMPLATE : DatadogReporter.SERIES_URL_TEMPLATE;
+        URL url = new URL(String.format(template, apiBaseUrl, apiKey));
+
+        InputStream in = new ByteBufferInputStream(payload);
+        if (gzip) {
+            in = new GZIPInputStream(in);
+        }
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            Writer writer = writerFactory.getWriter(url);
+            try {
+                char[] chars = new char[8192];
+                int n;
+                while ((n = reader.read(chars)) >= 0) {
+                    writer.write(chars, 0, n);
+                }
+            } finally {
+                writer.close();
+            }
+            sent++;
+        } catch (HttpException hre) {
+            failed++;
+            log.error("datadog rejected replayed payload with status: {} and response: {}", hre.getStatus(),
+                    hre.getResponse());
+        } catch (IOException e) {
+            failed++;
+            log.error("unable to replay payload to datadog", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public long getSentCount() {
+        return sent;
+    }
+
+    public long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * The number of segments which ended in a torn or corrupt payload.
+     */
+    public long getCorruptCount() {
+        return corrupt;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
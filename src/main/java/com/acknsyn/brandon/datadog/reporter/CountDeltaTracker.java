@@ -0,0 +1,71 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+/**
+ * Remembers the last count reported for each series, so that counts can be sent as the
+ * increase since the previous report rather than as an ever-growing total.
+ *
+ * A series seen for the first time reports its whole count, since a metric's count starts
+ * at zero when it, or the process, starts. A count lower than last time is taken to mean the
+ * counter was reset, or replaced, and its whole count is reported too. Counters which are
+ * decremented are therefore better off reported as totals.
+ *
+ * Like {@link com.acknsyn.brandon.datadog.reporter.SeriesChangeTracker}, series are identified
+ * by their 64-bit hash and kept in a {@link SeriesTable}, which drops series that stop being
+ * reported.
+ */
+public final class CountDeltaTracker {
+    private static final int COUNT = 0;
+
+    private final SeriesTable table = new SeriesTable(1);
+
+    private long resets;
+
+    /**
+     * Starts a new report; series not seen between this and {@link #endInterval()} are
+     * considered no longer reported.
+     */
+    public synchronized void beginInterval() {
+        table.beginInterval();
+    }
+
+    /**
+     * Drops series which were not seen during the interval, once there are enough of them to
+     * be worth rebuilding the table for.
+     */
+    public synchronized void endInterval() {
+        table.endInterval();
+    }
+
+    /**
+     * Records a series' count and returns how much it has gone up since it was last recorded.
+     */
+    public synchronized long delta(long series, long count) {
+        int slot = table.find(series);
+        if (slot < 0) {
+            table.set(table.add(series), COUNT, count);
+            return count;
+        }
+
+        long previous = table.get(slot, COUNT);
+        table.set(slot, COUNT, count);
+        if (count < previous) {
+            resets++;
+            return count;
+        }
+        return count - previous;
+    }
+
+    /**
+     * The number of series currently tracked.
+     */
+    public synchronized int size() {
+        return table.size();
+    }
+
+    /**
+     * The number of times a count was lower than the last time it was recorded.
+     */
+    public synchronized long getResetCount() {
+        return resets;
+    }
+}
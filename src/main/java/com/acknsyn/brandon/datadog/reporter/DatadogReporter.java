@@ -4,16 +4,31 @@ import com.acknsyn.brandon.urlwriter.URLWriterFactory;
 import com.acknsyn.brandon.urlwriter.http.HttpException;
 import com.acknsyn.brandon.urlwriter.http.UnchunkedHttpURLWriterFactory;
 import com.acknsyn.brandon.urlwriter.io.BufferedReaderFactory;
-import com.acknsyn.brandon.urlwriter.io.BufferedWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
 import com.codahale.metrics.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -21,42 +36,133 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class DatadogReporter extends ScheduledReporter {
     private static final Logger log = LoggerFactory.getLogger(DatadogReporter.class);
     private static final String REPORTER_NAME = "datadog-reporter";
-    private static final String DATADOG_API_BASE_URL = "https://app.datadoghq.com/api/v1";
-    private static final String SERIES_URL_TEMPLATE = DATADOG_API_BASE_URL + "/series?api_key=%s";
-    private static final String EVENTS_URL_TEMPLATE = DATADOG_API_BASE_URL + "/events?api_key=%s";
+    static final String DATADOG_API_BASE_URL = "https://app.datadoghq.com/api/v1";
+    static final String SERIES_URL_TEMPLATE = "%s/series?api_key=%s";
+    static final String DISTRIBUTION_URL_TEMPLATE = "%s/distribution_points?api_key=%s";
+    private static final String EVENTS_URL_TEMPLATE = "%s/events?api_key=%s";
     private static final int MILLIS_PER_SECOND = 1000;
+    private static final int DEFAULT_METRICS_PER_CHUNK = 256;
+    private static final int DEFAULT_MAX_DISTRIBUTION_BUCKETS = 2048;
+    private static final int DEFAULT_EVENT_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_EVENT_BATCH_SIZE = 64;
+    private static final long DEFAULT_EVENT_LINGER_MILLIS = 100;
+    private static final long EVENT_CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_SINK_QUEUE_CAPACITY = 4;
+    private static final long SINK_CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final long SCHEDULER_STOP_TIMEOUT_MILLIS = 1000;
+    private static final SeriesField[] GAUGE_FIELDS = {SeriesField.VALUE};
+    private static final SeriesField[] COUNTER_FIELDS = {SeriesField.COUNT};
+    private static final SeriesField[] METER_FIELDS = {SeriesField.COUNT,
+            SeriesField.M1_RATE, SeriesField.M5_RATE, SeriesField.M15_RATE, SeriesField.MEAN_RATE};
+    private static final SeriesField[] HISTOGRAM_FIELDS = {SeriesField.COUNT,
+            SeriesField.MAX, SeriesField.MEAN, SeriesField.MIN, SeriesField.STDDEV,
+            SeriesField.P50, SeriesField.P75, SeriesField.P95, SeriesField.P98, SeriesField.P99, SeriesField.P999};
+    private static final SeriesField[] TIMER_FIELDS = {
+            SeriesField.MAX, SeriesField.MEAN, SeriesField.MIN, SeriesField.STDDEV,
+            SeriesField.P50, SeriesField.P75, SeriesField.P95, SeriesField.P98, SeriesField.P99, SeriesField.P999,
+            SeriesField.COUNT, SeriesField.M1_RATE, SeriesField.M5_RATE, SeriesField.M15_RATE, SeriesField.MEAN_RATE};
 
     private final Clock clock;
     private final AliasStrategy aliasStrategy;
     private final TagStrategy tagStrategy;
+    private final FieldStrategy fieldStrategy;
     private final LifecycleEventStrategy lifecycleEventStrategy;
     private final String host;
     private final String apiKey;
+    private final String apiBaseUrl;
     private final URLWriterFactory urlWriterFactory;
+    private final int precision;
+    private final ExecutorService collectionExecutor;
+    private final int metricsPerChunk;
+    private final int maxSeriesPerRequest;
+    private final long maxBytesPerRequest;
+    private final SeriesChangeTracker changeTracker;
+    private final MetricFilter metricFilter;
+    private final CountDeltaTracker countDeltaTracker;
+    private final PointBuffer pointBuffer;
+    private final EventPublisher eventPublisher;
+    private final ReporterMetrics reporterMetrics;
+    private final List<SinkQueue> sinks = new ArrayList<SinkQueue>();
+    private int lastBatchSize;
+    private final int reportsPerRequest;
+    private int bufferedReports;
+    private final List<Source> sources = new ArrayList<Source>();
+    private final boolean aggregate;
+    private final double distributionAccuracy;
+    private final int maxDistributionValues;
+    private final ThreadLocal<DistributionSketch> sketches;
+    private final AdaptiveInterval adaptiveInterval;
+    private ScheduledThreadPoolExecutor scheduler;
+    private long lastActivity = -1;
+    private boolean idle;
 
     private DatadogReporter(MetricRegistry metricRegistry, Clock clock, MetricFilter metricFilter, TimeUnit rateUnit,
                             TimeUnit durationUnit, AliasStrategy aliasStrategy, TagStrategy tagStrategy,
-                            LifecycleEventStrategy lifecycleEventStrategy, String host, String apiKey) {
-        this(metricRegistry, clock, metricFilter, rateUnit,
-                durationUnit, aliasStrategy, tagStrategy,
-                lifecycleEventStrategy, host, apiKey,
-                new UnchunkedHttpURLWriterFactory(
-                        new BufferedWriterFactory(),
-                        new BufferedReaderFactory()));
-    }
-
-    private DatadogReporter(MetricRegistry metricRegistry, Clock clock, MetricFilter metricFilter, TimeUnit rateUnit,
-                            TimeUnit durationUnit, AliasStrategy aliasStrategy, TagStrategy tagStrategy,
-                            LifecycleEventStrategy lifecycleEventStrategy, String host, String apiKey,
-                            URLWriterFactory connectionFactory) {
+                            FieldStrategy fieldStrategy, LifecycleEventStrategy lifecycleEventStrategy, String host, String apiKey,
+                            int precision, URLWriterFactory connectionFactory, ExecutorService collectionExecutor,
+                            int metricsPerChunk, int maxSeriesPerRequest, long maxBytesPerRequest,
+                            SeriesChangeTracker changeTracker, boolean cacheSeries, double distributionAccuracy,
+                            int maxDistributionValues, Map<MetricRegistry, String[]> additionalRegistries,
+                            boolean aggregate, CountDeltaTracker countDeltaTracker, int reportsPerRequest,
+                            int maxBufferedPoints, int eventQueueCapacity, int eventBatchSize,
+                            long eventLingerMillis, MetricRegistry selfMetricsRegistry, String apiBaseUrl,
+                            boolean seriesToApi, Map<SeriesSink, Integer> sinks, long minIntervalNanos,
+                            long maxIntervalNanos) {
         super(metricRegistry, REPORTER_NAME, metricFilter, rateUnit, durationUnit);
         this.clock = clock;
         this.aliasStrategy = aliasStrategy;
         this.tagStrategy = tagStrategy;
+        this.fieldStrategy = fieldStrategy;
         this.lifecycleEventStrategy = lifecycleEventStrategy;
         this.host = host;
         this.apiKey = apiKey;
+        this.apiBaseUrl = apiBaseUrl;
         this.urlWriterFactory = connectionFactory;
+        this.precision = precision;
+        this.collectionExecutor = collectionExecutor;
+        this.metricsPerChunk = metricsPerChunk;
+        this.maxSeriesPerRequest = maxSeriesPerRequest;
+        this.maxBytesPerRequest = maxBytesPerRequest;
+        this.changeTracker = changeTracker;
+        this.metricFilter = metricFilter;
+        this.aggregate = aggregate;
+        this.countDeltaTracker = countDeltaTracker;
+        //with a single destination, the api, series are streamed straight there instead
+        if (seriesToApi && !sinks.isEmpty()) {
+            this.sinks.add(new SinkQueue(new ApiSink(), DEFAULT_SINK_QUEUE_CAPACITY));
+        }
+        for (Map.Entry<SeriesSink, Integer> entry : sinks.entrySet()) {
+            this.sinks.add(new SinkQueue(entry.getKey(), entry.getValue()));
+        }
+        this.reportsPerRequest = reportsPerRequest;
+        this.pointBuffer = reportsPerRequest > 1 && this.sinks.isEmpty()
+                ? new PointBuffer(reportsPerRequest, maxBufferedPoints) : null;
+        try {
+            URL eventsUrl = new URL(String.format(EVENTS_URL_TEMPLATE, apiBaseUrl, apiKey));
+            this.eventPublisher = new EventPublisher(urlWriterFactory, eventsUrl, eventQueueCapacity, eventBatchSize,
+                    eventLingerMillis, TimeUnit.MILLISECONDS);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("invalid api base url: " + apiBaseUrl, e);
+        }
+        sources.add(new Source(metricRegistry, null, cacheSeries));
+        for (Map.Entry<MetricRegistry, String[]> entry : additionalRegistries.entrySet()) {
+            sources.add(new Source(entry.getKey(), entry.getValue(), cacheSeries));
+        }
+        this.reporterMetrics = selfMetricsRegistry != null ? new ReporterMetrics(selfMetricsRegistry) : null;
+        if (selfMetricsRegistry != null && selfMetricsRegistry != metricRegistry
+                && !additionalRegistries.containsKey(selfMetricsRegistry)) {
+            sources.add(new Source(selfMetricsRegistry, null, cacheSeries));
+        }
+        this.distributionAccuracy = distributionAccuracy;
+        this.maxDistributionValues = maxDistributionValues;
+        this.sketches = new ThreadLocal<DistributionSketch>() {
+            @Override
+            protected DistributionSketch initialValue() {
+                return new DistributionSketch(DatadogReporter.this.distributionAccuracy,
+                        DEFAULT_MAX_DISTRIBUTION_BUCKETS);
+            }
+        };
+        this.adaptiveInterval = maxIntervalNanos > 0 ? new AdaptiveInterval(minIntervalNanos, maxIntervalNanos) : null;
     }
 
     public static Builder forRegistry(MetricRegistry registry) {
@@ -71,7 +177,33 @@ public class DatadogReporter extends ScheduledReporter {
         private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
         private AliasStrategy aliasStrategy = new NoChangeAliasStrategy();
         private TagStrategy tagStrategy = new EmptyTagStrategy();
+        private FieldStrategy fieldStrategy = new AllFieldsStrategy();
         private LifecycleEventStrategy lifecycleEventStrategy = new NullLifecyleEventStrategy();
+        private int precision = SeriesStream.DEFAULT_PRECISION;
+        private URLWriterFactory urlWriterFactory;
+        private ExecutorService collectionExecutor;
+        private int metricsPerChunk = DEFAULT_METRICS_PER_CHUNK;
+        private int maxSeriesPerRequest = Integer.MAX_VALUE;
+        private long maxBytesPerRequest = Long.MAX_VALUE;
+        private long heartbeatSeconds;
+        private boolean cacheSeries = true;
+        private double distributionAccuracy;
+        private int maxDistributionValues;
+        private Map<MetricRegistry, String[]> additionalRegistries = new LinkedHashMap<MetricRegistry, String[]>();
+        private boolean aggregate;
+        private boolean countDeltas;
+        private int reportsPerRequest;
+        private int maxBufferedPoints;
+        private int eventQueueCapacity = DEFAULT_EVENT_QUEUE_CAPACITY;
+        private int eventBatchSize = DEFAULT_EVENT_BATCH_SIZE;
+        private long eventLingerMillis = DEFAULT_EVENT_LINGER_MILLIS;
+        private MetricRegistry selfMetricsRegistry;
+        private String apiBaseUrl = DATADOG_API_BASE_URL;
+        private InetSocketAddress dogStatsDAgent;
+        private int maxDogStatsDPacketSize;
+        private Map<SeriesSink, Integer> sinks = new LinkedHashMap<SeriesSink, Integer>();
+        private long minIntervalNanos;
+        private long maxIntervalNanos;
 
         public Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -107,28 +239,369 @@ public class DatadogReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Chooses which fields of each metric are reported, e.g. with a
+         * {@link SelectedFieldsStrategy}. Fields not chosen are neither computed nor sent; a
+         * timer or histogram with no percentile fields chosen isn't even snapshotted.
+         */
+        public Builder fieldsUsing(FieldStrategy fieldStrategy) {
+            this.fieldStrategy = fieldStrategy;
+            return this;
+        }
+
         public Builder lifecycleEventsUsing(LifecycleEventStrategy lifecycleEventStrategy) {
             this.lifecycleEventStrategy = lifecycleEventStrategy;
             return this;
         }
 
+        /**
+         * Number of decimal places rates, durations and other floating point values are
+         * reported with. Defaults to 2.
+         */
+        public Builder withPrecision(int precision) {
+            if (precision < 0 || precision > SeriesStream.MAX_PRECISION) {
+                throw new IllegalArgumentException("precision must be between 0 and " + SeriesStream.MAX_PRECISION);
+            }
+            this.precision = precision;
+            return this;
+        }
+
+        public Builder writeUsing(URLWriterFactory urlWriterFactory) {
+            this.urlWriterFactory = urlWriterFactory;
+            return this;
+        }
+
+        /**
+         * Takes snapshots and serializes series on the given executor, in chunks of metrics,
+         * instead of on the reporter thread. Chunks are joined into the payload in the same
+         * order as when collecting serially. The alias and tag strategies must be thread-safe.
+         * The executor is not shut down by the reporter.
+         */
+        public Builder collectInParallel(ExecutorService executor) {
+            return collectInParallel(executor, DEFAULT_METRICS_PER_CHUNK);
+        }
+
+        public Builder collectInParallel(ExecutorService executor, int metricsPerChunk) {
+            if (metricsPerChunk < 1) {
+                throw new IllegalArgumentException("metricsPerChunk must be positive");
+            }
+            this.collectionExecutor = executor;
+            this.metricsPerChunk = metricsPerChunk;
+            return this;
+        }
+
+        /**
+         * Splits the series payload into several requests once either limit is reached, so
+         * a request body never grows much past the limit and a failed request loses only
+         * its own batch. Limits are checked between metrics (or between chunks, when
+         * collecting in parallel), so a batch can overshoot by up to one metric or chunk.
+         */
+        public Builder splitRequestsAt(int maxSeriesPerRequest, long maxBytesPerRequest) {
+            if (maxSeriesPerRequest < 1 || maxBytesPerRequest < 1) {
+                throw new IllegalArgumentException("request limits must be positive");
+            }
+            this.maxSeriesPerRequest = maxSeriesPerRequest;
+            this.maxBytesPerRequest = maxBytesPerRequest;
+            return this;
+        }
+
+        /**
+         * Only sends series whose value has changed since they were last sent, and those
+         * that haven't been sent for <code>heartbeat</code>. Values are compared as written,
+         * i.e. after rounding to the configured precision. A series is considered sent once
+         * written, so a series in a request that fails is not sent again until it changes or
+         * its heartbeat comes round.
+         */
+        public Builder reportChangesOnly(long heartbeat, TimeUnit unit) {
+            long seconds = unit.toSeconds(heartbeat);
+            if (seconds < 1) {
+                throw new IllegalArgumentException("heartbeat must be at least one second");
+            }
+            this.heartbeatSeconds = seconds;
+            return this;
+        }
+
+        /**
+         * Whether to render each metric's series names, host and tags once and reuse them
+         * every interval, rather than asking the alias and tag strategies again each time.
+         * On by default; turn it off if the strategies can give different answers for the
+         * same metric over time.
+         */
+        public Builder cacheSeries(boolean cacheSeries) {
+            this.cacheSeries = cacheSeries;
+            return this;
+        }
+
+        /**
+         * Reports the values in each histogram's and timer's snapshot as one Datadog
+         * distribution, which can be aggregated across hosts, instead of as ten percentile
+         * gauges. Values are first summarized in a {@link DistributionSketch} of bounded size,
+         * so each is accurate to within <code>relativeAccuracy</code>, and at most
+         * <code>maxValues</code> values, in the same proportions, are sent per metric.
+         * Counts and rates are still sent as series.
+         *
+         * Datadog treats the values as observed during the interval, so this is best used with
+         * a reservoir that only holds recent values, such as a sliding time window.
+         */
+        public Builder reportDistributions(double relativeAccuracy, int maxValues) {
+            if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+                throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+            }
+            if (maxValues < 1) {
+                throw new IllegalArgumentException("maxValues must be positive");
+            }
+            this.distributionAccuracy = relativeAccuracy;
+            this.maxDistributionValues = maxValues;
+            return this;
+        }
+
+        /**
+         * Reports another registry's metrics alongside this one's, on the same schedule, with
+         * the same timestamp and in the same requests. <code>tags</code>, if any, are added
+         * to every series from that registry, e.g. to tell apart modules using the same names.
+         */
+        public Builder alsoReport(MetricRegistry registry, String... tags) {
+            additionalRegistries.put(registry, tags);
+            return this;
+        }
+
+        /**
+         * Sums counters, and merges meters, which are reported as the same series, i.e. have
+         * the same alias and tags, whether in one registry or several. Merged meters' rates are
+         * summed too. Aggregated counters and meters are sent after all other metrics.
+         */
+        public Builder aggregateCounters() {
+            this.aggregate = true;
+            return this;
+        }
+
+        /**
+         * Sends the counts of counters, meters and timers as counters holding the increase
+         * since the previous report, rather than as gauges holding the running total. A count
+         * that goes down is taken to have been reset and is sent whole, so this suits counters
+         * which are only ever incremented. An increase is considered sent once written, so it
+         * is lost with a request that fails.
+         */
+        public Builder reportCountDeltas() {
+            this.countDeltas = true;
+            return this;
+        }
+
+        /**
+         * Collects at the reporting period but only sends every <code>reportsPerRequest</code>
+         * reports, each series carrying the points from all of them, cutting the number of
+         * requests without losing resolution. At most <code>maxBufferedPoints</code> points
+         * are held; series which don't fit are sent as they are collected. Distributions are
+         * not buffered. Anything buffered is sent when the reporter is stopped.
+         */
+        public Builder bufferPoints(int reportsPerRequest, int maxBufferedPoints) {
+            if (reportsPerRequest < 1) {
+                throw new IllegalArgumentException("reportsPerRequest must be positive");
+            }
+            if (maxBufferedPoints < reportsPerRequest) {
+                throw new IllegalArgumentException("maxBufferedPoints must be at least reportsPerRequest");
+            }
+            this.reportsPerRequest = reportsPerRequest;
+            this.maxBufferedPoints = maxBufferedPoints;
+            return this;
+        }
+
+        /**
+         * Sizes the queue {@link DatadogReporter#publishEvent(Event) published} events wait
+         * in, how many the sender takes at a time and how long it lets them gather first.
+         */
+        public Builder queueEvents(int capacity, int batchSize, long linger, TimeUnit unit) {
+            if (capacity < 1 || batchSize < 1) {
+                throw new IllegalArgumentException("capacity and batchSize must be positive");
+            }
+            this.eventQueueCapacity = capacity;
+            this.eventBatchSize = batchSize;
+            this.eventLingerMillis = unit.toMillis(linger);
+            return this;
+        }
+
+        /**
+         * Records how long reporting takes, how much is sent and how often sending fails,
+         * under <code>datadog.reporter.*</code>, in <code>registry</code>, which is reported
+         * along with everything else. See {@link ReporterMetrics} for what is recorded.
+         */
+        public Builder recordSelfMetrics(MetricRegistry registry) {
+            this.selfMetricsRegistry = registry;
+            return this;
+        }
+
+        /**
+         * Sends to another Datadog site, or a stand-in, rather than
+         * <code>https://app.datadoghq.com/api/v1</code>; e.g.
+         * <code>https://api.datadoghq.eu/api/v1</code>.
+         */
+        public Builder withApiBaseUrl(String apiBaseUrl) {
+            this.apiBaseUrl = apiBaseUrl.endsWith("/") ? apiBaseUrl.substring(0, apiBaseUrl.length() - 1) : apiBaseUrl;
+            return this;
+        }
+
+        /**
+         * Sends series to a DogStatsD agent, e.g. the one on the local host at
+         * <code>localhost:8125</code>, as UDP datagrams, instead of to the api over http.
+         * Reporting then costs microseconds and doesn't wait on the network, but the agent
+         * aggregates over its own interval and sets its own timestamps, and nothing is
+         * retried. Events still go to the api. Points aren't buffered. To send to both the
+         * api and an agent, {@link #addSink add} a {@link DogStatsDWriter} instead.
+         */
+        public Builder sendToDogStatsD(String host, int port) {
+            return sendToDogStatsD(new InetSocketAddress(host, port), DogStatsDWriter.DEFAULT_MAX_PACKET_SIZE);
+        }
+
+        /**
+         * @param maxPacketSize the most bytes of series lines sent in one datagram; the
+         *                      default suits an ethernet mtu, but a local agent can take more
+         */
+        public Builder sendToDogStatsD(InetSocketAddress agent, int maxPacketSize) {
+            if (maxPacketSize < 1) {
+                throw new IllegalArgumentException("maxPacketSize must be positive");
+            }
+            this.dogStatsDAgent = agent;
+            this.maxDogStatsDPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * Sends each report's series to <code>sink</code> as well as to the api. Metrics are
+         * still only collected once per report; the series are then handed to the api and to
+         * every sink, each on its own thread, so a slow or failing sink doesn't hold up the
+         * others. A sink falling more than <code>maxQueuedReports</code> reports behind misses
+         * reports until it catches up. Points aren't buffered once a sink is added.
+         */
+        public Builder addSink(SeriesSink sink, int maxQueuedReports) {
+            if (maxQueuedReports < 1) {
+                throw new IllegalArgumentException("maxQueuedReports must be positive");
+            }
+            sinks.put(sink, maxQueuedReports);
+            return this;
+        }
+
+        public Builder addSink(SeriesSink sink) {
+            return addSink(sink, DEFAULT_SINK_QUEUE_CAPACITY);
+        }
+
+        /**
+         * Once {@link DatadogReporter#start started}, works out how long to wait before each
+         * report from how the last went, rather than reporting at a fixed rate, keeping between
+         * <code>minPeriod</code> and <code>maxPeriod</code> from the start of one report to the
+         * next. A report never starts before the last has finished, and one which runs over
+         * its interval doesn't leave a backlog of reports behind it: the next report covers the
+         * time since, as one.
+         *
+         * A report taking more than half its interval, e.g. while sending is slow, stretches
+         * the next interval to twice as long as the report took. While none of the counters,
+         * meters, histograms or timers count anything, the interval doubles each report, and
+         * it's back to the period started with as soon as they do. Gauges aren't considered, so
+         * <code>maxPeriod</code> should be as long as gauges can go unreported.
+         */
+        public Builder adaptInterval(long minPeriod, long maxPeriod, TimeUnit unit) {
+            if (minPeriod <= 0 || maxPeriod < minPeriod) {
+                throw new IllegalArgumentException("minPeriod must be positive and no more than maxPeriod");
+            }
+            this.minIntervalNanos = unit.toNanos(minPeriod);
+            this.maxIntervalNanos = unit.toNanos(maxPeriod);
+            return this;
+        }
+
         public DatadogReporter build(String host, String apiKey) {
+            URLWriterFactory writerFactory = urlWriterFactory;
+            if (writerFactory == null) {
+                writerFactory = new UnchunkedHttpURLWriterFactory(new Utf8WriterFactory(), new BufferedReaderFactory());
+            }
             return new DatadogReporter(registry, clock, filter, rateUnit, durationUnit, aliasStrategy, tagStrategy,
-                    lifecycleEventStrategy, host, apiKey);
+                    fieldStrategy, lifecycleEventStrategy, host, apiKey, precision, writerFactory, collectionExecutor,
+                    metricsPerChunk, maxSeriesPerRequest, maxBytesPerRequest,
+                    heartbeatSeconds > 0 ? new SeriesChangeTracker(heartbeatSeconds) : null, cacheSeries,
+                    distributionAccuracy, maxDistributionValues, additionalRegistries, aggregate,
+                    countDeltas ? new CountDeltaTracker() : null, reportsPerRequest, maxBufferedPoints,
+                    eventQueueCapacity, eventBatchSize, eventLingerMillis, selfMetricsRegistry, apiBaseUrl,
+                    dogStatsDAgent == null, sinks(), minIntervalNanos, maxIntervalNanos);
+        }
+
+        private Map<SeriesSink, Integer> sinks() {
+            if (dogStatsDAgent == null) {
+                return sinks;
+            }
+            Map<SeriesSink, Integer> all = new LinkedHashMap<SeriesSink, Integer>();
+            all.put(new DogStatsDWriter(dogStatsDAgent, maxDogStatsDPacketSize, precision), DEFAULT_SINK_QUEUE_CAPACITY);
+            all.putAll(sinks);
+            return all;
+        }
+    }
+
+    /**
+     * Reports every registry's metrics in one go.
+     */
+    @Override
+    public synchronized void report() {
+        final long start = clock.getTick();
+        List<Collected> collected = new ArrayList<Collected>(sources.size());
+        for (Source source : sources) {
+            MetricRegistry registry = source.registry;
+            collected.add(new Collected(source, registry.getGauges(metricFilter), registry.getCounters(metricFilter),
+                    registry.getHistograms(metricFilter), registry.getMeters(metricFilter),
+                    registry.getTimers(metricFilter)));
+        }
+        if (reporterMetrics != null) {
+            reporterMetrics.snapshot(clock.getTick() - start);
+        }
+        if (adaptiveInterval != null) {
+            long activity = activity(collected);
+            idle = activity == lastActivity;
+            lastActivity = activity;
+        }
+        reportSeries(collected);
+    }
+
+    /**
+     * The sum of every count collected, other than the reporter's own, which changes
+     * whenever anything is counted.
+     */
+    private static long activity(List<Collected> collected) {
+        long activity = 0;
+        for (Collected metrics : collected) {
+            activity += activity(metrics.counters);
+            activity += activity(metrics.histograms);
+            activity += activity(metrics.meters);
+            activity += activity(metrics.timers);
+        }
+        return activity;
+    }
+
+    private static long activity(SortedMap<String, ? extends Counting> metrics) {
+        long activity = 0;
+        for (Map.Entry<String, ? extends Counting> entry : metrics.entrySet()) {
+            if (!entry.getKey().startsWith(ReporterMetrics.PREFIX + '.')) {
+                activity += entry.getValue().getCount();
+            }
         }
+        return activity;
     }
 
     @Override
     public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
                        SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
                        SortedMap<String, Timer> timers) {
-        reportSeries(gauges, counters, histograms, meters, timers);
+        reportSeries(Collections.singletonList(new Collected(sources.get(0), gauges, counters, histograms, meters,
+                timers)));
     }
 
     @Override
     public void start(long period, TimeUnit unit) {
         try {
-            super.start(period, unit);
+            if (adaptiveInterval != null) {
+                startAdaptive(period, unit);
+            } else {
+                super.start(period, unit);
+            }
+            if (reporterMetrics != null) {
+                reporterMetrics.interval(adaptiveInterval != null
+                        ? TimeUnit.NANOSECONDS.toMillis(adaptiveInterval.current()) : unit.toMillis(period));
+            }
             reportEvent(lifecycleEventStrategy.event(Lifecycle.START));
             log.info("datadog reporter started");
         } catch (Exception e) {
@@ -136,84 +609,781 @@ public class DatadogReporter extends ScheduledReporter {
         }
     }
 
+    /**
+     * Schedules each report once the last has finished, rather than at a fixed rate as
+     * {@link ScheduledReporter} does.
+     */
+    private synchronized void startAdaptive(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("already started");
+        }
+        adaptiveInterval.reset(unit.toNanos(period));
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, REPORTER_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //don't wait out the next interval on stop
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduler.schedule(new AdaptiveReport(scheduler), adaptiveInterval.current(), TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public void stop() {
         try {
             super.stop();
+            ScheduledThreadPoolExecutor adaptiveScheduler;
+            synchronized (this) {
+                adaptiveScheduler = scheduler;
+            }
+            if (adaptiveScheduler != null) {
+                adaptiveScheduler.shutdown();
+                if (!adaptiveScheduler.awaitTermination(SCHEDULER_STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    log.warn("gave up waiting for the last report to finish");
+                }
+            }
+            sendBuffered();
+            for (Source source : sources) {
+                source.close();
+            }
+            for (SinkQueue sink : sinks) {
+                sink.close(SINK_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
             reportEvent(lifecycleEventStrategy.event(Lifecycle.STOP));
+            if (!eventPublisher.close(EVENT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("gave up waiting for queued events to be sent to datadog");
+            }
             log.info("datadog reporter stopped");
         } catch (Exception e) {
             log.error("failed to stop datadog reporter", e);
         }
     }
 
-    private void reportSeries(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
-                              SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
-                              SortedMap<String, Timer> timers) {
+    private void reportSeries(List<Collected> collected) {
+        final long start = clock.getTick();
         final long timestamp = clock.getTime() / MILLIS_PER_SECOND;
+        //with sinks, series are collected into a batch, handed to them once collected
+        final SeriesBatch batch = sinks.isEmpty() ? null : new SeriesBatch(timestamp, lastBatchSize);
 
-        Writer urlWriter = null;
-        try {
-            URL seriesUrl = new URL(String.format(SERIES_URL_TEMPLATE, apiKey));
-            urlWriter = urlWriterFactory.getWriter(seriesUrl);
+        if (changeTracker != null) {
+            changeTracker.beginInterval();
+        }
+        if (countDeltaTracker != null) {
+            countDeltaTracker.beginInterval();
+        }
 
-            SeriesStream series = new SeriesStream(urlWriter);
+        SeriesBatcher batcher = null;
+        SeriesBatcher distributionBatcher = null;
+        try {
+            if (batch != null) {
+                batcher = new SeriesBatcher(batch);
+                if (maxDistributionValues > 0) {
+                    distributionBatcher = new SeriesBatcher(batch);
+                }
+            } else {
+                batcher = new SeriesBatcher(seriesUrl(), pointBuffer, changeTracker);
+                if (maxDistributionValues > 0) {
+                    distributionBatcher = new SeriesBatcher(distributionUrl(), null, changeTracker);
+                }
+            }
 
-            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-                reportGauge(series, entry.getKey(), entry.getValue(), timestamp);
+            if (collectionExecutor != null) {
+                writeSeriesInParallel(batcher, distributionBatcher, collected, timestamp);
+            } else {
+                for (Collected metrics : collected) {
+                    writeSeries(batcher, distributionBatcher, metrics, timestamp);
+                }
+            }
+            if (aggregate) {
+                writeAggregated(batcher, collected, timestamp);
+            }
+            if (pointBuffer != null && ++bufferedReports >= reportsPerRequest) {
+                writeBuffered(batcher);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.warn("interrupted while collecting metrics for datadog");
+        } catch (Exception e) {
+            log.error("unable to report metrics to datadog", e);
+        } finally {
+            if (batcher != null) {
+                batcher.send();
+            }
+            if (distributionBatcher != null) {
+                distributionBatcher.send();
+            }
+            if (batch != null) {
+                dispatch(batch);
+            }
+            if (changeTracker != null) {
+                changeTracker.endInterval();
             }
+            if (countDeltaTracker != null) {
+                countDeltaTracker.endInterval();
+            }
+            if (reporterMetrics != null) {
+                long httpNanos = batcher != null ? batcher.httpNanos : 0;
+                int seriesSent = batcher != null ? batcher.seriesSent : 0;
+                if (distributionBatcher != null) {
+                    httpNanos += distributionBatcher.httpNanos;
+                    seriesSent += distributionBatcher.seriesSent;
+                }
+                if (batch != null) {
+                    seriesSent += batch.size() + batch.getDistributionCount();
+                }
+                reporterMetrics.report(clock.getTick() - start, httpNanos, seriesSent);
+            }
+        }
+    }
+
+    private void dispatch(SeriesBatch batch) {
+        lastBatchSize = batch.size();
+        for (SinkQueue sink : sinks) {
+            sink.offer(batch);
+        }
+    }
+
+    private URL seriesUrl() throws MalformedURLException {
+        return new URL(String.format(SERIES_URL_TEMPLATE, apiBaseUrl, apiKey));
+    }
+
+    private URL distributionUrl() throws MalformedURLException {
+        return new URL(String.format(DISTRIBUTION_URL_TEMPLATE, apiBaseUrl, apiKey));
+    }
+
+    private void writeSeries(SeriesBatcher batcher, SeriesBatcher distributionBatcher, Collected metrics,
+                             long timestamp) throws IOException {
+        final Source source = metrics.source;
+
+        for (Map.Entry<String, Gauge> entry : metrics.gauges.entrySet()) {
+            reportGauge(batcher.stream(), source, entry.getKey(), entry.getValue(), timestamp);
+            batcher.checkpoint();
+        }
 
-            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-                reportCounter(series, entry.getKey(), entry.getValue(), timestamp);
+        if (!aggregate) {
+            for (Map.Entry<String, Counter> entry : metrics.counters.entrySet()) {
+                reportCounter(batcher.stream(), source, entry.getKey(), entry.getValue(), timestamp);
+                batcher.checkpoint();
             }
+        }
+
+        for (Map.Entry<String, Histogram> entry : metrics.histograms.entrySet()) {
+            reportHistogram(batcher.stream(), distributions(distributionBatcher), source, entry.getKey(),
+                    entry.getValue(), timestamp);
+            batcher.checkpoint();
+            checkpoint(distributionBatcher);
+        }
 
-            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-                reportHistogram(series, entry.getKey(), entry.getValue(), timestamp);
+        if (!aggregate) {
+            for (Map.Entry<String, Meter> entry : metrics.meters.entrySet()) {
+                reportMetered(batcher.stream(), source, entry.getKey(), entry.getValue(), timestamp);
+                batcher.checkpoint();
             }
+        }
 
-            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-                reportMetered(series, entry.getKey(), entry.getValue(), timestamp);
+        for (Map.Entry<String, Timer> entry : metrics.timers.entrySet()) {
+            reportTimer(batcher.stream(), distributions(distributionBatcher), source, entry.getKey(),
+                    entry.getValue(), timestamp);
+            batcher.checkpoint();
+            checkpoint(distributionBatcher);
+        }
+    }
+
+    /**
+     * Sums counters and merges meters reported as the same series, and writes the results.
+     */
+    private void writeAggregated(SeriesBatcher batcher, List<Collected> collected,
+                                 long timestamp) throws IOException {
+        Map<SeriesKey, MergedMeter> counters = new LinkedHashMap<SeriesKey, MergedMeter>();
+        Map<SeriesKey, MergedMeter> meters = new LinkedHashMap<SeriesKey, MergedMeter>();
+        for (Collected metrics : collected) {
+            for (Map.Entry<String, Counter> entry : metrics.counters.entrySet()) {
+                merge(counters, series(metrics.source, entry.getKey(), entry.getValue(), COUNTER_FIELDS),
+                        entry.getValue());
+            }
+            for (Map.Entry<String, Meter> entry : metrics.meters.entrySet()) {
+                merge(meters, series(metrics.source, entry.getKey(), entry.getValue(), METER_FIELDS),
+                        entry.getValue());
             }
+        }
+
+        for (MergedMeter counter : counters.values()) {
+            writeFields(batcher.stream(), counter.series, counter, null, false, timestamp);
+            batcher.checkpoint();
+        }
+        for (MergedMeter meter : meters.values()) {
+            writeFields(batcher.stream(), meter.series, meter, null, false, timestamp);
+            batcher.checkpoint();
+        }
+    }
 
-            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                reportTimer(series, entry.getKey(), entry.getValue(), timestamp);
+    private void writeBuffered(SeriesBatcher batcher) throws IOException {
+        try {
+            for (int i = 0; i < pointBuffer.size(); i++) {
+                batcher.stream().writeBuffered(pointBuffer, i);
+                batcher.checkpoint();
             }
+        } finally {
+            pointBuffer.clear();
+            bufferedReports = 0;
+        }
+    }
+
+    /**
+     * Sends whatever points are buffered, without waiting for the rest of the reports they
+     * were to go out with.
+     */
+    private synchronized void sendBuffered() {
+        if (pointBuffer == null || pointBuffer.isEmpty()) {
+            return;
+        }
 
-            series.close();
-        } catch (HttpException hre) {
-            log.error("datadog rejected request with status: {} and response: {}", hre.getStatus(), hre.getResponse());
+        SeriesBatcher batcher = null;
+        try {
+            batcher = new SeriesBatcher(seriesUrl(), null, changeTracker);
+            writeBuffered(batcher);
         } catch (Exception e) {
-            log.error("unable to report metrics to datadog", e);
+            log.error("unable to report buffered metrics to datadog", e);
         } finally {
-            if (urlWriter != null) try {
-                urlWriter.close();
-            } catch (IOException e) {
-                log.error("unable to close datadog connection", e);
+            if (batcher != null) {
+                batcher.send();
             }
         }
     }
 
-    private void reportEvent(Event event) {
-        if (event != null) {
-            Writer urlWriter = null;
-            try {
-                urlWriter = urlWriterFactory.getWriter(new URL(String.format(EVENTS_URL_TEMPLATE, apiKey)));
+    private static void merge(Map<SeriesKey, MergedMeter> merged, MetricSeries series, Metric metric) {
+        if (series.series.length == 0) {
+            return;
+        }
+        //the first series stands for the alias, tags and host shared by all of the metric's series
+        SeriesKey key = new SeriesKey(series.series[0]);
+        MergedMeter meter = merged.get(key);
+        if (meter == null) {
+            meter = new MergedMeter(series);
+            merged.put(key, meter);
+        }
+        if (metric instanceof Metered) {
+            meter.add((Metered) metric);
+        } else {
+            meter.add(((Counting) metric).getCount());
+        }
+    }
+
+    private static SeriesStream distributions(SeriesBatcher distributionBatcher) throws IOException {
+        return distributionBatcher != null ? distributionBatcher.stream() : null;
+    }
+
+    private static void checkpoint(SeriesBatcher distributionBatcher) {
+        if (distributionBatcher != null) {
+            distributionBatcher.checkpoint();
+        }
+    }
 
-                urlWriter.write(event.toString());
+    private void writeSeriesInParallel(SeriesBatcher batcher, SeriesBatcher distributionBatcher,
+                                       List<Collected> collected,
+                                       long timestamp) throws IOException, InterruptedException {
+        List<Future<SeriesStream.Fragment[]>> chunks = new ArrayList<Future<SeriesStream.Fragment[]>>();
+        try {
+            for (Collected metrics : collected) {
+                submitChunks(chunks, MetricKind.GAUGE, metrics.source, metrics.gauges, timestamp);
+                if (!aggregate) {
+                    submitChunks(chunks, MetricKind.COUNTER, metrics.source, metrics.counters, timestamp);
+                }
+                submitChunks(chunks, MetricKind.HISTOGRAM, metrics.source, metrics.histograms, timestamp);
+                if (!aggregate) {
+                    submitChunks(chunks, MetricKind.METER, metrics.source, metrics.meters, timestamp);
+                }
+                submitChunks(chunks, MetricKind.TIMER, metrics.source, metrics.timers, timestamp);
+            }
+
+            //join in submission order so the payload is the same as a serial collection
+            for (Future<SeriesStream.Fragment[]> chunk : chunks) {
+                try {
+                    SeriesStream.Fragment[] fragments = chunk.get();
+                    batcher.stream().append(fragments[0]);
+                    batcher.checkpoint();
+                    if (distributionBatcher != null) {
+                        distributionBatcher.stream().append(fragments[1]);
+                        distributionBatcher.checkpoint();
+                    }
+                } catch (ExecutionException e) {
+                    log.error("unable to collect chunk of metrics for datadog", e.getCause());
+                }
+            }
+        } finally {
+            for (Future<SeriesStream.Fragment[]> chunk : chunks) {
+                chunk.cancel(true);
+            }
+        }
+    }
+
+    private void submitChunks(List<Future<SeriesStream.Fragment[]>> chunks, MetricKind kind, Source source,
+                              SortedMap<String, ? extends Metric> metrics, long timestamp) {
+        List<Map.Entry<String, ? extends Metric>> chunk = null;
+        for (Map.Entry<String, ? extends Metric> entry : metrics.entrySet()) {
+            if (chunk == null) {
+                chunk = new ArrayList<Map.Entry<String, ? extends Metric>>(metricsPerChunk);
+            }
+            chunk.add(entry);
+            if (chunk.size() == metricsPerChunk) {
+                chunks.add(collectionExecutor.submit(new SeriesChunk(kind, source, chunk, timestamp)));
+                chunk = null;
+            }
+        }
+        if (chunk != null) {
+            chunks.add(collectionExecutor.submit(new SeriesChunk(kind, source, chunk, timestamp)));
+        }
+    }
+
+    /**
+     * Streams series into successive requests to the series endpoint, starting a new request
+     * whenever the current one reaches the configured size limits. A request is only opened
+     * once a series is written to it, so nothing is sent when every series is skipped, or
+     * buffered.
+     */
+    private class SeriesBatcher {
+        private final URL url;
+        private final PointBuffer pointBuffer;
+        private final SeriesChangeTracker changeTracker;
+        private final SeriesBatch batch;
+        private Writer urlWriter;
+        private SeriesStream series;
+        private long httpNanos;
+        private int seriesSent;
+
+        SeriesBatcher(URL url, PointBuffer pointBuffer, SeriesChangeTracker changeTracker) {
+            this.url = url;
+            this.pointBuffer = pointBuffer;
+            this.changeTracker = changeTracker;
+            this.batch = null;
+        }
+
+        /**
+         * A batcher which only records series into <code>batch</code>, for sinks, and sends
+         * nothing.
+         */
+        SeriesBatcher(SeriesBatch batch) {
+            this.url = null;
+            this.pointBuffer = null;
+            this.changeTracker = DatadogReporter.this.changeTracker;
+            this.batch = batch;
+        }
+
+        SeriesStream stream() throws IOException {
+            if (series == null && batch != null) {
+                series = SeriesStream.recorder(batch, precision);
+                series.trackChanges(changeTracker);
+            } else if (series == null) {
+                series = new SeriesStream(new Writer() {
+                    @Override
+                    public void write(char[] cbuf, int off, int len) throws IOException {
+                        open().write(cbuf, off, len);
+                    }
+
+                    @Override
+                    public void write(String str, int off, int len) throws IOException {
+                        open().write(str, off, len);
+                    }
+
+                    @Override
+                    public void write(int c) throws IOException {
+                        open().write(c);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        open().flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        open().close();
+                    }
+                }, precision);
+                series.trackChanges(changeTracker);
+                series.bufferPoints(pointBuffer);
+            }
+            return series;
+        }
+
+        private Writer open() throws IOException {
+            if (urlWriter == null) {
+                urlWriter = urlWriterFactory.getWriter(url);
+            }
+            return urlWriter;
+        }
+
+        void checkpoint() {
+            if (series != null && (series.getSeriesCount() >= maxSeriesPerRequest
+                    || series.getSize() >= maxBytesPerRequest)) {
+                send();
+            }
+        }
+
+        /**
+         * Completes and sends the current batch, if any. Failures are logged rather than
+         * thrown so the remaining batches still get a chance to go out.
+         */
+        void send() {
+            if (series == null) {
+                return;
+            }
+
+            final long start = clock.getTick();
+            try {
+                if (series.getSeriesCount() > 0) {
+                    try {
+                        series.close();
+                    } finally {
+                        urlWriter.close();
+                    }
+                    seriesSent += series.getSeriesCount();
+                    if (reporterMetrics != null) {
+                        long nanos = clock.getTick() - start;
+                        httpNanos += nanos;
+                        reporterMetrics.request(nanos, series.getSize());
+                    }
+                }
             } catch (HttpException hre) {
                 log.error("datadog rejected request with status: {} and response: {}", hre.getStatus(), hre.getResponse());
+                failed(start, hre.getStatus());
             } catch (Exception e) {
-                log.error("unable to report event to datadog", e);
+                log.error("unable to send metrics to datadog", e);
+                failed(start, -1);
             } finally {
-                if (urlWriter != null) {
-                    try {
-                        urlWriter.close();
-                    } catch (IOException e) {
-                        log.error("unable to close datadog connection", e);
+                series = null;
+                urlWriter = null;
+            }
+        }
+
+        private void failed(long start, int status) {
+            if (reporterMetrics != null) {
+                httpNanos += clock.getTick() - start;
+                reporterMetrics.failure(status);
+            }
+        }
+    }
+
+    /**
+     * Makes a report, then schedules the next for when the adapted interval is up.
+     */
+    private class AdaptiveReport implements Runnable {
+        private final ScheduledThreadPoolExecutor scheduler;
+
+        AdaptiveReport(ScheduledThreadPoolExecutor scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public void run() {
+            final long interval = adaptiveInterval.current();
+            final long start = clock.getTick();
+            long delay = interval;
+            try {
+                try {
+                    report();
+                } catch (RuntimeException e) {
+                    log.error("unable to report metrics to datadog", e);
+                }
+                boolean wasIdle;
+                synchronized (DatadogReporter.this) {
+                    wasIdle = idle;
+                }
+                final long took = clock.getTick() - start;
+                final long next = adaptiveInterval.next(took, wasIdle);
+                delay = Math.max(0, next - took);
+
+                if (took > interval) {
+                    long skipped = took / interval;
+                    log.warn("datadog report took {}ms, skipping the {} report(s) due in the meantime",
+                            TimeUnit.NANOSECONDS.toMillis(took), skipped);
+                    if (reporterMetrics != null) {
+                        reporterMetrics.skipped(skipped);
+                    }
+                }
+                if (reporterMetrics != null) {
+                    reporterMetrics.interval(TimeUnit.NANOSECONDS.toMillis(next));
+                }
+            } catch (Error e) {
+                //the executor would keep this to itself
+                log.error("unable to report metrics to datadog", e);
+                throw e;
+            } finally {
+                //an error must not stop reporting for good
+                try {
+                    scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    //stopped
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends batches of series to the api, as the reporter does itself when there are no
+     * other sinks, split into requests the same way.
+     */
+    private class ApiSink implements SeriesSink {
+        public void write(SeriesBatch batch) throws IOException {
+            final long timestamp = batch.getTimestamp();
+            SeriesBatcher batcher = new SeriesBatcher(seriesUrl(), null, null);
+            SeriesBatcher distributionBatcher = null;
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.isDouble(i)) {
+                        batcher.stream().writeMetric(batch.getSeries(i), timestamp, batch.getDouble(i));
+                    } else {
+                        batcher.stream().writeMetric(batch.getSeries(i), timestamp, batch.getLong(i));
+                    }
+                    batcher.checkpoint();
+                }
+                if (maxDistributionValues > 0 && batch.getDistributionCount() > 0) {
+                    distributionBatcher = new SeriesBatcher(distributionUrl(), null, null);
+                    for (int i = 0; i < batch.getDistributionCount(); i++) {
+                        distributionBatcher.stream().writeDistribution(batch.getDistribution(i), timestamp,
+                                maxDistributionValues);
+                        distributionBatcher.checkpoint();
                     }
                 }
+            } finally {
+                batcher.send();
+                if (distributionBatcher != null) {
+                    distributionBatcher.send();
+                }
             }
         }
+
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "the datadog api";
+        }
+    }
+
+    /**
+     * A registry being reported, with the tags added to its series and the cache of how its
+     * metrics are reported.
+     */
+    private static final class Source {
+        private final MetricRegistry registry;
+        private final String[] tags;
+        private final SeriesCache cache;
+
+        Source(MetricRegistry registry, String[] tags, boolean cacheSeries) {
+            this.registry = registry;
+            this.tags = tags;
+            this.cache = cacheSeries ? new SeriesCache() : null;
+            if (cache != null) {
+                registry.addListener(cache);
+            }
+        }
+
+        void close() {
+            if (cache != null) {
+                registry.removeListener(cache);
+            }
+        }
+    }
+
+    /**
+     * The metrics collected from one registry for a report.
+     */
+    private static final class Collected {
+        private final Source source;
+        private final SortedMap<String, Gauge> gauges;
+        private final SortedMap<String, Counter> counters;
+        private final SortedMap<String, Histogram> histograms;
+        private final SortedMap<String, Meter> meters;
+        private final SortedMap<String, Timer> timers;
+
+        Collected(Source source, SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                  SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                  SortedMap<String, Timer> timers) {
+            this.source = source;
+            this.gauges = gauges;
+            this.counters = counters;
+            this.histograms = histograms;
+            this.meters = meters;
+            this.timers = timers;
+        }
+    }
+
+    /**
+     * A series' name, host and tags, for telling whether two metrics are reported as the same
+     * series; its hash only picks the bucket, so series whose hashes collide aren't merged.
+     */
+    private static final class SeriesKey {
+        private final Series series;
+
+        SeriesKey(Series series) {
+            this.series = series;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SeriesKey)) return false;
+            Series other = ((SeriesKey) o).series;
+            return series.hash == other.hash
+                    && series.getMetricName().equals(other.getMetricName())
+                    && (series.getHost() == null ? other.getHost() == null : series.getHost().equals(other.getHost()))
+                    && Arrays.equals(series.getTags(), other.getTags());
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (series.hash ^ (series.hash >>> 32));
+        }
+    }
+
+    /**
+     * Counters or meters reported as the same series, added together.
+     */
+    private static final class MergedMeter implements Metered {
+        private final MetricSeries series;
+        private long count;
+        private double oneMinuteRate;
+        private double fiveMinuteRate;
+        private double fifteenMinuteRate;
+        private double meanRate;
+
+        MergedMeter(MetricSeries series) {
+            this.series = series;
+        }
+
+        void add(long count) {
+            this.count += count;
+        }
+
+        void add(Metered meter) {
+            count += meter.getCount();
+            oneMinuteRate += meter.getOneMinuteRate();
+            fiveMinuteRate += meter.getFiveMinuteRate();
+            fifteenMinuteRate += meter.getFifteenMinuteRate();
+            meanRate += meter.getMeanRate();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getFifteenMinuteRate() {
+            return fifteenMinuteRate;
+        }
+
+        public double getFiveMinuteRate() {
+            return fiveMinuteRate;
+        }
+
+        public double getMeanRate() {
+            return meanRate;
+        }
+
+        public double getOneMinuteRate() {
+            return oneMinuteRate;
+        }
+    }
+
+    private static enum MetricKind {
+        GAUGE, COUNTER, HISTOGRAM, METER, TIMER
+    }
+
+    /**
+     * Collects a chunk of metrics into a fragment of series and, when reporting
+     * distributions, a fragment of distributions.
+     */
+    private class SeriesChunk implements Callable<SeriesStream.Fragment[]> {
+        private final MetricKind kind;
+        private final Source source;
+        private final List<Map.Entry<String, ? extends Metric>> entries;
+        private final long timestamp;
+
+        SeriesChunk(MetricKind kind, Source source, List<Map.Entry<String, ? extends Metric>> entries,
+                    long timestamp) {
+            this.kind = kind;
+            this.source = source;
+            this.entries = entries;
+            this.timestamp = timestamp;
+        }
+
+        public SeriesStream.Fragment[] call() throws IOException {
+            SeriesStream.Fragment fragment = new SeriesStream.Fragment(precision);
+            SeriesStream series = fragment.getStream();
+            series.trackChanges(changeTracker);
+            series.bufferPoints(pointBuffer);
+            SeriesStream.Fragment distributionFragment = null;
+            SeriesStream distributions = null;
+            if (maxDistributionValues > 0) {
+                distributionFragment = new SeriesStream.Fragment(precision);
+                distributions = distributionFragment.getStream();
+            }
+            //recorded fragments are appended to the report's batch when joined
+            if (!sinks.isEmpty()) {
+                series.recordTo(new SeriesBatch(timestamp, entries.size()));
+                if (distributions != null) {
+                    distributions.recordTo(new SeriesBatch(timestamp, 0));
+                }
+            }
+
+            for (Map.Entry<String, ? extends Metric> entry : entries) {
+                String name = entry.getKey();
+                Metric metric = entry.getValue();
+                switch (kind) {
+                    case GAUGE:
+                        reportGauge(series, source, name, (Gauge) metric, timestamp);
+                        break;
+                    case COUNTER:
+                        reportCounter(series, source, name, (Counter) metric, timestamp);
+                        break;
+                    case HISTOGRAM:
+                        reportHistogram(series, distributions, source, name, (Histogram) metric, timestamp);
+                        break;
+                    case METER:
+                        reportMetered(series, source, name, (Metered) metric, timestamp);
+                        break;
+                    case TIMER:
+                        reportTimer(series, distributions, source, name, (Timer) metric, timestamp);
+                        break;
+                }
+            }
+
+            return new SeriesStream.Fragment[]{fragment, distributionFragment};
+        }
+    }
+
+    /**
+     * Queues an event to be sent to Datadog in the background, without waiting.
+     *
+     * @return false if the event was dropped because the queue is full, or the reporter stopped
+     */
+    public boolean publishEvent(Event event) {
+        return eventPublisher.publish(event);
+    }
+
+    /**
+     * Queues an event to be sent to Datadog in the background, waiting up to
+     * <code>timeout</code> for room in the queue.
+     *
+     * @return false if the event was dropped because no room came up, or the reporter stopped
+     */
+    public boolean publishEvent(Event event, long timeout, TimeUnit unit) {
+        return eventPublisher.publish(event, timeout, unit);
+    }
+
+    /**
+     * The queue events are published through, e.g. to keep an eye on how many are dropped.
+     */
+    public EventPublisher getEventPublisher() {
+        return eventPublisher;
+    }
+
+    private void reportEvent(Event event) {
+        if (event != null && !eventPublisher.publish(event)) {
+            log.warn("event queue full, dropped event: {}", event);
+        }
     }
 
     //TODO: escape required json unicode characters where appropriate
@@ -222,72 +1392,195 @@ public class DatadogReporter extends ScheduledReporter {
     }
 
     //TODO: escape required json unicode characters where appropriate
-    private String[] tags(String name, Metric metric) {
-        return tagStrategy.tags(name, metric);
+    private String[] tags(Source source, String name, Metric metric) {
+        String[] tags = tagStrategy.tags(name, metric);
+        if (source.tags == null || source.tags.length == 0) {
+            return tags;
+        }
+        if (tags == null || tags.length == 0) {
+            return source.tags;
+        }
+        String[] combined = new String[source.tags.length + tags.length];
+        System.arraycopy(source.tags, 0, combined, 0, source.tags.length);
+        System.arraycopy(tags, 0, combined, source.tags.length, tags.length);
+        return combined;
+    }
+
+    /**
+     * How a metric is reported, one series per selected field, worked out on first use and
+     * cached from then on.
+     *
+     * @param typeFields the fields metrics of this type have, in the order they are written
+     */
+    private MetricSeries series(Source source, String originalName, Metric metric, SeriesField[] typeFields) {
+        MetricSeries series = source.cache != null ? source.cache.get(originalName, metric) : null;
+        if (series == null) {
+            String alias = alias(originalName, metric);
+            String[] tags = tags(source, originalName, metric);
+            Set<SeriesField> selected = fieldStrategy.fields(originalName, metric);
+
+            //snapshot fields are replaced by a distribution, if reporting distributions
+            boolean distribution = false;
+            List<SeriesField> fields = new ArrayList<SeriesField>(typeFields.length);
+            for (SeriesField field : typeFields) {
+                if (!selected.contains(field)) {
+                    continue;
+                }
+                if (maxDistributionValues > 0 && field.isFromSnapshot()) {
+                    distribution = true;
+                } else {
+                    fields.add(field);
+                }
+            }
+
+            String[] names = new String[fields.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = name(alias, fields.get(i).getSuffix());
+            }
+            Series[] fieldSeries = Series.group(names, SeriesStream.MetricType.GAUGE, host, tags);
+
+            boolean countDeltas = countDeltaTracker != null && (metric instanceof Counter || metric instanceof Metered);
+            if (countDeltas) {
+                for (int i = 0; i < names.length; i++) {
+                    if (fields.get(i) == SeriesField.COUNT) {
+                        fieldSeries[i] = new Series(names[i], SeriesStream.MetricType.COUNTER, host, tags);
+                    }
+                }
+            }
+
+            series = new MetricSeries(fields.toArray(new SeriesField[fields.size()]), fieldSeries,
+                    distribution ? new Series(alias, null, host, tags) : null, countDeltas);
+            if (source.cache != null) {
+                source.cache.put(originalName, metric, series);
+            }
+        }
+        return series;
     }
 
-    private void reportMetered(SeriesStream series, String originalName, Metered meter,
+    private void reportMetered(SeriesStream series, Source source, String originalName, Metered meter,
                                long timestamp) throws IOException {
-        String alias = alias(originalName, meter);
-        String[] tags = tags(originalName, meter);
+        writeFields(series, series(source, originalName, meter, METER_FIELDS), meter, null, false, timestamp);
+    }
 
-        series.writeMetric(name(alias, "count"), timestamp, meter.getCount(), host, tags);
-        series.writeMetric(name(alias, "m1_rate"), timestamp, convertRate(meter.getOneMinuteRate()), host, tags);
-        series.writeMetric(name(alias, "m5_rate"), timestamp, convertRate(meter.getFiveMinuteRate()), host, tags);
-        series.writeMetric(name(alias, "m15_rate"), timestamp, convertRate(meter.getFifteenMinuteRate()), host, tags);
-        series.writeMetric(name(alias, "mean_rate"), timestamp, convertRate(meter.getMeanRate()), host, tags);
+    private void reportTimer(SeriesStream series, SeriesStream distributions, Source source, String originalName,
+                             Timer timer, long timestamp) throws IOException {
+        reportSampled(series, distributions, series(source, originalName, timer, TIMER_FIELDS), timer, true, timestamp);
     }
 
-    private void reportTimer(SeriesStream series, String originalName, Timer timer, long timestamp) throws IOException {
-        final Snapshot snapshot = timer.getSnapshot();
+    private void reportHistogram(SeriesStream series, SeriesStream distributions, Source source,
+                                 String originalName, Histogram histogram, long timestamp) throws IOException {
+        reportSampled(series, distributions, series(source, originalName, histogram, HISTOGRAM_FIELDS), histogram, false,
+                timestamp);
+    }
 
-        String alias = alias(originalName, timer);
-        String[] tags = tags(originalName, timer);
+    /**
+     * Writes a timer or histogram. Its snapshot, which for most reservoirs means copying and
+     * sorting every value, is only taken if a field or distribution needs it.
+     */
+    private void reportSampled(SeriesStream series, SeriesStream distributions, MetricSeries metricSeries,
+                               Sampling metric, boolean durations, long timestamp) throws IOException {
+        final Snapshot snapshot = metricSeries.snapshotNeeded ? metric.getSnapshot() : null;
 
-        series.writeMetric(name(alias, "max"), timestamp, convertDuration(snapshot.getMax()), host, tags);
-        series.writeMetric(name(alias, "mean"), timestamp, convertDuration(snapshot.getMean()), host, tags);
-        series.writeMetric(name(alias, "min"), timestamp, convertDuration(snapshot.getMin()), host, tags);
-        series.writeMetric(name(alias, "stddev"), timestamp, convertDuration(snapshot.getStdDev()), host, tags);
-        series.writeMetric(name(alias, "p50"), timestamp, convertDuration(snapshot.getMedian()), host, tags);
-        series.writeMetric(name(alias, "p75"), timestamp, convertDuration(snapshot.get75thPercentile()), host, tags);
-        series.writeMetric(name(alias, "p95"), timestamp, convertDuration(snapshot.get95thPercentile()), host, tags);
-        series.writeMetric(name(alias, "p98"), timestamp, convertDuration(snapshot.get98thPercentile()), host, tags);
-        series.writeMetric(name(alias, "p99"), timestamp, convertDuration(snapshot.get99thPercentile()), host, tags);
-        series.writeMetric(name(alias, "p999"), timestamp, convertDuration(snapshot.get999thPercentile()), host, tags);
+        writeFields(series, metricSeries, (Metric) metric, snapshot, durations, timestamp);
 
-        reportMetered(series, originalName, timer, timestamp);
+        if (metricSeries.distribution != null && distributions != null) {
+            DistributionSketch sketch = sketches.get();
+            sketch.clear();
+            sketch.accept(snapshot.getValues(), durations ? convertDuration(1) : 1);
+            distributions.writeDistribution(metricSeries.distribution, timestamp, sketch, maxDistributionValues);
+        }
     }
 
-    private void reportHistogram(SeriesStream series, String originalName, Histogram histogram,
-                                 long timestamp) throws IOException {
-        final Snapshot snapshot = histogram.getSnapshot();
-
-        String alias = alias(originalName, histogram);
-        String[] tags = tags(originalName, histogram);
+    /**
+     * @param durations whether snapshot values are durations, to be converted to the duration unit
+     */
+    private void writeFields(SeriesStream series, MetricSeries metricSeries, Metric metric, Snapshot snapshot,
+                             boolean durations, long timestamp) throws IOException {
+        final SeriesField[] fields = metricSeries.fields;
+        for (int i = 0; i < fields.length; i++) {
+            final Series name = metricSeries.series[i];
+            switch (fields[i]) {
+                case COUNT:
+                    final long count = ((Counting) metric).getCount();
+                    if (metricSeries.countDeltas) {
+                        series.writeDelta(name, timestamp, countDeltaTracker.delta(name.hash, count), count);
+                    } else {
+                        series.writeMetric(name, timestamp, count);
+                    }
+                    break;
+                case MAX:
+                    if (durations) {
+                        series.writeMetric(name, timestamp, convertDuration(snapshot.getMax()));
+                    } else {
+                        series.writeMetric(name, timestamp, snapshot.getMax());
+                    }
+                    break;
+                case MEAN:
+                    series.writeMetric(name, timestamp, sampled(snapshot.getMean(), durations));
+                    break;
+                case MIN:
+                    if (durations) {
+                        series.writeMetric(name, timestamp, convertDuration(snapshot.getMin()));
+                    } else {
+                        series.writeMetric(name, timestamp, snapshot.getMin());
+                    }
+                    break;
+                case STDDEV:
+                    series.writeMetric(name, timestamp, sampled(snapshot.getStdDev(), durations));
+                    break;
+                case P50:
+                    series.writeMetric(name, timestamp, sampled(snapshot.getMedian(), durations));
+                    break;
+                case P75:
+                    series.writeMetric(name, timestamp, sampled(snapshot.get75thPercentile(), durations));
+                    break;
+                case P95:
+                    series.writeMetric(name, timestamp, sampled(snapshot.get95thPercentile(), durations));
+                    break;
+                case P98:
+                    series.writeMetric(name, timestamp, sampled(snapshot.get98thPercentile(), durations));
+                    break;
+                case P99:
+                    series.writeMetric(name, timestamp, sampled(snapshot.get99thPercentile(), durations));
+                    break;
+                case P999:
+                    series.writeMetric(name, timestamp, sampled(snapshot.get999thPercentile(), durations));
+                    break;
+                case M1_RATE:
+                    series.writeMetric(name, timestamp, convertRate(((Metered) metric).getOneMinuteRate()));
+                    break;
+                case M5_RATE:
+                    series.writeMetric(name, timestamp, convertRate(((Metered) metric).getFiveMinuteRate()));
+                    break;
+                case M15_RATE:
+                    series.writeMetric(name, timestamp, convertRate(((Metered) metric).getFifteenMinuteRate()));
+                    break;
+                case MEAN_RATE:
+                    series.writeMetric(name, timestamp, convertRate(((Metered) metric).getMeanRate()));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
 
-        series.writeMetric(name(alias, "count"), timestamp, histogram.getCount(), host, tags);
-        series.writeMetric(name(alias, "max"), timestamp, snapshot.getMax(), host, tags);
-        series.writeMetric(name(alias, "mean"), timestamp, snapshot.getMean(), host, tags);
-        series.writeMetric(name(alias, "min"), timestamp, snapshot.getMin(), host, tags);
-        series.writeMetric(name(alias, "stddev"), timestamp, snapshot.getStdDev(), host, tags);
-        series.writeMetric(name(alias, "p50"), timestamp, snapshot.getMedian(), host, tags);
-        series.writeMetric(name(alias, "p75"), timestamp, snapshot.get75thPercentile(), host, tags);
-        series.writeMetric(name(alias, "p95"), timestamp, snapshot.get95thPercentile(), host, tags);
-        series.writeMetric(name(alias, "p98"), timestamp, snapshot.get98thPercentile(), host, tags);
-        series.writeMetric(name(alias, "p99"), timestamp, snapshot.get99thPercentile(), host, tags);
-        series.writeMetric(name(alias, "p999"), timestamp, snapshot.get999thPercentile(), host, tags);
+    private double sampled(double value, boolean durations) {
+        return durations ? convertDuration(value) : value;
     }
 
-    private void reportCounter(SeriesStream series, String originalName, Counter counter,
+    private void reportCounter(SeriesStream series, Source source, String originalName, Counter counter,
                                long timestamp) throws IOException {
-        series.writeMetric(name(alias(originalName, counter), "count"), timestamp, counter.getCount(), host,
-                tags(originalName, counter));
+        writeFields(series, series(source, originalName, counter, COUNTER_FIELDS), counter, null, false, timestamp);
     }
 
-    private void reportGauge(SeriesStream series, String originalName, Gauge gauge, long timestamp) throws IOException {
+    private void reportGauge(SeriesStream series, Source source, String originalName, Gauge gauge,
+                             long timestamp) throws IOException {
         Number value = (Number) gauge.getValue();
         if (value != null) {
-            series.writeMetric(alias(originalName, gauge), timestamp, value, host, tags(originalName, gauge));
+            MetricSeries metricSeries = series(source, originalName, gauge, GAUGE_FIELDS);
+            if (metricSeries.fields.length > 0) {
+                series.writeMetric(metricSeries.series[0], timestamp, value);
+            }
         }
     }
 
@@ -0,0 +1,225 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A DDSketch-style summary of a set of values: values are counted in logarithmically sized
+ * buckets, so any value read back from the sketch is within <code>relativeAccuracy</code> of
+ * a value that was added. The number of buckets is capped, whatever the number or spread of
+ * values; once the cap is reached the lowest buckets are merged, which only costs accuracy
+ * at the bottom of the range, where percentiles of interest seldom are.
+ *
+ * A sketch is not thread-safe, and is meant to be {@link #clear() cleared} and reused.
+ */
+public final class DistributionSketch {
+    //values closer to zero than this are counted as zero
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final Store positive;
+    private final Store negative;
+    private long zeroCount;
+    private long count;
+
+    public DistributionSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+        }
+        if (maxBuckets < 1) {
+            throw new IllegalArgumentException("maxBuckets must be positive");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.positive = new Store(maxBuckets);
+        this.negative = new Store(maxBuckets);
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public void accept(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value > MIN_INDEXABLE_VALUE) {
+            positive.add(index(value));
+        } else if (value < -MIN_INDEXABLE_VALUE) {
+            negative.add(index(-value));
+        } else {
+            zeroCount++;
+        }
+        count++;
+    }
+
+    /**
+     * Adds each of <code>values</code>, multiplied by <code>scale</code>.
+     */
+    public void accept(long[] values, double scale) {
+        for (long value : values) {
+            accept(value * scale);
+        }
+    }
+
+    public void clear() {
+        positive.clear();
+        negative.clear();
+        zeroCount = 0;
+        count = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * The value at quantile <code>q</code>, between 0 and 1, or NaN if the sketch is empty.
+     */
+    public double getValueAtQuantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("q must be between 0 and 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (q * (count - 1));
+        for (int i = negative.hi; i >= negative.lo && !negative.isEmpty(); i--) {
+            rank -= negative.get(i);
+            if (rank < 0) return -value(i);
+        }
+        rank -= zeroCount;
+        if (rank < 0) return 0;
+        for (int i = positive.lo; i <= positive.hi && !positive.isEmpty(); i++) {
+            rank -= positive.get(i);
+            if (rank < 0) return value(i);
+        }
+        return value(positive.hi);
+    }
+
+    /**
+     * Calls back with each bucket's representative value and count, lowest value first.
+     */
+    void forEachBucket(BucketVisitor visitor) throws IOException {
+        if (!negative.isEmpty()) {
+            for (int i = negative.hi; i >= negative.lo; i--) {
+                int n = negative.get(i);
+                if (n > 0) visitor.visit(-value(i), n);
+            }
+        }
+        if (zeroCount > 0) {
+            visitor.visit(0, zeroCount);
+        }
+        if (!positive.isEmpty()) {
+            for (int i = positive.lo; i <= positive.hi; i++) {
+                int n = positive.get(i);
+                if (n > 0) visitor.visit(value(i), n);
+            }
+        }
+    }
+
+    interface BucketVisitor {
+        void visit(double value, long count) throws IOException;
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    /**
+     * The value halfway, in relative terms, through the bucket at <code>index</code>, which
+     * holds values in (gamma^(index-1), gamma^index].
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Counts per bucket index in a fixed-size window of buckets. When an index lands above
+     * the window, the window moves up and the buckets left below it are merged into its
+     * lowest bucket; an index below a full window is counted in its lowest bucket.
+     */
+    private static final class Store {
+        private final int[] counts;
+        private int offset;
+        private int lo;
+        private int hi;
+        private boolean empty = true;
+
+        Store(int maxBuckets) {
+            counts = new int[maxBuckets];
+        }
+
+        boolean isEmpty() {
+            return empty;
+        }
+
+        int get(int index) {
+            return counts[index - offset];
+        }
+
+        void clear() {
+            if (!empty) {
+                Arrays.fill(counts, lo - offset, hi - offset + 1, 0);
+            }
+            empty = true;
+        }
+
+        void add(int index) {
+            if (empty) {
+                offset = index - counts.length / 2;
+                lo = hi = index;
+                empty = false;
+            } else if (index >= offset + counts.length) {
+                moveUp(index - counts.length + 1);
+            } else if (index < offset) {
+                if (hi - index < counts.length) {
+                    moveDown(Math.max(index, hi - counts.length + 1));
+                } else {
+                    moveDown(hi - counts.length + 1);
+                    index = offset;
+                }
+            }
+
+            counts[index - offset]++;
+            if (index < lo) lo = index;
+            if (index > hi) hi = index;
+        }
+
+        private void moveUp(int newOffset) {
+            int shift = newOffset - offset;
+            int collapsed = 0;
+            for (int i = lo; i < newOffset && i <= hi; i++) {
+                collapsed += counts[i - offset];
+            }
+            if (shift < counts.length) {
+                System.arraycopy(counts, shift, counts, 0, counts.length - shift);
+                Arrays.fill(counts, counts.length - shift, counts.length, 0);
+            } else {
+                Arrays.fill(counts, 0);
+            }
+            offset = newOffset;
+            if (lo < newOffset) {
+                counts[0] += collapsed;
+                lo = newOffset;
+                if (hi < newOffset) hi = newOffset;
+            }
+        }
+
+        private void moveDown(int newOffset) {
+            int shift = offset - newOffset;
+            if (shift <= 0) return;
+            System.arraycopy(counts, 0, counts, shift, counts.length - shift);
+            Arrays.fill(counts, 0, shift, 0);
+            offset = newOffset;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends series to a local DogStatsD agent as UDP datagrams, rather than to the Datadog api
+ * over http. Lines are packed into datagrams of up to <code>maxPacketSize</code> bytes, in one
+ * direct buffer reused for every datagram, and sent on a non-blocking channel, so writing never
+ * waits on the agent: a datagram the socket can't take straight away is dropped, as is one
+ * sent while nothing is listening.
+ *
+ * The agent aggregates what it receives over its own flush interval and stamps it with its own
+ * time, so timestamps aren't sent. A distribution is sent as its sketch's buckets, each value
+ * with a sample rate standing for how many values it represents.
+ *
+ * As a {@link SeriesSink} it sends each batch whole, flushing at the end of it, so it can be
+ * added to a reporter alongside the api.
+ */
+public class DogStatsDWriter implements SeriesSink {
+    private static final Logger log = LoggerFactory.getLogger(DogStatsDWriter.class);
+
+    public static final int DEFAULT_PORT = 8125;
+    /**
+     * What's left of a 1500 byte ethernet frame after ipv6 and udp headers, with some to spare.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private static final byte[] SAMPLE_RATE = {'|', '@'};
+    //the type, e.g. |g, comes first in a series' suffix, and the sample rate goes after it
+    private static final int TYPE_LENGTH = 2;
+
+    private final InetSocketAddress agent;
+    private final int precision;
+    private final ByteBuffer buffer;
+    private final char[] digits = new char[20 + 1 + SeriesStream.MAX_PRECISION];
+    private final char[] rateDigits = new char[20 + 1 + SeriesStream.MAX_PRECISION];
+    private DatagramChannel channel;
+    private boolean failing;
+
+    private long lines;
+    private long packets;
+    private long dropped;
+    private long oversized;
+
+    public DogStatsDWriter(InetSocketAddress agent) {
+        this(agent, DEFAULT_MAX_PACKET_SIZE, SeriesStream.DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision number of decimal places floating point values are sent with
+     */
+    public DogStatsDWriter(InetSocketAddress agent, int maxPacketSize, int precision) {
+        if (maxPacketSize < 1) {
+            throw new IllegalArgumentException("maxPacketSize must be positive");
+        }
+        if (precision < 0 || precision > SeriesStream.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 0 and " + SeriesStream.MAX_PRECISION);
+        }
+        this.agent = agent;
+        this.precision = precision;
+        this.buffer = ByteBuffer.allocateDirect(maxPacketSize);
+    }
+
+    /**
+     * Sends a batch's points and distributions, flushing at the end.
+     */
+    public synchronized void write(SeriesBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isDouble(i)) {
+                write(batch.getSeries(i), batch.getDouble(i));
+            } else {
+                write(batch.getSeries(i), batch.getLong(i));
+            }
+        }
+        for (int i = 0; i < batch.getDistributionCount(); i++) {
+            SeriesBatch.Distribution distribution = batch.getDistribution(i);
+            for (int bucket = 0; bucket < distribution.getBucketCount(); bucket++) {
+                writeBucket(distribution.getSeries(), distribution.getValue(bucket), distribution.getCount(bucket));
+            }
+        }
+        flush();
+    }
+
+    public synchronized void write(Series series, long value) {
+        int start = SeriesStream.formatLong(value, digits);
+        writeLine(series, digits, start, null, 0);
+    }
+
+    /**
+     * Writes a floating point value; NaN and infinite values are skipped.
+     */
+    public synchronized void write(Series series, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        writeDouble(series, value, null, 0);
+    }
+
+    /**
+     * Writes each of a sketch's buckets as a distribution value, sampled at one over the
+     * bucket's count. The series should have been rendered without a metric type.
+     */
+    public synchronized void writeDistribution(final Series series, DistributionSketch sketch) {
+        try {
+            sketch.forEachBucket(new DistributionSketch.BucketVisitor() {
+                public void visit(double value, long count) {
+                    writeBucket(series, value, count);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("bucket visitor threw", e);
+        }
+    }
+
+    private void writeBucket(Series series, double value, long count) {
+        if (count == 1) {
+            writeDouble(series, value, null, 0);
+        } else {
+            int start = SeriesStream.formatDouble(1d / count, SeriesStream.MAX_PRECISION, rateDigits);
+            writeDouble(series, value, rateDigits, start);
+        }
+    }
+
+    private void writeDouble(Series series, double value, char[] rate, int rateStart) {
+        int start = SeriesStream.formatDouble(value, precision, digits);
+        if (start >= 0) {
+            writeLine(series, digits, start, rate, rateStart);
+        } else {
+            char[] exact = SeriesStream.formatExact(value, precision).toCharArray();
+            writeLine(series, exact, 0, rate, rateStart);
+        }
+    }
+
+    /**
+     * Adds a line to the current datagram, first sending it if the line doesn't fit.
+     */
+    private void writeLine(Series series, char[] value, int valueStart, char[] rate, int rateStart) {
+        final byte[] prefix = series.dogStatsDPrefix();
+        final byte[] suffix = series.dogStatsDSuffix();
+        int length = prefix.length + value.length - valueStart + suffix.length;
+        if (rate != null) {
+            length += SAMPLE_RATE.length + rate.length - rateStart;
+        }
+
+        if (length > buffer.capacity()) {
+            oversized++;
+            return;
+        }
+        if (buffer.position() > 0 && buffer.position() + 1 + length > buffer.capacity()) {
+            send();
+        }
+        if (buffer.position() > 0) {
+            buffer.put((byte) '\n');
+        }
+
+        buffer.put(prefix);
+        putAscii(value, valueStart);
+        if (rate != null) {
+            buffer.put(suffix, 0, TYPE_LENGTH);
+            buffer.put(SAMPLE_RATE);
+            putAscii(rate, rateStart);
+            buffer.put(suffix, TYPE_LENGTH, suffix.length - TYPE_LENGTH);
+        } else {
+            buffer.put(suffix);
+        }
+        lines++;
+    }
+
+    private void putAscii(char[] chars, int start) {
+        for (int i = start; i < chars.length; i++) {
+            buffer.put((byte) chars[i]);
+        }
+    }
+
+    /**
+     * Sends whatever lines haven't been sent yet.
+     */
+    public synchronized void flush() {
+        if (buffer.position() > 0) {
+            send();
+        }
+    }
+
+    private void send() {
+        buffer.flip();
+        try {
+            if (channel == null) {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(agent);
+            }
+            if (channel.write(buffer) > 0) {
+                packets++;
+            } else {
+                dropped++;
+            }
+            failing = false;
+        } catch (IOException e) {
+            dropped++;
+            //an agent that's down fails every datagram, so only say so once
+            if (!failing) {
+                log.error("unable to send metrics to dogstatsd at " + agent, e);
+                failing = true;
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * The number of lines written, whether or not their datagram got sent.
+     */
+    public synchronized long getLineCount() {
+        return lines;
+    }
+
+    public synchronized long getPacketCount() {
+        return packets;
+    }
+
+    /**
+     * The number of datagrams which couldn't be sent.
+     */
+    public synchronized long getDroppedPacketCount() {
+        return dropped;
+    }
+
+    /**
+     * The number of lines skipped for being longer than a datagram.
+     */
+    public synchronized long getOversizedLineCount() {
+        return oversized;
+    }
+
+    public synchronized void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.acknsyn.brandon.datadog.reporter;
 public class Event {
 
     private final String json;
+    private final String aggregationKey;
 
     public Event(String title, String text) {
         this(title, text, null, null, null, null, null, null);
@@ -11,6 +12,11 @@ public class Event {
     public Event(String title, String text, Long timestamp, Priority priority, String[] tags, AlertType alertType,
                  String aggregationKey, SourceType sourceType) {
         json = generateJson(title, text, timestamp, priority, tags, alertType, aggregationKey, sourceType);
+        this.aggregationKey = aggregationKey;
+    }
+
+    public String getAggregationKey() {
+        return aggregationKey;
     }
 
     //TODO: escape required json unicode characters where appropriate
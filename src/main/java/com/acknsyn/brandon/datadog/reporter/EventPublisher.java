@@ -0,0 +1,308 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Queues events and sends them from a background daemon thread, so publishing never waits
+ * on Datadog. The queue is lock-free and holds at most <code>capacity</code> events; an
+ * event published to a full queue is dropped, unless the publisher chose to wait for room.
+ * Publishing holds a read lock which {@link #close} takes the write lock of, so an event that
+ * was accepted is never left behind once the sender has drained the queue for the last time.
+ *
+ * The sender takes events off the queue in batches of up to <code>batchSize</code>, after
+ * letting them gather for <code>linger</code>. Of events in a batch sharing an aggregation
+ * key, only the latest is sent, since Datadog rolls them up under that key anyway. The
+ * events endpoint takes one event per request, so the rest of a batch is sent one after
+ * another, over whatever connection reuse the writer factory offers.
+ */
+public class EventPublisher {
+    private static final Logger log = LoggerFactory.getLogger(EventPublisher.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private final URLWriterFactory writerFactory;
+    private final URL url;
+    private final int capacity;
+    private final int batchSize;
+    private final long lingerNanos;
+
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<Event>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong backpressured = new AtomicLong();
+
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile Thread sender;
+    private volatile boolean closed;
+
+    public EventPublisher(URLWriterFactory writerFactory, URL url, int capacity, int batchSize, long linger,
+                          TimeUnit unit) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.writerFactory = writerFactory;
+        this.url = url;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.lingerNanos = unit.toNanos(linger);
+    }
+
+    /**
+     * Queues an event without waiting.
+     *
+     * @return false if the event was dropped because the queue is full or closed
+     */
+    public boolean publish(Event event) {
+        if (offer(event)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Queues an event, waiting up to <code>timeout</code> for room if the queue is full.
+     *
+     * @return false if the event was dropped because no room came up, or the queue is closed
+     */
+    public boolean publish(Event event, long timeout, TimeUnit unit) {
+        if (offer(event)) {
+            return true;
+        }
+        if (!closed) {
+            backpressured.incrementAndGet();
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            do {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                LockSupport.parkNanos(Math.min(remaining, FULL_PARK_NANOS));
+                if (offer(event)) {
+                    return true;
+                }
+            } while (!closed);
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Queues an event if the publisher is open and there is room.
+     */
+    private boolean offer(Event event) {
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            int reserved = reserve();
+            if (reserved == 0) {
+                return false;
+            }
+            enqueue(event, reserved);
+            return true;
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes a place in the queue, returning the number of places then taken, or 0 if full.
+     */
+    private int reserve() {
+        int reserved = size.incrementAndGet();
+        if (reserved > capacity) {
+            size.decrementAndGet();
+            return 0;
+        }
+        return reserved;
+    }
+
+    private void enqueue(Event event, int reserved) {
+        queue.offer(event);
+        published.incrementAndGet();
+        Thread thread = sender;
+        if (thread == null) {
+            thread = startSender();
+        }
+        //the sender only needs waking when the queue was empty; otherwise it's busy or lingering
+        if (reserved == 1) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private synchronized Thread startSender() {
+        if (sender == null) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    sendEvents();
+                }
+            }, "datadog-events-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+            sender = thread;
+        }
+        return sender;
+    }
+
+    /**
+     * Stops accepting events and waits up to <code>timeout</code> for those queued to be sent.
+     *
+     * @return true if everything queued was sent, or failed, before the timeout elapsed
+     */
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        Thread thread;
+        synchronized (this) {
+            thread = sender;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            unit.timedJoin(thread, timeout);
+            return !thread.isAlive();
+        }
+        return size.get() == 0;
+    }
+
+    /**
+     * The number of events queued and not yet taken by the sender.
+     */
+    public int getQueueSize() {
+        return size.get();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * The number of events dropped because the queue was full or closed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * The number of events not sent because a later event in the same batch had the same
+     * aggregation key.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * The number of times a publisher found the queue full and waited for room.
+     */
+    public long getBackpressureCount() {
+        return backpressured.get();
+    }
+
+    private void sendEvents() {
+        List<Event> batch = new ArrayList<Event>(batchSize);
+        while (!closed || size.get() > 0) {
+            if (size.get() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            //parking can return early, e.g. on a wake-up left over from before, so keep to the deadline
+            long deadline = System.nanoTime() + lingerNanos;
+            long remaining;
+            while (!closed && size.get() < batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+
+            Event event;
+            while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                size.decrementAndGet();
+                batch.add(event);
+            }
+
+            try {
+                send(batch);
+            } catch (RuntimeException e) {
+                log.error("unable to send events to datadog", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Event> batch) {
+        //the position of the latest event for each aggregation key
+        Map<String, Integer> latest = new HashMap<String, Integer>();
+        for (int i = 0; i < batch.size(); i++) {
+            String key = batch.get(i).getAggregationKey();
+            if (key != null) {
+                latest.put(key, i);
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Event event = batch.get(i);
+            String key = event.getAggregationKey();
+            if (key != null && latest.get(key) != i) {
+                coalesced.incrementAndGet();
+                continue;
+            }
+            send(event);
+        }
+    }
+
+    private void send(Event event) {
+        try {
+            Writer writer = writerFactory.getWriter(url);
+            try {
+                writer.write(event.toString());
+            } finally {
+                writer.close();
+            }
+            sent.incrementAndGet();
+        } catch (HttpException hre) {
+            failed.incrementAndGet();
+            log.error("datadog rejected event with status: {} and response: {}", hre.getStatus(), hre.getResponse());
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("unable to report event to datadog", e);
+        }
+    }
+}
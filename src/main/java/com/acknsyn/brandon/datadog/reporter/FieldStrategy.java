@@ -0,0 +1,13 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.Metric;
+
+import java.util.Set;
+
+/**
+ * Chooses which fields of a metric are reported. Fields which don't apply to the metric's
+ * type are ignored. The choice is remembered per metric, along with its alias and tags.
+ */
+public interface FieldStrategy {
+    Set<SeriesField> fields(String name, Metric metric);
+}
@@ -0,0 +1,319 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Captures every report's series to disk, as the payloads that would be posted to the api,
+ * without sending them anywhere, e.g. for capacity testing or to look back on after an
+ * incident. {@link CaptureReplay} sends captured payloads on to Datadog.
+ *
+ * Payloads go into a directory of segment files of <code>segmentBytes</code> each, which are
+ * memory-mapped, so a payload is encoded straight into the page cache rather than into a buffer
+ * and then written out. Once a segment is full a new one is started, and the oldest are
+ * deleted to keep the directory within <code>maxBytes</code>. Segments are only forced to disk
+ * when they're full and when the sink is closed, on the sink's own thread, never the reporter's;
+ * in between, the operating system writes them back as it sees fit.
+ *
+ * Each payload is a record of a header, of its length, a CRC32 of the payload, what it is and
+ * how it's encoded, followed by the payload, json and optionally gzipped. The header is written
+ * after the payload, so a payload interrupted by a crash is never taken for a whole one: a zero
+ * length marks the end of a segment's records.
+ */
+public class FileCaptureSink implements SeriesSink {
+    private static final Logger log = LoggerFactory.getLogger(FileCaptureSink.class);
+    static final String SEGMENT_PREFIX = "capture-";
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final int RECORD_HEADER_BYTES = 10;
+    static final byte SERIES = 0;
+    static final byte DISTRIBUTION_POINTS = 1;
+    static final byte IDENTITY = 0;
+    static final byte GZIP = 1;
+
+    private static final long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int DEFAULT_MAX_DISTRIBUTION_VALUES = 100;
+    static final int SCRATCH_BYTES = 8192;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final boolean gzip;
+    private final JsonSeriesEncoder encoder;
+    private final byte[] scratch = new byte[SCRATCH_BYTES];
+
+    private final LinkedList<File> segments = new LinkedList<File>();
+    private long nextSequence;
+    private MappedByteBuffer current;
+
+    private long records;
+    private long droppedRecords;
+    private long evictedSegments;
+
+    public FileCaptureSink(File directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, Math.min(DEFAULT_SEGMENT_BYTES, maxBytes), false, SeriesStream.DEFAULT_PRECISION,
+                DEFAULT_MAX_DISTRIBUTION_VALUES);
+    }
+
+    /**
+     * @param maxBytes              disk budget for the whole directory; whole segments are deleted to keep to it
+     * @param segmentBytes          size of each segment file, up to 2GB; a payload larger than this is dropped
+     * @param gzip                  whether to gzip payloads
+     * @param precision             number of decimal places floating point values are written with
+     * @param maxDistributionValues most values written per distribution, as with
+     *                              {@link DatadogReporter.Builder#reportDistributions}
+     */
+    public FileCaptureSink(File directory, long maxBytes, long segmentBytes, boolean gzip, int precision,
+                           int maxDistributionValues) throws IOException {
+        if (segmentBytes <= RECORD_HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must be between " + RECORD_HEADER_BYTES + " and 2GB");
+        }
+        if (maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("maxBytes must be at least segmentBytes");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create capture directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = (int) segmentBytes;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+        this.gzip = gzip;
+        this.encoder = new JsonSeriesEncoder(precision, maxDistributionValues);
+
+        //carry on after segments captured before, keeping them within the budget too
+        File[] files = segments(directory);
+        segments.addAll(Arrays.asList(files));
+        if (files.length > 0) {
+            nextSequence = sequence(files[files.length - 1]) + 1;
+        }
+    }
+
+    public synchronized void write(SeriesBatch batch) throws IOException {
+        if (batch.size() > 0) {
+            writeRecord(batch, SERIES);
+        }
+        if (batch.getDistributionCount() > 0) {
+            writeRecord(batch, DISTRIBUTION_POINTS);
+        }
+    }
+
+    /**
+     * Writes a record to the current segment, moving on to a new segment if it doesn't fit.
+     */
+    private void writeRecord(SeriesBatch batch, byte type) throws IOException {
+        boolean fresh = false;
+        if (current == null) {
+            roll();
+            fresh = true;
+        }
+        while (true) {
+            int start = current.position();
+            try {
+                encode(batch, type, start);
+                records++;
+                return;
+            } catch (BufferOverflowException e) {
+                discard(start);
+                if (fresh) {
+                    droppedRecords++;
+                    log.warn("dropping capture of {} series, too large for a segment of {} bytes",
+                            batch.size() + batch.getDistributionCount(), segmentBytes);
+                    return;
+                }
+                roll();
+                fresh = true;
+            } catch (IOException e) {
+                discard(start);
+                throw e;
+            } catch (RuntimeException e) {
+                discard(start);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Clears a partly written record, so that it doesn't read as present and the next
+     * record goes in its place.
+     */
+    private void discard(int start) {
+        current.position(start);
+        if (start + 4 <= current.capacity()) {
+            current.putInt(start, 0);
+        }
+    }
+
+    private void encode(SeriesBatch batch, byte type, int start) throws IOException {
+        if (start + RECORD_HEADER_BYTES > current.capacity()) {
+            throw new BufferOverflowException();
+        }
+        current.position(start + RECORD_HEADER_BYTES);
+        OutputStream out = new MappedOutputStream(current);
+        GzipOutputStream gzipOut = null;
+        if (gzip) {
+            gzipOut = new GzipOutputStream(out);
+            out = gzipOut;
+        }
+        try {
+            if (type == SERIES) {
+                encoder.encodePoints(batch, out);
+            } else {
+                encoder.encodeDistributions(batch, out);
+            }
+            out.close();
+        } finally {
+            //close() doesn't get as far as freeing the deflater when the segment fills up
+            if (gzipOut != null) {
+                gzipOut.end();
+            }
+        }
+
+        int end = current.position();
+        int length = end - start - RECORD_HEADER_BYTES;
+        ByteBuffer payload = current.duplicate();
+        payload.position(start + RECORD_HEADER_BYTES);
+        payload.limit(end);
+        //the header goes last, the length after the rest of it
+        current.putInt(start + 4, crc(payload, scratch));
+        current.put(start + 8, type);
+        current.put(start + 9, gzip ? GZIP : IDENTITY);
+        current.putInt(start, length);
+    }
+
+    private void roll() throws IOException {
+        if (current != null) {
+            current.force();
+            current = null;
+        }
+        while (segments.size() >= maxSegments) {
+            File oldest = segments.removeFirst();
+            evictedSegments++;
+            if (!oldest.delete()) {
+                log.warn("unable to delete capture segment {}", oldest);
+            }
+        }
+
+        File file = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            //the mapping outlives the channel
+            current = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        } finally {
+            raf.close();
+        }
+        segments.add(file);
+    }
+
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * The number of payloads not captured for being larger than a segment.
+     */
+    public synchronized long getDroppedRecordCount() {
+        return droppedRecords;
+    }
+
+    /**
+     * The number of segments deleted to keep within the disk budget.
+     */
+    public synchronized long getEvictedSegmentCount() {
+        return evictedSegments;
+    }
+
+    public synchronized void close() throws IOException {
+        if (current != null) {
+            current.force();
+            current = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "capture to " + directory;
+    }
+
+    /**
+     * The segments in a capture directory, oldest first.
+     */
+    static File[] segments(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * The CRC32 of a payload's remaining bytes, copied through <code>scratch</code> a chunk at a time.
+     */
+    static int crc(ByteBuffer payload, byte[] scratch) {
+        ByteBuffer bytes = payload.duplicate();
+        CRC32 crc = new CRC32();
+        while (bytes.hasRemaining()) {
+            int n = Math.min(scratch.length, bytes.remaining());
+            bytes.get(scratch, 0, n);
+            crc.update(scratch, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes into a mapped segment, throwing a BufferOverflowException once it's full.
+     */
+    private static final class MappedOutputStream extends OutputStream {
+        private final MappedByteBuffer buffer;
+
+        MappedOutputStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+
+    private static final class GzipOutputStream extends GZIPOutputStream {
+        GzipOutputStream(OutputStream out) throws IOException {
+            super(out, 4096);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+}
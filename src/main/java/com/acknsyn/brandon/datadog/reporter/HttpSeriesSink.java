@@ -0,0 +1,68 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Posts each batch, as encoded by a {@link SeriesEncoder}, to an http endpoint other than the
+ * Datadog api, such as a relay which forwards series on to Datadog: points to one url and
+ * distributions to another. With a {@link BinarySeriesEncoder}, the relay has to be one which
+ * understands the binary form.
+ *
+ * Encoded batches are handed to a {@link com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory}
+ * as they are, so they can be sent over kept-alive connections, compressed, retried or spooled
+ * just like the reporter's own requests. It should send the encoder's content type, e.g.
+ * <code>new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory(), ContentEncoding.GZIP,
+ * Deflater.DEFAULT_COMPRESSION, BinarySeriesEncoder.CONTENT_TYPE)</code>.
+ *
+ * A failed request fails the batch, which the reporter logs.
+ */
+public class HttpSeriesSink implements SeriesSink {
+    private final URL pointsUrl;
+    private final URL distributionsUrl;
+    private final SeriesEncoder encoder;
+    private final EncodedURLWriterFactory writerFactory;
+    private final ByteArrayBuffer body = new ByteArrayBuffer();
+
+    /**
+     * @param distributionsUrl where distributions are posted; may be null, in which case
+     *                         distributions aren't sent
+     */
+    public HttpSeriesSink(URL pointsUrl, URL distributionsUrl, SeriesEncoder encoder,
+                          EncodedURLWriterFactory writerFactory) {
+        if (pointsUrl == null) {
+            throw new IllegalArgumentException("pointsUrl is required");
+        }
+        if (writerFactory == null) {
+            throw new IllegalArgumentException("writerFactory is required");
+        }
+        this.pointsUrl = pointsUrl;
+        this.distributionsUrl = distributionsUrl;
+        this.encoder = encoder;
+        this.writerFactory = writerFactory;
+    }
+
+    public synchronized void write(SeriesBatch batch) throws IOException {
+        if (batch.size() > 0) {
+            body.reset();
+            encoder.encodePoints(batch, body);
+            writerFactory.send(pointsUrl, body.array(), 0, body.size());
+        }
+        if (distributionsUrl != null && batch.getDistributionCount() > 0) {
+            body.reset();
+            encoder.encodeDistributions(batch, body);
+            writerFactory.send(distributionsUrl, body.array(), 0, body.size());
+        }
+    }
+
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "http sink to " + pointsUrl;
+    }
+}
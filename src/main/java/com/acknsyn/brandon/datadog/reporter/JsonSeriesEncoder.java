@@ -0,0 +1,65 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.io.Utf8Writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes batches as the json the Datadog api takes, through a {@link SeriesStream}: points
+ * for the series endpoint and distributions for the distribution_points endpoint.
+ */
+public class JsonSeriesEncoder implements SeriesEncoder {
+    public static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int precision;
+    private final int maxDistributionValues;
+
+    /**
+     * @param precision             number of decimal places floating point values are written with
+     * @param maxDistributionValues most values written per distribution, as with
+     *                              {@link DatadogReporter.Builder#reportDistributions}
+     */
+    public JsonSeriesEncoder(int precision, int maxDistributionValues) {
+        if (precision < 0 || precision > SeriesStream.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 0 and " + SeriesStream.MAX_PRECISION);
+        }
+        if (maxDistributionValues < 1) {
+            throw new IllegalArgumentException("maxDistributionValues must be positive");
+        }
+        this.precision = precision;
+        this.maxDistributionValues = maxDistributionValues;
+    }
+
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public void encodePoints(SeriesBatch batch, OutputStream out) throws IOException {
+        Writer writer = new Utf8Writer(out, BUFFER_SIZE);
+        SeriesStream stream = new SeriesStream(writer, precision);
+        long timestamp = batch.getTimestamp();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isDouble(i)) {
+                stream.writeMetric(batch.getSeries(i), timestamp, batch.getDouble(i));
+            } else {
+                stream.writeMetric(batch.getSeries(i), timestamp, batch.getLong(i));
+            }
+        }
+        stream.close();
+        writer.flush();
+    }
+
+    public void encodeDistributions(SeriesBatch batch, OutputStream out) throws IOException {
+        Writer writer = new Utf8Writer(out, BUFFER_SIZE);
+        SeriesStream stream = new SeriesStream(writer, precision);
+        long timestamp = batch.getTimestamp();
+        for (int i = 0; i < batch.getDistributionCount(); i++) {
+            stream.writeDistribution(batch.getDistribution(i), timestamp, maxDistributionValues);
+        }
+        stream.close();
+        writer.flush();
+    }
+}
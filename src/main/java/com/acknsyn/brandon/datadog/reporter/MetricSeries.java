@@ -0,0 +1,27 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+/**
+ * How one metric is reported: the fields chosen for it, the series each is written as and,
+ * when reporting distributions, the series its snapshot is written to. If
+ * <code>countDeltas</code>, its count is written as the increase since the last report.
+ */
+final class MetricSeries {
+    final SeriesField[] fields;
+    final Series[] series;
+    final Series distribution;
+    final boolean snapshotNeeded;
+    final boolean countDeltas;
+
+    MetricSeries(SeriesField[] fields, Series[] series, Series distribution, boolean countDeltas) {
+        this.fields = fields;
+        this.series = series;
+        this.distribution = distribution;
+        this.countDeltas = countDeltas;
+
+        boolean snapshot = distribution != null;
+        for (SeriesField field : fields) {
+            snapshot |= field.isFromSnapshot();
+        }
+        this.snapshotNeeded = snapshot;
+    }
+}
@@ -0,0 +1,176 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.util.Arrays;
+
+/**
+ * Holds several reports' worth of points per series, so that they can be sent together as
+ * one series with several points rather than one request per report.
+ *
+ * Space for <code>maxSeries</code> series of <code>pointsPerSeries</code> points is allocated
+ * up front, as parallel primitive arrays, so buffering allocates nothing per point and memory
+ * never grows past it. Each series' points form a ring: once it holds
+ * <code>pointsPerSeries</code> points, a new point overwrites the oldest. A series which
+ * doesn't fit is refused, and should be sent straight away instead.
+ */
+public final class PointBuffer {
+    //marks empty slots; a series hashing to it is moved to EMPTY_REPLACEMENT
+    private static final long EMPTY = 0L;
+    private static final long EMPTY_REPLACEMENT = 1L;
+
+    private final int pointsPerSeries;
+    private final int maxSeries;
+
+    private final long[] keys;
+    private final int[] indexes;
+    private final Series[] series;
+    private final int[] counts;
+    private final long[] timestamps;
+    private final long[] values;
+    private final boolean[] doubles;
+    private int size;
+
+    private long overwritten;
+    private long refused;
+
+    public PointBuffer(int pointsPerSeries, int maxPoints) {
+        if (pointsPerSeries < 1) {
+            throw new IllegalArgumentException("pointsPerSeries must be positive");
+        }
+        if (maxPoints < pointsPerSeries) {
+            throw new IllegalArgumentException("maxPoints must be at least pointsPerSeries");
+        }
+        this.pointsPerSeries = pointsPerSeries;
+        this.maxSeries = maxPoints / pointsPerSeries;
+
+        int capacity = 2;
+        while (capacity < maxSeries * 2) capacity *= 2;
+        keys = new long[capacity];
+        indexes = new int[capacity];
+        series = new Series[maxSeries];
+        counts = new int[maxSeries];
+        timestamps = new long[maxSeries * pointsPerSeries];
+        values = new long[maxSeries * pointsPerSeries];
+        doubles = new boolean[maxSeries * pointsPerSeries];
+    }
+
+    /**
+     * Buffers a point, returning false if the series is new and there's no room for it.
+     */
+    public synchronized boolean add(Series point, long timestamp, long value) {
+        return add(point, timestamp, value, false);
+    }
+
+    /**
+     * Buffers a point, returning false if the series is new and there's no room for it.
+     */
+    public synchronized boolean add(Series point, long timestamp, double value) {
+        return add(point, timestamp, Double.doubleToRawLongBits(value), true);
+    }
+
+    private boolean add(Series point, long timestamp, long value, boolean isDouble) {
+        long key = point.hash == EMPTY ? EMPTY_REPLACEMENT : point.hash;
+
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        int index;
+        if (keys[slot] == EMPTY) {
+            if (size == maxSeries) {
+                refused++;
+                return false;
+            }
+            index = size++;
+            keys[slot] = key;
+            indexes[slot] = index;
+            counts[index] = 0;
+        } else {
+            index = indexes[slot];
+        }
+        //the latest rendering wins, should the series have been rendered again meanwhile
+        series[index] = point;
+
+        int count = counts[index];
+        if (count >= pointsPerSeries) {
+            overwritten++;
+        }
+        int position = index * pointsPerSeries + count % pointsPerSeries;
+        timestamps[position] = timestamp;
+        values[position] = value;
+        doubles[position] = isDouble;
+        counts[index] = count + 1;
+        return true;
+    }
+
+    /**
+     * The number of series buffered.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empties the buffer, e.g. once everything in it has been sent.
+     */
+    public synchronized void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(series, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * The number of points which overwrote an older point of their series.
+     */
+    public synchronized long getOverwrittenCount() {
+        return overwritten;
+    }
+
+    /**
+     * The number of points refused for lack of room.
+     */
+    public synchronized long getRefusedCount() {
+        return refused;
+    }
+
+    Series series(int index) {
+        return series[index];
+    }
+
+    /**
+     * The number of points buffered for a series.
+     */
+    int pointCount(int index) {
+        return Math.min(counts[index], pointsPerSeries);
+    }
+
+    /**
+     * Where in the point arrays a series' <code>point</code>th oldest point is.
+     */
+    int position(int index, int point) {
+        int count = counts[index];
+        int oldest = count > pointsPerSeries ? count % pointsPerSeries : 0;
+        return index * pointsPerSeries + (oldest + point) % pointsPerSeries;
+    }
+
+    long timestamp(int position) {
+        return timestamps[position];
+    }
+
+    boolean isDouble(int position) {
+        return doubles[position];
+    }
+
+    long longValue(int position) {
+        return values[position];
+    }
+
+    double doubleValue(int position) {
+        return Double.longBitsToDouble(values[position]);
+    }
+}
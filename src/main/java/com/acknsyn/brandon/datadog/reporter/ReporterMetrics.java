@@ -0,0 +1,98 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * The reporter's own metrics, recorded into a registry of the user's choosing:
+ * <ul>
+ * <li><code>datadog.reporter.report</code>, a timer of whole reports</li>
+ * <li><code>datadog.reporter.snapshot</code>, a timer of collecting metrics from the registries</li>
+ * <li><code>datadog.reporter.serialize</code>, a timer of writing series, excluding sending them</li>
+ * <li><code>datadog.reporter.http</code>, a timer of sending requests</li>
+ * <li><code>datadog.reporter.payload.bytes</code>, a histogram of request sizes, before any compression</li>
+ * <li><code>datadog.reporter.series</code>, a histogram of series sent per report</li>
+ * <li><code>datadog.reporter.failures.&lt;status&gt;</code>, counters of failed requests by http
+ * status, or <code>io</code> for failures without one</li>
+ * <li><code>datadog.reporter.interval</code>, a gauge of the milliseconds from one report to the
+ * next, when the interval is adapted, otherwise of the period the reporter was started with</li>
+ * <li><code>datadog.reporter.skipped</code>, a counter of scheduled reports not made because the
+ * report before ran over</li>
+ * </ul>
+ */
+final class ReporterMetrics {
+    static final String PREFIX = "datadog.reporter";
+
+    private final MetricRegistry registry;
+    private final Timer report;
+    private final Timer snapshot;
+    private final Timer serialize;
+    private final Timer http;
+    private final Histogram payloadBytes;
+    private final Histogram series;
+    private final Counter skipped;
+    private volatile long intervalMillis;
+
+    ReporterMetrics(MetricRegistry registry) {
+        this.registry = registry;
+        this.report = registry.timer(name(PREFIX, "report"));
+        this.snapshot = registry.timer(name(PREFIX, "snapshot"));
+        this.serialize = registry.timer(name(PREFIX, "serialize"));
+        this.http = registry.timer(name(PREFIX, "http"));
+        this.payloadBytes = registry.histogram(name(PREFIX, "payload", "bytes"));
+        this.series = registry.histogram(name(PREFIX, "series"));
+        this.skipped = registry.counter(name(PREFIX, "skipped"));
+        //a gauge can't be shared, so a reporter recording into the same registry takes it over
+        registry.remove(name(PREFIX, "interval"));
+        registry.register(name(PREFIX, "interval"), new Gauge<Long>() {
+            public Long getValue() {
+                return intervalMillis;
+            }
+        });
+    }
+
+    MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    void snapshot(long nanos) {
+        snapshot.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param httpNanos how much of the report was spent sending requests
+     */
+    void report(long nanos, long httpNanos, int seriesSent) {
+        report.update(nanos, TimeUnit.NANOSECONDS);
+        serialize.update(Math.max(0, nanos - httpNanos), TimeUnit.NANOSECONDS);
+        series.update(seriesSent);
+    }
+
+    void request(long nanos, long bytes) {
+        http.update(nanos, TimeUnit.NANOSECONDS);
+        payloadBytes.update(bytes);
+    }
+
+    void interval(long millis) {
+        intervalMillis = millis;
+    }
+
+    void skipped(long reports) {
+        skipped.inc(reports);
+    }
+
+    /**
+     * @param status the http status of the failed request, or -1 if it failed without one
+     */
+    void failure(int status) {
+        Counter failures = registry.counter(name(PREFIX, "failures", status < 0 ? "io" : Integer.toString(status)));
+        failures.inc();
+    }
+}
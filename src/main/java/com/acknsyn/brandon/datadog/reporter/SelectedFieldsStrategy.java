@@ -0,0 +1,59 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.Metric;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link com.acknsyn.brandon.datadog.reporter.FieldStrategy} configured with the fields to
+ * report per metric type and, overriding those, per name pattern. Patterns are tried in the
+ * order they were added, then types; metrics matching neither have all their fields reported.
+ * Configure it fully before handing it to the reporter.
+ */
+public final class SelectedFieldsStrategy implements FieldStrategy {
+    private final Map<Pattern, Set<SeriesField>> byName = new LinkedHashMap<Pattern, Set<SeriesField>>();
+    private final Map<Class<? extends Metric>, Set<SeriesField>> byType =
+            new LinkedHashMap<Class<? extends Metric>, Set<SeriesField>>();
+
+    /**
+     * Reports only <code>fields</code> of metrics of the given type, e.g.
+     * <code>forType(Timer.class, SeriesField.P99, SeriesField.M1_RATE)</code>.
+     */
+    public SelectedFieldsStrategy forType(Class<? extends Metric> type, SeriesField... fields) {
+        byType.put(type, toSet(fields));
+        return this;
+    }
+
+    /**
+     * Reports only <code>fields</code> of metrics whose whole name matches <code>regex</code>.
+     */
+    public SelectedFieldsStrategy forNames(String regex, SeriesField... fields) {
+        byName.put(Pattern.compile(regex), toSet(fields));
+        return this;
+    }
+
+    public Set<SeriesField> fields(String name, Metric metric) {
+        for (Map.Entry<Pattern, Set<SeriesField>> entry : byName.entrySet()) {
+            if (entry.getKey().matcher(name).matches()) {
+                return entry.getValue();
+            }
+        }
+        for (Map.Entry<Class<? extends Metric>, Set<SeriesField>> entry : byType.entrySet()) {
+            if (entry.getKey().isInstance(metric)) {
+                return entry.getValue();
+            }
+        }
+        return AllFieldsStrategy.ALL;
+    }
+
+    private static Set<SeriesField> toSet(SeriesField[] fields) {
+        Set<SeriesField> set = EnumSet.noneOf(SeriesField.class);
+        Collections.addAll(set, fields);
+        return Collections.unmodifiableSet(set);
+    }
+}
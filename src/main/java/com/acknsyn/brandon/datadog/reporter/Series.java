@@ -0,0 +1,165 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A series whose json, apart from its timestamp and value, is rendered once up front, so
+ * it can be {@link SeriesStream#writeMetric(Series, long, long) written} every interval
+ * without going over its name, host and tags again.
+ */
+public final class Series {
+    private final String metricName;
+    private final SeriesStream.MetricType metricType;
+    private final String host;
+    private final String[] tags;
+    final char[] prefix;
+    final char[] suffix;
+    final long hash;
+
+    //rendered on first use, only when sending to DogStatsD; a race just renders them twice
+    private volatile byte[] dogStatsDPrefix;
+    private volatile byte[] dogStatsDSuffix;
+    //likewise, only when encoding binary
+    private volatile byte[] utf8MetricName;
+
+    private Series(String metricName, SeriesStream.MetricType metricType, String host, String[] tags,
+                   char[] prefix, char[] suffix) {
+        this.metricName = metricName;
+        this.metricType = metricType;
+        this.host = host;
+        this.tags = tags;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.hash = SeriesChangeTracker.hash(metricName, host, tags);
+    }
+
+    public Series(String metricName, SeriesStream.MetricType metricType, String host, String[] tags) {
+        this(metricName, metricType, host, tags, prefix(metricName), suffix(metricType, host, tags));
+    }
+
+    /**
+     * Renders series which share a type, host and tags, such as the fields of one metric,
+     * sharing the rendered suffix between them.
+     */
+    public static Series[] group(String[] metricNames, SeriesStream.MetricType metricType, String host,
+                                 String[] tags) {
+        char[] suffix = suffix(metricType, host, tags);
+        Series[] series = new Series[metricNames.length];
+        for (int i = 0; i < metricNames.length; i++) {
+            series[i] = new Series(metricNames[i], metricType, host, tags, prefix(metricNames[i]), suffix);
+        }
+        return series;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * The series' type, or null for a distribution.
+     */
+    public SeriesStream.MetricType getMetricType() {
+        return metricType;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String[] getTags() {
+        return tags;
+    }
+
+    byte[] utf8MetricName() {
+        byte[] rendered = utf8MetricName;
+        if (rendered == null) {
+            rendered = utf8(metricName);
+            utf8MetricName = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * The DogStatsD line up to its value, i.e. <code>name:</code>.
+     */
+    byte[] dogStatsDPrefix() {
+        byte[] rendered = dogStatsDPrefix;
+        if (rendered == null) {
+            rendered = utf8(sanitize(metricName, ":|@") + ':');
+            dogStatsDPrefix = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * The DogStatsD line after its value: its type, <code>g</code> for gauges, <code>c</code>
+     * for counters and <code>d</code> for distributions, and its tags, the host among them.
+     */
+    byte[] dogStatsDSuffix() {
+        byte[] rendered = dogStatsDSuffix;
+        if (rendered == null) {
+            StringBuilder sb = new StringBuilder(64);
+            if (metricType == null) {
+                sb.append("|d");
+            } else if (metricType == SeriesStream.MetricType.COUNTER) {
+                sb.append("|c");
+            } else {
+                sb.append("|g");
+            }
+            String separator = "|#";
+            if (host != null) {
+                sb.append(separator).append("host:").append(sanitize(host, "|,"));
+                separator = ",";
+            }
+            if (tags != null) {
+                for (String tag : tags) {
+                    sb.append(separator).append(sanitize(tag, "|,"));
+                    separator = ",";
+                }
+            }
+            rendered = utf8(sb.toString());
+            dogStatsDSuffix = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * Replaces the chars which delimit parts of a DogStatsD line.
+     */
+    private static String sanitize(String value, String reserved) {
+        for (int i = 0; i < reserved.length(); i++) {
+            value = value.replace(reserved.charAt(i), '_');
+        }
+        return value.replace('\n', '_');
+    }
+
+    private static char[] prefix(String metricName) {
+        CharArrayWriter chars = new CharArrayWriter(metricName.length() + 24);
+        try {
+            SeriesStream.writeSeriesPrefix(chars, metricName);
+        } catch (IOException e) {
+            throw new IllegalStateException("CharArrayWriter threw", e);
+        }
+        return chars.toCharArray();
+    }
+
+    private static char[] suffix(SeriesStream.MetricType metricType, String host, String[] tags) {
+        CharArrayWriter chars = new CharArrayWriter(64);
+        try {
+            SeriesStream.writeSeriesSuffix(chars, metricType, host, tags);
+        } catch (IOException e) {
+            throw new IllegalStateException("CharArrayWriter threw", e);
+        }
+        return chars.toCharArray();
+    }
+
+    static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+}
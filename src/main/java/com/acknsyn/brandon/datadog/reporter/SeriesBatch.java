@@ -0,0 +1,212 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The points collected in one report, all at the same timestamp, for {@link SeriesSink sinks}
+ * to encode and send however they like. Points are held in parallel primitive arrays, the
+ * series they belong to having been rendered ahead of time. Distributions are held as their
+ * sketches' buckets.
+ *
+ * A batch is filled on the reporting thread and only read once handed to sinks, so several
+ * sinks can read the same batch at once.
+ */
+public final class SeriesBatch {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final long timestamp;
+    private Series[] series;
+    private long[] values;
+    private boolean[] doubles;
+    private int size;
+    private final List<Distribution> distributions = new ArrayList<Distribution>();
+
+    public SeriesBatch(long timestamp) {
+        this(timestamp, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of points to make room for up front
+     */
+    public SeriesBatch(long timestamp, int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.timestamp = timestamp;
+        this.series = new Series[capacity];
+        this.values = new long[capacity];
+        this.doubles = new boolean[capacity];
+    }
+
+    /**
+     * The timestamp, in seconds, of every point in the batch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The number of points, excluding distributions.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && distributions.isEmpty();
+    }
+
+    public Series getSeries(int index) {
+        return series[index];
+    }
+
+    /**
+     * Whether a point is floating point, to be read with {@link #getDouble(int)}, rather than
+     * whole, to be read with {@link #getLong(int)}.
+     */
+    public boolean isDouble(int index) {
+        return doubles[index];
+    }
+
+    public long getLong(int index) {
+        return values[index];
+    }
+
+    public double getDouble(int index) {
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    public int getDistributionCount() {
+        return distributions.size();
+    }
+
+    public Distribution getDistribution(int index) {
+        return distributions.get(index);
+    }
+
+    void add(Series point, long value) {
+        add(point, value, false);
+    }
+
+    void add(Series point, double value) {
+        add(point, Double.doubleToRawLongBits(value), true);
+    }
+
+    private void add(Series point, long value, boolean isDouble) {
+        if (size == series.length) {
+            grow(size + 1);
+        }
+        series[size] = point;
+        values[size] = value;
+        doubles[size] = isDouble;
+        size++;
+    }
+
+    /**
+     * Copies a sketch's buckets, so the sketch can be reused.
+     */
+    void addDistribution(Series point, DistributionSketch sketch) {
+        final Distribution distribution = new Distribution(point, sketch.getCount());
+        try {
+            sketch.forEachBucket(new DistributionSketch.BucketVisitor() {
+                public void visit(double value, long count) {
+                    distribution.add(value, count);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("bucket visitor threw", e);
+        }
+        distributions.add(distribution);
+    }
+
+    void addDistribution(Distribution distribution) {
+        distributions.add(distribution);
+    }
+
+    /**
+     * Adds another batch's points and distributions after this one's.
+     */
+    void append(SeriesBatch other) {
+        if (size + other.size > series.length) {
+            grow(size + other.size);
+        }
+        System.arraycopy(other.series, 0, series, size, other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        System.arraycopy(other.doubles, 0, doubles, size, other.size);
+        size += other.size;
+        distributions.addAll(other.distributions);
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(needed, series.length * 2);
+        Series[] grownSeries = new Series[capacity];
+        long[] grownValues = new long[capacity];
+        boolean[] grownDoubles = new boolean[capacity];
+        System.arraycopy(series, 0, grownSeries, 0, size);
+        System.arraycopy(values, 0, grownValues, 0, size);
+        System.arraycopy(doubles, 0, grownDoubles, 0, size);
+        series = grownSeries;
+        values = grownValues;
+        doubles = grownDoubles;
+    }
+
+    /**
+     * A histogram's or timer's values, as the representative value and count of each bucket
+     * of its sketch, lowest value first.
+     */
+    public static final class Distribution {
+        private final Series series;
+        private final long count;
+        private double[] values = new double[8];
+        private long[] counts = new long[8];
+        private int buckets;
+
+        Distribution(Series series, long count) {
+            this.series = series;
+            this.count = count;
+        }
+
+        void add(double value, long count) {
+            if (buckets == values.length) {
+                double[] grownValues = new double[buckets * 2];
+                long[] grownCounts = new long[buckets * 2];
+                System.arraycopy(values, 0, grownValues, 0, buckets);
+                System.arraycopy(counts, 0, grownCounts, 0, buckets);
+                values = grownValues;
+                counts = grownCounts;
+            }
+            values[buckets] = value;
+            counts[buckets] = count;
+            buckets++;
+        }
+
+        public Series getSeries() {
+            return series;
+        }
+
+        /**
+         * The number of values, across all buckets.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public int getBucketCount() {
+            return buckets;
+        }
+
+        /**
+         * The representative value of the <code>bucket</code>th lowest bucket.
+         */
+        public double getValue(int bucket) {
+            return values[bucket];
+        }
+
+        /**
+         * The number of values in the <code>bucket</code>th lowest bucket.
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link MetricSeries} worked out for each metric, keyed by registry name. Registered as a
+ * listener on the registry, it forgets a metric when it is removed or replaced; entries are
+ * also checked against the metric instance, so a metric replaced behind the listener's back
+ * is rendered again rather than reported under stale names.
+ */
+class SeriesCache extends MetricRegistryListener.Base {
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    MetricSeries get(String name, Metric metric) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.metric == metric ? entry.series : null;
+    }
+
+    void put(String name, Metric metric, MetricSeries series) {
+        entries.put(name, new Entry(metric, series));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void invalidate(String name) {
+        entries.remove(name);
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        invalidate(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        invalidate(name);
+    }
+
+    private static final class Entry {
+        private final Metric metric;
+        private final MetricSeries series;
+
+        Entry(Metric metric, MetricSeries series) {
+            this.metric = metric;
+            this.series = series;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+/**
+ * Remembers the last value reported for each series, so that series whose value hasn't
+ * changed since they were last sent can be skipped. A series is sent anyway once
+ * <code>heartbeatSeconds</code> have passed since it was last sent, so Datadog never
+ * considers it gone.
+ *
+ * Series are identified by a 64-bit hash of their name, host and tags, and kept in a
+ * {@link SeriesTable}, so tracking thousands of series allocates nothing per report. Series
+ * that stop being reported are dropped once they make up a quarter of the table.
+ */
+public final class SeriesChangeTracker {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int VALUE = 0;
+    private static final int SENT_AT = 1;
+
+    private final long heartbeatSeconds;
+    private final SeriesTable table = new SeriesTable(2);
+
+    private long sent;
+    private long skipped;
+
+    public SeriesChangeTracker(long heartbeatSeconds) {
+        if (heartbeatSeconds < 1) {
+            throw new IllegalArgumentException("heartbeatSeconds must be positive");
+        }
+        this.heartbeatSeconds = heartbeatSeconds;
+    }
+
+    /**
+     * Starts a new report; series not seen between this and {@link #endInterval()} are
+     * considered no longer reported.
+     */
+    public synchronized void beginInterval() {
+        table.beginInterval();
+    }
+
+    /**
+     * Drops series which were not seen during the interval, once there are enough of them to
+     * be worth rebuilding the table for.
+     */
+    public synchronized void endInterval() {
+        table.endInterval();
+    }
+
+    /**
+     * Records a series value and returns whether it should be sent: if it is new, its value
+     * has changed, or it is due a heartbeat.
+     *
+     * @param value the value as written, so that changes too small to show aren't sent
+     * @param timestamp report time in seconds
+     */
+    public synchronized boolean shouldSend(long series, long value, long timestamp) {
+        int slot = table.find(series);
+        if (slot < 0) {
+            slot = table.add(series);
+            table.set(slot, VALUE, value);
+            table.set(slot, SENT_AT, timestamp);
+            sent++;
+            return true;
+        }
+
+        if (table.get(slot, VALUE) != value || timestamp - table.get(slot, SENT_AT) >= heartbeatSeconds) {
+            table.set(slot, VALUE, value);
+            table.set(slot, SENT_AT, timestamp);
+            sent++;
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /**
+     * The number of series currently tracked.
+     */
+    public synchronized int size() {
+        return table.size();
+    }
+
+    public synchronized long getSentCount() {
+        return sent;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the parts identifying a series, with a final mix so that
+     * similar names spread across the table.
+     */
+    public static long hash(String metricName, String host, String[] tags) {
+        long h = FNV_OFFSET_BASIS;
+        h = hash(h, metricName);
+        h = (h ^ 0xff) * FNV_PRIME;
+        h = hash(h, host);
+        if (tags != null) {
+            for (String tag : tags) {
+                h = (h ^ 0xfe) * FNV_PRIME;
+                h = hash(h, tag);
+            }
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        if (s == null) {
+            return h;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+}
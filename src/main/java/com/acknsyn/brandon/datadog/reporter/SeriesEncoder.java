@@ -0,0 +1,21 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the series collected in a report for sending. A batch's points and its
+ * distributions are encoded as separate payloads, as Datadog takes them at separate
+ * endpoints. Encoders may keep scratch state between payloads, so each sink should have
+ * its own.
+ */
+public interface SeriesEncoder {
+    /**
+     * The <code>Content-Type</code> of encoded payloads.
+     */
+    String getContentType();
+
+    void encodePoints(SeriesBatch batch, OutputStream out) throws IOException;
+
+    void encodeDistributions(SeriesBatch batch, OutputStream out) throws IOException;
+}
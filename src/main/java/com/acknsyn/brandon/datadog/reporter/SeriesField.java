@@ -0,0 +1,46 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+/**
+ * The fields a metric can be reported as, each a series named after the metric's alias
+ * followed by the field's suffix.
+ */
+public enum SeriesField {
+    /**
+     * A gauge's value, reported under the alias itself.
+     */
+    VALUE(null, false),
+    COUNT("count", false),
+    MAX("max", true),
+    MEAN("mean", true),
+    MIN("min", true),
+    STDDEV("stddev", true),
+    P50("p50", true),
+    P75("p75", true),
+    P95("p95", true),
+    P98("p98", true),
+    P99("p99", true),
+    P999("p999", true),
+    M1_RATE("m1_rate", false),
+    M5_RATE("m5_rate", false),
+    M15_RATE("m15_rate", false),
+    MEAN_RATE("mean_rate", false);
+
+    private final String suffix;
+    private final boolean fromSnapshot;
+
+    private SeriesField(String suffix, boolean fromSnapshot) {
+        this.suffix = suffix;
+        this.fromSnapshot = fromSnapshot;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Whether reporting this field takes a {@link com.codahale.metrics.Snapshot}.
+     */
+    public boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
+}
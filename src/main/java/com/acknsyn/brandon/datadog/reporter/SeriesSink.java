@@ -0,0 +1,14 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for the series collected in each report. Each sink is fed from its own queue
+ * on its own thread, one batch at a time and in the order reported, so a sink can take as long
+ * as it likes, or fail, without holding up reporting or the other sinks. It's closed once the
+ * reporter stops and whatever was queued for it has been written.
+ */
+public interface SeriesSink extends Closeable {
+    void write(SeriesBatch batch) throws IOException;
+}
@@ -1,18 +1,125 @@
 package com.acknsyn.brandon.datadog.reporter;
 
+import java.io.CharArrayWriter;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Locale;
+import java.math.BigDecimal;
 
 public class SeriesStream implements Closeable {
+    public static final int DEFAULT_PRECISION = 2;
+    public static final int MAX_PRECISION = 12;
 
-    private Writer writer;
+    private static final String ENVELOPE_START = "{\"series\":[";
+    private static final String ENVELOPE_END = "]}";
+    private static final long[] POWERS_OF_TEN = new long[MAX_PRECISION + 1];
+    //doubles scaled past this can't be rounded exactly through a long
+    private static final double MAX_SCALED_DOUBLE = 1e15;
+
+    static {
+        POWERS_OF_TEN[0] = 1L;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+        }
+    }
+
+    private CountingWriter writer;
     private boolean firstMetric = true;
+    private int seriesCount;
+    private final boolean enveloped;
+    private final int precision;
+    private final char[] digits = new char[20 + 1 + MAX_PRECISION];
+    private SeriesChangeTracker changeTracker;
+    private PointBuffer pointBuffer;
+    private SeriesBatch batch;
 
     public SeriesStream(Writer connection) throws IOException {
-        this.writer = connection;
-        connection.write("{\"series\":[");
+        this(connection, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Nothing is written to <code>connection</code> until the first series is, or the stream
+     * is closed.
+     *
+     * @param precision number of decimal places floating point data points are written with
+     */
+    public SeriesStream(Writer connection, int precision) throws IOException {
+        this(connection, precision, true);
+    }
+
+    private SeriesStream(Writer connection, int precision, boolean enveloped) {
+        if (precision < 0 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 0 and " + MAX_PRECISION);
+        }
+        this.writer = new CountingWriter(connection);
+        this.precision = precision;
+        this.enveloped = enveloped;
+    }
+
+    /**
+     * A stream which records the points of series rendered ahead of time into
+     * <code>batch</code>, rather than writing anything.
+     */
+    static SeriesStream recorder(SeriesBatch batch, int precision) {
+        //nothing is ever written through a recorder
+        SeriesStream stream = new SeriesStream(new CharArrayWriter(0), precision, false);
+        stream.recordTo(batch);
+        return stream;
+    }
+
+    /**
+     * Appends series written elsewhere, e.g. on another thread, to this stream. Points
+     * recorded by the fragment are appended to the batch this stream records into.
+     */
+    public void append(Fragment fragment) throws IOException {
+        if (batch != null && fragment.stream.batch != null) {
+            batch.append(fragment.stream.batch);
+        }
+        if (fragment.isEmpty()) {
+            return;
+        }
+
+        writeSeparator();
+        fragment.chars.writeTo(writer);
+        seriesCount += fragment.stream.seriesCount;
+    }
+
+    /**
+     * Skips series whose value hasn't changed since the tracker last let them through.
+     */
+    void trackChanges(SeriesChangeTracker changeTracker) {
+        this.changeTracker = changeTracker;
+    }
+
+    /**
+     * Buffers the points of series rendered ahead of time, instead of writing them, for as
+     * long as the buffer has room for them.
+     */
+    void bufferPoints(PointBuffer pointBuffer) {
+        this.pointBuffer = pointBuffer;
+    }
+
+    /**
+     * Records the points of series rendered ahead of time into a batch, for sinks, instead
+     * of writing them. They are neither buffered nor counted as written.
+     */
+    void recordTo(SeriesBatch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * The number of series written so far, including those in appended fragments.
+     */
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    /**
+     * The number of bytes written so far, once encoded as UTF-8. Unpaired surrogates count as
+     * two bytes each, though they're encoded as one.
+     */
+    public long getSize() {
+        return writer.count;
     }
 
     public void writeMetric(String metricName, long timestamp, Number dataPoint, String host,
@@ -22,12 +129,255 @@ public class SeriesStream implements Closeable {
 
     public void writeMetric(String metricName, long timestamp, Number dataPoint, MetricType metricType, String host,
                             String[] tags) throws IOException {
+        if (dataPoint instanceof Long || dataPoint instanceof Integer
+                || dataPoint instanceof Short || dataPoint instanceof Byte) {
+            writeMetric(metricName, timestamp, dataPoint.longValue(), metricType, host, tags);
+        } else {
+            writeMetric(metricName, timestamp, dataPoint.doubleValue(), metricType, host, tags);
+        }
+    }
+
+    public void writeMetric(String metricName, long timestamp, long dataPoint, String host,
+                            String[] tags) throws IOException {
+        writeMetric(metricName, timestamp, dataPoint, MetricType.GAUGE, host, tags);
+    }
+
+    public void writeMetric(String metricName, long timestamp, long dataPoint, MetricType metricType, String host,
+                            String[] tags) throws IOException {
+        if (changeTracker != null
+                && !changeTracker.shouldSend(SeriesChangeTracker.hash(metricName, host, tags), dataPoint, timestamp)) {
+            return;
+        }
+        writeSeriesStart(metricName, timestamp);
+        writeLong(dataPoint);
+        writeSeriesEnd(metricType, host, tags);
+    }
+
+    public void writeMetric(String metricName, long timestamp, double dataPoint, String host,
+                            String[] tags) throws IOException {
+        writeMetric(metricName, timestamp, dataPoint, MetricType.GAUGE, host, tags);
+    }
+
+    /**
+     * Writes a floating point data point. NaN and infinite values have no json representation
+     * and would cause the whole payload to be rejected, so they are skipped.
+     */
+    public void writeMetric(String metricName, long timestamp, double dataPoint, MetricType metricType, String host,
+                            String[] tags) throws IOException {
+        if (Double.isNaN(dataPoint) || Double.isInfinite(dataPoint)) {
+            return;
+        }
+        if (changeTracker != null && !changeTracker.shouldSend(SeriesChangeTracker.hash(metricName, host, tags),
+                writtenValue(dataPoint), timestamp)) {
+            return;
+        }
+        writeSeriesStart(metricName, timestamp);
+        writeDouble(dataPoint);
+        writeSeriesEnd(metricType, host, tags);
+    }
+
+    /**
+     * Writes a series rendered ahead of time; equivalent to, but cheaper than, writing the
+     * same series by name.
+     */
+    public void writeMetric(Series series, long timestamp, long dataPoint) throws IOException {
+        if (changeTracker != null && !changeTracker.shouldSend(series.hash, dataPoint, timestamp)) {
+            return;
+        }
+        if (batch != null) {
+            batch.add(series, dataPoint);
+            return;
+        }
+        if (pointBuffer != null && pointBuffer.add(series, timestamp, dataPoint)) {
+            return;
+        }
+        writeSeriesStart(series, timestamp);
+        writeLong(dataPoint);
+        writer.write(series.suffix, 0, series.suffix.length);
+    }
+
+    /**
+     * Writes the increase in a count, for a series rendered as a counter. When only changes
+     * are reported, the running total is what's compared, so that a count going up by the
+     * same amount every interval is still sent.
+     */
+    public void writeDelta(Series series, long timestamp, long delta, long total) throws IOException {
+        if (changeTracker != null && !changeTracker.shouldSend(series.hash, total, timestamp)) {
+            return;
+        }
+        if (batch != null) {
+            batch.add(series, delta);
+            return;
+        }
+        if (pointBuffer != null && pointBuffer.add(series, timestamp, delta)) {
+            return;
+        }
+        writeSeriesStart(series, timestamp);
+        writeLong(delta);
+        writer.write(series.suffix, 0, series.suffix.length);
+    }
+
+    /**
+     * Writes a series rendered ahead of time; NaN and infinite values are skipped.
+     */
+    public void writeMetric(Series series, long timestamp, double dataPoint) throws IOException {
+        if (Double.isNaN(dataPoint) || Double.isInfinite(dataPoint)) {
+            return;
+        }
+        if (changeTracker != null && !changeTracker.shouldSend(series.hash, writtenValue(dataPoint), timestamp)) {
+            return;
+        }
+        if (batch != null) {
+            batch.add(series, dataPoint);
+            return;
+        }
+        if (pointBuffer != null && pointBuffer.add(series, timestamp, dataPoint)) {
+            return;
+        }
+        writeSeriesStart(series, timestamp);
+        writeDouble(dataPoint);
+        writer.write(series.suffix, 0, series.suffix.length);
+    }
+
+    public void writeMetric(Series series, long timestamp, Number dataPoint) throws IOException {
+        if (dataPoint instanceof Long || dataPoint instanceof Integer
+                || dataPoint instanceof Short || dataPoint instanceof Byte) {
+            writeMetric(series, timestamp, dataPoint.longValue());
+        } else {
+            writeMetric(series, timestamp, dataPoint.doubleValue());
+        }
+    }
+
+    /**
+     * Writes one series of a buffer, with all of its buffered points, oldest first.
+     */
+    void writeBuffered(PointBuffer buffer, int index) throws IOException {
+        synchronized (buffer) {
+            final Series series = buffer.series(index);
+            final int points = buffer.pointCount(index);
+            for (int i = 0; i < points; i++) {
+                int position = buffer.position(index, i);
+                if (i == 0) {
+                    writeSeriesStart(series, buffer.timestamp(position));
+                } else {
+                    writer.write("],[");
+                    writeLong(buffer.timestamp(position));
+                    writer.write(',');
+                }
+                if (buffer.isDouble(position)) {
+                    writeDouble(buffer.doubleValue(position));
+                } else {
+                    writeLong(buffer.longValue(position));
+                }
+            }
+            writer.write(series.suffix, 0, series.suffix.length);
+        }
+    }
+
+    /**
+     * Writes a sketch as a single distribution point, for the distribution_points endpoint,
+     * as its buckets' representative values. A sketch of more than <code>maxValues</code>
+     * values is written as <code>maxValues</code> values in the same proportions. Empty
+     * sketches are skipped. The series should have been rendered without a metric type.
+     */
+    public void writeDistribution(Series series, long timestamp, DistributionSketch sketch,
+                                  final int maxValues) throws IOException {
+        if (sketch.isEmpty()) {
+            return;
+        }
+        if (batch != null) {
+            batch.addDistribution(series, sketch);
+            return;
+        }
+        writeSeriesStart(series, timestamp);
+        writer.write('[');
+        sketch.forEachBucket(new DistributionValues(sketch.getCount(), maxValues));
+        writer.write(']');
+        writer.write(series.suffix, 0, series.suffix.length);
+    }
+
+    /**
+     * Writes a distribution collected into a {@link SeriesBatch}, as above.
+     */
+    public void writeDistribution(SeriesBatch.Distribution distribution, long timestamp,
+                                  int maxValues) throws IOException {
+        if (distribution.getCount() == 0) {
+            return;
+        }
+        final Series series = distribution.getSeries();
+        writeSeriesStart(series, timestamp);
+        writer.write('[');
+        DistributionValues values = new DistributionValues(distribution.getCount(), maxValues);
+        for (int i = 0; i < distribution.getBucketCount(); i++) {
+            values.visit(distribution.getValue(i), distribution.getCount(i));
+        }
+        writer.write(']');
+        writer.write(series.suffix, 0, series.suffix.length);
+    }
+
+    /**
+     * Writes each bucket's value as many times as its share of <code>maxValues</code>.
+     */
+    private final class DistributionValues implements DistributionSketch.BucketVisitor {
+        private final long total;
+        private final int maxValues;
+        private long seen;
+        private long written;
+
+        DistributionValues(long total, int maxValues) {
+            this.total = total;
+            this.maxValues = maxValues;
+        }
+
+        public void visit(double value, long count) throws IOException {
+            seen += count;
+            long target = total <= maxValues ? seen : (seen * maxValues + total / 2) / total;
+            for (; written < target; written++) {
+                if (written > 0) {
+                    writer.write(',');
+                }
+                writeDouble(value);
+            }
+        }
+    }
+
+    private void writeSeparator() throws IOException {
         if (firstMetric) {
             firstMetric = false;
+            if (enveloped) {
+                writer.write(ENVELOPE_START);
+            }
         } else {
             writer.write(',');
         }
+    }
 
+    private void writeSeriesStart(String metricName, long timestamp) throws IOException {
+        writeSeparator();
+
+        seriesCount++;
+        writeSeriesPrefix(writer, metricName);
+        writeLong(timestamp);
+        writer.write(',');
+    }
+
+    private void writeSeriesStart(Series series, long timestamp) throws IOException {
+        writeSeparator();
+
+        seriesCount++;
+        writer.write(series.prefix, 0, series.prefix.length);
+        writeLong(timestamp);
+        writer.write(',');
+    }
+
+    private void writeSeriesEnd(MetricType metricType, String host, String[] tags) throws IOException {
+        writeSeriesSuffix(writer, metricType, host, tags);
+    }
+
+    /**
+     * Writes everything in a series before its first timestamp.
+     */
+    static void writeSeriesPrefix(Writer writer, String metricName) throws IOException {
         writer.write('{');
 
         writer.write("\"metric\":\"");
@@ -35,9 +385,13 @@ public class SeriesStream implements Closeable {
         writer.write("\",");
 
         writer.write("\"points\":[[");
-        writer.write(format(timestamp));
-        writer.write(',');
-        writer.write(format(dataPoint));
+    }
+
+    /**
+     * Writes everything in a series after its last value.
+     */
+    static void writeSeriesSuffix(Writer writer, MetricType metricType, String host, String[] tags)
+            throws IOException {
         writer.write("]]");
 
         if (metricType != null) {
@@ -70,32 +424,209 @@ public class SeriesStream implements Closeable {
     }
 
     public void close() throws IOException {
-        writer.write("]}");
+        if (enveloped) {
+            if (firstMetric) {
+                writer.write(ENVELOPE_START);
+            }
+            writer.write(ENVELOPE_END);
+        }
+    }
+
+    /**
+     * The value <code>v</code> is written as, scaled to a whole number, so that change
+     * tracking ignores differences below the precision.
+     */
+    private long writtenValue(double v) {
+        final double scaled = v * POWERS_OF_TEN[precision];
+        return Math.abs(scaled) < MAX_SCALED_DOUBLE ? Math.round(scaled) : Double.doubleToLongBits(v);
+    }
+
+    private void writeLong(long n) throws IOException {
+        int start = formatLong(n, digits);
+        writer.write(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes <code>v</code> rounded half-up to <code>precision</code> decimal places, as
+     * <code>String.format("%.{precision}f")</code> would, without going through a Formatter.
+     */
+    private void writeDouble(double v) throws IOException {
+        int start = formatDouble(v, precision, digits);
+        if (start < 0) {
+            writer.write(formatExact(v, precision));
+            return;
+        }
+        writer.write(digits, start, digits.length - start);
+    }
+
+    /**
+     * Rounds <code>v</code> as {@link #formatDouble} does, for the values it can't. Like a
+     * Formatter, this rounds the shortest decimal that reads back as <code>v</code>, so 1.005
+     * rounds up to 1.01 even though the double is slightly less than 1.005.
+     */
+    static String formatExact(double v, int precision) {
+        return BigDecimal.valueOf(v).setScale(precision, BigDecimal.ROUND_HALF_UP).toPlainString();
+    }
+
+    /**
+     * Formats <code>n</code> into the end of <code>digits</code>, which must hold at least 20
+     * chars, returning where it starts.
+     */
+    static int formatLong(long n, char[] digits) {
+        if (n == Long.MIN_VALUE) {
+            String min = Long.toString(n);
+            min.getChars(0, min.length(), digits, digits.length - min.length());
+            return digits.length - min.length();
+        }
+
+        int start = digits.length;
+        long remaining = n < 0 ? -n : n;
+        do {
+            digits[--start] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+
+        if (n < 0) {
+            digits[--start] = '-';
+        }
+        return start;
+    }
+
+    /**
+     * Formats <code>v</code> rounded half-up to <code>precision</code> decimal places into the
+     * end of <code>digits</code>, which must hold at least <code>21 + precision</code> chars,
+     * returning where it starts. Returns -1, leaving it to {@link #formatExact}, if <code>v</code>
+     * is too large to be rounded this way, or so close to halfway between two results that
+     * scaling it in binary could round it the wrong way.
+     */
+    static int formatDouble(double v, int precision, char[] digits) {
+        final boolean negative = v < 0;
+        final double scaled = (negative ? -v : v) * POWERS_OF_TEN[precision];
+
+        if (scaled >= MAX_SCALED_DOUBLE) {
+            return -1;
+        }
+        //v is within half an ulp of its decimal value, and scaling adds up to another ulp or so
+        if (Math.abs(scaled - Math.floor(scaled) - 0.5d) <= 4 * Math.ulp(scaled)) {
+            return -1;
+        }
+
+        long rounded = (long) (scaled + 0.5d);
+
+        int start = digits.length;
+        for (int i = 0; i < precision; i++) {
+            digits[--start] = (char) ('0' + (rounded % 10));
+            rounded /= 10;
+        }
+        if (precision > 0) {
+            digits[--start] = '.';
+        }
+        do {
+            digits[--start] = (char) ('0' + (rounded % 10));
+            rounded /= 10;
+        } while (rounded != 0);
+
+        if (negative && !isZero(digits, start)) {
+            digits[--start] = '-';
+        }
+        return start;
     }
 
-    private String format(Number n) {
-        if (n instanceof Float) {
-            return format(n.doubleValue());
-        } else if (n instanceof Double) {
-            return format(n.doubleValue());
-        } else if (n instanceof Byte) {
-            return format(n.longValue());
-        } else if (n instanceof Short) {
-            return format(n.longValue());
-        } else if (n instanceof Integer) {
-            return format(n.longValue());
-        } else if (n instanceof Long) {
-            return format(n.longValue());
+    private static boolean isZero(char[] digits, int start) {
+        for (int i = start; i < digits.length; i++) {
+            if (digits[i] != '0' && digits[i] != '.') {
+                return false;
+            }
         }
-        return null;
+        return true;
     }
 
-    private String format(long n) {
-        return Long.toString(n);
+    /**
+     * Counts the UTF-8 encoded length of what's written through it, so that requests can be
+     * capped in bytes even with non-ascii names, hosts and tags.
+     */
+    private static final class CountingWriter extends Writer {
+        private final Writer out;
+        private long count;
+
+        CountingWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count += utf8Length((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            final int end = off + len;
+            for (int i = off; i < end; i++) {
+                count += utf8Length(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            final int end = off + len;
+            for (int i = off; i < end; i++) {
+                count += utf8Length(str.charAt(i));
+            }
+        }
+
+        //a surrogate pair is four bytes, two for each half
+        private static int utf8Length(char c) {
+            if (c < 0x80) {
+                return 1;
+            }
+            if (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                return 2;
+            }
+            return 3;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
     }
 
-    private String format(double v) {
-        return String.format(Locale.US, "%2.2f", v);
+    /**
+     * A detached run of series, buffered in memory, which can be written independently of
+     * (and concurrently with) other fragments and later {@link SeriesStream#append appended}
+     * to a stream in whatever order is wanted.
+     */
+    public static final class Fragment {
+        private final CharArrayWriter chars = new CharArrayWriter();
+        private final SeriesStream stream;
+
+        public Fragment() {
+            this(DEFAULT_PRECISION);
+        }
+
+        public Fragment(int precision) {
+            stream = new SeriesStream(chars, precision, false);
+        }
+
+        public SeriesStream getStream() {
+            return stream;
+        }
+
+        public boolean isEmpty() {
+            return stream.firstMetric;
+        }
+
+        public int size() {
+            return chars.size();
+        }
     }
 
     public static enum MetricType {
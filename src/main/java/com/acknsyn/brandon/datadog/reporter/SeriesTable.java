@@ -0,0 +1,150 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+/**
+ * An open-addressed hash table from a series' 64-bit hash to a fixed number of long columns,
+ * kept in parallel primitive arrays so that tracking thousands of series allocates nothing per
+ * report. Each slot is stamped with the last interval its series was looked up in, and series
+ * that stop being looked up are dropped once they make up a quarter of the table.
+ *
+ * Slots are only valid until the next {@link #add(long)} or {@link #endInterval()}, either of
+ * which may rebuild the table. Not thread safe; the trackers using it synchronize.
+ */
+final class SeriesTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    //marks empty slots; a series hashing to it is moved to EMPTY_REPLACEMENT
+    private static final long EMPTY = 0L;
+    private static final long EMPTY_REPLACEMENT = 1L;
+
+    private final int columnCount;
+
+    private long[] keys;
+    private long[][] columns;
+    private int[] seenIn;
+    private int size;
+    private int interval;
+
+    SeriesTable(int columnCount) {
+        this.columnCount = columnCount;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Starts a new interval; series not looked up between this and {@link #endInterval()}
+     * are considered stale.
+     */
+    void beginInterval() {
+        interval++;
+    }
+
+    /**
+     * Drops stale series, once there are enough of them to be worth rebuilding the table for.
+     */
+    void endInterval() {
+        int stale = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && seenIn[i] != interval) {
+                stale++;
+            }
+        }
+        if (stale > 0 && stale * 4 >= size) {
+            rehash(keys.length, true);
+        }
+    }
+
+    /**
+     * Finds a series, stamping it as seen this interval.
+     *
+     * @return its slot, or -1 if it isn't in the table
+     */
+    int find(long series) {
+        int slot = slot(keys, key(series));
+        if (keys[slot] == EMPTY) {
+            return -1;
+        }
+        seenIn[slot] = interval;
+        return slot;
+    }
+
+    /**
+     * Adds a series which {@link #find(long)} didn't, stamped as seen this interval, with
+     * every column zero.
+     *
+     * @return its slot
+     */
+    int add(long series) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2, false);
+        }
+        long key = key(series);
+        int slot = slot(keys, key);
+        keys[slot] = key;
+        seenIn[slot] = interval;
+        size++;
+        return slot;
+    }
+
+    long get(int slot, int column) {
+        return columns[column][slot];
+    }
+
+    void set(int slot, int column, long value) {
+        columns[column][slot] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static long key(long series) {
+        return series == EMPTY ? EMPTY_REPLACEMENT : series;
+    }
+
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        columns = new long[columnCount][capacity];
+        seenIn = new int[capacity];
+    }
+
+    private void rehash(int capacity, boolean dropStale) {
+        long[] oldKeys = keys;
+        long[][] oldColumns = columns;
+        int[] oldSeenIn = seenIn;
+
+        if (dropStale) {
+            int live = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY && oldSeenIn[i] == interval) {
+                    live++;
+                }
+            }
+            capacity = INITIAL_CAPACITY;
+            while (live * 2 > capacity) {
+                capacity *= 2;
+            }
+        }
+
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY || (dropStale && oldSeenIn[i] != interval)) {
+                continue;
+            }
+            int slot = slot(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            for (int column = 0; column < columnCount; column++) {
+                columns[column][slot] = oldColumns[column][i];
+            }
+            seenIn[slot] = oldSeenIn[i];
+            size++;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds a {@link SeriesSink} from a queue of at most <code>capacity</code> batches, on a daemon
+ * thread of its own, started with the first batch. A batch offered while the queue is full is
+ * dropped, for this sink only, so a slow or failing sink loses its own reports rather than
+ * holding up the reporter or other sinks.
+ */
+final class SinkQueue {
+    private static final Logger log = LoggerFactory.getLogger(SinkQueue.class);
+    private static final long POLL_MILLIS = 100;
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private final SeriesSink sink;
+    private final BlockingQueue<SeriesBatch> queue;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private Thread writer;
+    private volatile boolean closed;
+
+    SinkQueue(SeriesSink sink, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<SeriesBatch>(capacity);
+    }
+
+    SeriesSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Queues a batch without waiting.
+     *
+     * @return false if the batch was dropped because the queue is full or closed
+     */
+    boolean offer(SeriesBatch batch) {
+        if (closed || !queue.offer(batch)) {
+            dropped.incrementAndGet();
+            log.warn("dropped a report for {}, which is falling behind", sink);
+            return false;
+        }
+        startWriter();
+        return true;
+    }
+
+    private synchronized void startWriter() {
+        if (writer == null && !closed) {
+            writer = new Thread(new Runnable() {
+                public void run() {
+                    writeBatches();
+                }
+            }, "datadog-sink-" + count.incrementAndGet());
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void writeBatches() {
+        while (!closed || !queue.isEmpty()) {
+            SeriesBatch batch;
+            try {
+                batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                continue;
+            }
+            try {
+                sink.write(batch);
+                written.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.error("unable to write metrics to " + sink, e);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting batches, waits up to <code>timeout</code> for those queued to be
+     * written and then closes the sink, unless it's still being written to.
+     *
+     * @return true if everything queued was written, or failed, before the timeout elapsed
+     */
+    boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+        }
+        if (thread != null) {
+            unit.timedJoin(thread, timeout);
+            if (thread.isAlive()) {
+                log.warn("gave up waiting for {} to write queued reports", sink);
+                return false;
+            }
+        }
+        try {
+            sink.close();
+        } catch (Exception e) {
+            log.error("unable to close " + sink, e);
+        }
+        return true;
+    }
+
+    long getWrittenCount() {
+        return written.get();
+    }
+
+    long getFailedCount() {
+        return failed.get();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,99 @@
+package com.acknsyn.brandon.urlwriter;
+
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import com.acknsyn.brandon.urlwriter.io.Utf8Writer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+
+/**
+ * A writer for factories which hold a request until it is closed. What is written is encoded
+ * once, as UTF-8, into a buffer borrowed from a {@link ByteArrayBufferPool}, and on close the
+ * buffer is handed to {@link #send(ByteArrayBuffer)}, which then owns it and has to return it
+ * to the pool.
+ */
+public abstract class BufferedRequestWriter extends Writer {
+    private static final int DECODE_BUFFER_SIZE = 4096;
+
+    private ByteArrayBuffer body;
+    private final Writer encoder;
+    private boolean closed;
+
+    protected BufferedRequestWriter(ByteArrayBufferPool bufferPool) {
+        body = bufferPool.acquire();
+        encoder = new Utf8Writer(body);
+    }
+
+    /**
+     * Sends <code>len</code> bytes of UTF-8 through <code>factory</code>, as bytes if it takes
+     * them and otherwise by decoding them into one of its writers a chunk at a time.
+     */
+    public static void send(URLWriterFactory factory, URL url, byte[] body, int off, int len) throws IOException {
+        if (factory instanceof EncodedURLWriterFactory) {
+            ((EncodedURLWriterFactory) factory).send(url, body, off, len);
+            return;
+        }
+
+        Writer writer = factory.getWriter(url);
+        try {
+            Reader decoder = new InputStreamReader(new ByteArrayInputStream(body, off, len), "UTF-8");
+            char[] chars = new char[DECODE_BUFFER_SIZE];
+            int n;
+            while ((n = decoder.read(chars)) >= 0) {
+                writer.write(chars, 0, n);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        encoder.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        encoder.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        encoder.write(str, off, len);
+    }
+
+    /**
+     * Requests are only sent on close, so there is nothing to flush.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        encoder.close();
+
+        ByteArrayBuffer request = body;
+        body = null;
+        send(request);
+    }
+
+    /**
+     * Sends the encoded request; the buffer belongs to this method from here on.
+     */
+    protected abstract void send(ByteArrayBuffer request) throws IOException;
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("writer is closed");
+    }
+}
@@ -0,0 +1,22 @@
+package com.acknsyn.brandon.urlwriter;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * A {@link com.acknsyn.brandon.urlwriter.URLWriterFactory} which can also be handed a request
+ * body that is already encoded as UTF-8. Factories which hold on to a request before sending
+ * it keep it as UTF-8 bytes, and when their delegate is one of these the bytes go straight
+ * down rather than being decoded only to be encoded again.
+ *
+ * Bodies which aren't text at all, like binary series, can be sent this way too, so long as
+ * every factory down to the transport is one of these and sends them as they are.
+ */
+public interface EncodedURLWriterFactory extends URLWriterFactory {
+    /**
+     * Sends <code>len</code> bytes of UTF-8 from <code>body</code>, starting at <code>off</code>,
+     * just as closing a writer from {@link #getWriter(java.net.URL)} would once the same text
+     * had been written to it.
+     */
+    void send(URL url, byte[] body, int off, int len) throws IOException;
+}
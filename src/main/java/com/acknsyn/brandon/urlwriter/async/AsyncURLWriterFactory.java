@@ -0,0 +1,216 @@
+package com.acknsyn.brandon.urlwriter.async;
+
+import com.acknsyn.brandon.urlwriter.BufferedRequestWriter;
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link com.acknsyn.brandon.urlwriter.URLWriterFactory} whose writers buffer what is
+ * written, as UTF-8, and on close hand the request to a background executor which sends it
+ * through a delegate factory. Closing returns as soon as the request is queued, so the caller is
+ * never held up by a slow endpoint. Failures are logged and passed to any registered
+ * {@link com.acknsyn.brandon.urlwriter.async.CompletionListener}s rather than thrown.
+ *
+ * At most <code>maxInFlight</code> requests may be queued or sending at once; closing a
+ * writer beyond that drops its request and throws an <code>IOException</code>.
+ */
+public class AsyncURLWriterFactory implements URLWriterFactory {
+    private static final Logger log = LoggerFactory.getLogger(AsyncURLWriterFactory.class);
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int DEFAULT_MAX_RETAINED_CAPACITY = 16 * 1024 * 1024;
+
+    private final URLWriterFactory delegate;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object idle = new Object();
+    private final List<CompletionListener> listeners = new CopyOnWriteArrayList<CompletionListener>();
+    private final ByteArrayBufferPool bufferPool;
+
+    public AsyncURLWriterFactory(URLWriterFactory delegate) {
+        this(delegate, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Sends requests one at a time on a daemon thread owned by this factory.
+     */
+    public AsyncURLWriterFactory(URLWriterFactory delegate, int maxInFlight) {
+        this(delegate, Executors.newSingleThreadExecutor(new SenderThreadFactory()), maxInFlight, true);
+    }
+
+    /**
+     * Sends requests on the given executor, which is not shut down by {@link #shutdown()}.
+     */
+    public AsyncURLWriterFactory(URLWriterFactory delegate, ExecutorService executor, int maxInFlight) {
+        this(delegate, executor, maxInFlight, false);
+    }
+
+    private AsyncURLWriterFactory(URLWriterFactory delegate, ExecutorService executor, int maxInFlight,
+                                  boolean ownsExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.ownsExecutor = ownsExecutor;
+        //enough for every request that may be in flight
+        this.bufferPool = new ByteArrayBufferPool(maxInFlight, DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    public Writer getWriter(URL url) throws IOException {
+        return new AsyncURLWriter(url);
+    }
+
+    public void addListener(CompletionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CompletionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The number of requests handed off but not yet completed.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Waits for all in-flight requests to complete.
+     *
+     * @return true if nothing was left in flight before the timeout elapsed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idle) {
+            while (inFlight.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idle, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting requests; those already in flight are still sent.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void submit(final URL url, final ByteArrayBuffer body) throws IOException {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            completed();
+            bufferPool.release(body);
+            throw new IOException("request to " + url.getPath() + " dropped: " + maxInFlight + " requests already in flight");
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        send(url, body);
+                    } finally {
+                        bufferPool.release(body);
+                        completed();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completed();
+            bufferPool.release(body);
+            throw new IOException("request to " + url.getPath() + " rejected: " + e.getMessage());
+        }
+    }
+
+    private void send(URL url, ByteArrayBuffer body) {
+        try {
+            BufferedRequestWriter.send(delegate, url, body.array(), 0, body.size());
+        } catch (HttpException hre) {
+            log.error("request rejected with status: {} and response: {}", hre.getStatus(), hre.getResponse());
+            notifyFailure(url, hre);
+            return;
+        } catch (Exception e) {
+            log.error("unable to send request", e);
+            notifyFailure(url, e);
+            return;
+        }
+        notifySuccess(url);
+    }
+
+    private void completed() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    private void notifySuccess(URL url) {
+        for (CompletionListener listener : listeners) {
+            try {
+                listener.onSuccess(url);
+            } catch (RuntimeException e) {
+                log.error("completion listener failed", e);
+            }
+        }
+    }
+
+    private void notifyFailure(URL url, Exception cause) {
+        for (CompletionListener listener : listeners) {
+            try {
+                listener.onFailure(url, cause);
+            } catch (RuntimeException e) {
+                log.error("completion listener failed", e);
+            }
+        }
+    }
+
+    private class AsyncURLWriter extends BufferedRequestWriter {
+        private final URL url;
+
+        AsyncURLWriter(URL url) {
+            super(bufferPool);
+            this.url = url;
+        }
+
+        @Override
+        protected void send(ByteArrayBuffer request) throws IOException {
+            submit(url, request);
+        }
+    }
+
+    private static class SenderThreadFactory implements ThreadFactory {
+        private static final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "async-url-writer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.acknsyn.brandon.urlwriter.async;
+
+import java.net.URL;
+
+/**
+ * Notified, on the sending thread, when a request handed to an
+ * {@link com.acknsyn.brandon.urlwriter.async.AsyncURLWriterFactory} writer has completed.
+ */
+public interface CompletionListener {
+    void onSuccess(URL url);
+
+    void onFailure(URL url, Exception e);
+}
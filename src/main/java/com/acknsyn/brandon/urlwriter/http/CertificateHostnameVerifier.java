@@ -0,0 +1,129 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the server's certificate was issued for the host connected to, as
+ * {@link javax.net.ssl.HttpsURLConnection} does. A DNS name must match one of the certificate's
+ * DNS subject alternative names, or its most specific common name if it has none; a wildcard
+ * stands for exactly one left-most label. An IP address must match one of its IP address
+ * subject alternative names.
+ */
+public class CertificateHostnameVerifier implements HostnameVerifier {
+    private static final int SAN_DNS_NAME = 2;
+    private static final int SAN_IP_ADDRESS = 7;
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    public boolean verify(String host, SSLSession session) {
+        try {
+            Certificate[] certificates = session.getPeerCertificates();
+            if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate)) {
+                return false;
+            }
+            return matches(host, (X509Certificate) certificates[0]);
+        } catch (SSLPeerUnverifiedException e) {
+            return false;
+        }
+    }
+
+    boolean matches(String host, X509Certificate certificate) {
+        String name = normalize(host);
+        boolean address = isAddress(name);
+        List<String> dnsNames = new ArrayList<String>();
+        try {
+            Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+            if (alternativeNames != null) {
+                for (List<?> alternativeName : alternativeNames) {
+                    int type = ((Integer) alternativeName.get(0)).intValue();
+                    String value = (String) alternativeName.get(1);
+                    if (address && type == SAN_IP_ADDRESS && sameAddress(name, value)) {
+                        return true;
+                    }
+                    if (type == SAN_DNS_NAME) {
+                        dnsNames.add(value);
+                    }
+                }
+            }
+        } catch (CertificateParsingException e) {
+            return false;
+        }
+
+        if (address) {
+            return false;
+        }
+        if (dnsNames.isEmpty()) {
+            String commonName = commonName(certificate);
+            return commonName != null && matchesName(name, normalize(commonName));
+        }
+        for (String dnsName : dnsNames) {
+            if (matchesName(name, normalize(dnsName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesName(String host, String pattern) {
+        if (!pattern.startsWith("*.")) {
+            return host.equals(pattern);
+        }
+        //the wildcard covers one whole label, and never a bare domain like *.com
+        String suffix = pattern.substring(1);
+        int firstDot = host.indexOf('.');
+        return suffix.indexOf('.', 1) > 0 && firstDot > 0 && host.substring(firstDot).equals(suffix);
+    }
+
+    private static String commonName(X509Certificate certificate) {
+        try {
+            LdapName subject = new LdapName(certificate.getSubjectX500Principal().getName());
+            //rdns are listed least specific first, so the last cn wins
+            String commonName = null;
+            for (Rdn rdn : subject.getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    commonName = rdn.getValue().toString();
+                }
+            }
+            return commonName;
+        } catch (InvalidNameException e) {
+            return null;
+        }
+    }
+
+    private static boolean sameAddress(String host, String address) {
+        try {
+            return InetAddress.getByName(host).equals(InetAddress.getByName(address));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static boolean isAddress(String host) {
+        return host.indexOf(':') >= 0 || IPV4.matcher(host).matches();
+    }
+
+    private static String normalize(String host) {
+        String name = host.toLowerCase(Locale.ENGLISH);
+        if (name.startsWith("[") && name.endsWith("]")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+}
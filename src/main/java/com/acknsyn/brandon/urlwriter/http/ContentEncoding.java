@@ -0,0 +1,68 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How a request body is compressed on its way into the request buffer. Compression happens
+ * as the body is written, so only the compressed form is ever held in memory.
+ */
+public enum ContentEncoding {
+    IDENTITY(null) {
+        @Override
+        public OutputStream compress(OutputStream out, int level) {
+            return out;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        public OutputStream compress(OutputStream out, final int level) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+    DEFLATE("deflate") {
+        @Override
+        public OutputStream compress(OutputStream out, int level) {
+            //the deflater is ours to end, not the stream's
+            final Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String headerValue;
+
+    private ContentEncoding(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    /**
+     * The <code>Content-Encoding</code> header value, or null if no header should be sent.
+     */
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * Wraps <code>out</code> so that what is written to it is compressed at the given
+     * {@link java.util.zip.Deflater} level. Closing the returned stream finishes compression.
+     */
+    public abstract OutputStream compress(OutputStream out, int level) throws IOException;
+}
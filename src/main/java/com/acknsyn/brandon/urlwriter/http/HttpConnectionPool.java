@@ -0,0 +1,254 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps http(s) connections open between requests so each report doesn't pay for a new
+ * TCP (and TLS) handshake. Up to <code>maxIdlePerRoute</code> idle connections are kept per
+ * scheme, host and port; connections idle for longer than <code>maxIdleMillis</code> are
+ * closed rather than reused. Once a connection has been pooled, a daemon thread also closes
+ * expired idle connections in the background, so they aren't held open while the pool goes
+ * unused, until {@link #close()}. For https, the server's certificate is checked against the
+ * host with a {@link javax.net.ssl.HostnameVerifier}.
+ */
+public class HttpConnectionPool {
+    private static final int DEFAULT_MAX_IDLE_PER_ROUTE = 2;
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 30000;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2500;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 2500;
+    private static final long MIN_EVICTION_INTERVAL_MILLIS = 1000;
+
+    private final int maxIdlePerRoute;
+    private final long maxIdleMillis;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final HostnameVerifier hostnameVerifier;
+    private final Map<String, LinkedList<PooledHttpConnection>> idle = new HashMap<String, LinkedList<PooledHttpConnection>>();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong connectionsEvicted = new AtomicLong();
+    private ScheduledExecutorService evictor;
+    private boolean closed = false;
+
+    public HttpConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_ROUTE, DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    public HttpConnectionPool(int maxIdlePerRoute, long maxIdleMillis) {
+        this(maxIdlePerRoute, maxIdleMillis, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public HttpConnectionPool(int maxIdlePerRoute, long maxIdleMillis, int connectTimeoutMillis,
+                              int readTimeoutMillis) {
+        this(maxIdlePerRoute, maxIdleMillis, connectTimeoutMillis, readTimeoutMillis,
+                new CertificateHostnameVerifier());
+    }
+
+    public HttpConnectionPool(int maxIdlePerRoute, long maxIdleMillis, int connectTimeoutMillis,
+                              int readTimeoutMillis, HostnameVerifier hostnameVerifier) {
+        if (maxIdlePerRoute < 0) {
+            throw new IllegalArgumentException("maxIdlePerRoute must not be negative");
+        }
+        this.maxIdlePerRoute = maxIdlePerRoute;
+        this.maxIdleMillis = maxIdleMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * Borrows the most recently used idle connection to the url's host, or opens a new one.
+     */
+    public PooledHttpConnection acquire(URL url) throws IOException {
+        String route = route(url);
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (closed) throw new IOException("connection pool is closed");
+
+            LinkedList<PooledHttpConnection> connections = idle.get(route);
+            while (connections != null && !connections.isEmpty()) {
+                PooledHttpConnection connection = connections.removeFirst();
+                if (isExpired(connection, now)) {
+                    evict(connection);
+                } else {
+                    connectionsReused.incrementAndGet();
+                    return connection;
+                }
+            }
+        }
+
+        PooledHttpConnection connection = open(url, route);
+        connectionsCreated.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Returns a connection to the pool, or closes it if it can't be reused or the pool is full.
+     */
+    public void release(PooledHttpConnection connection, boolean reusable) {
+        if (reusable && !connection.isClosed()) {
+            synchronized (this) {
+                if (!closed) {
+                    LinkedList<PooledHttpConnection> connections = idle.get(connection.getRoute());
+                    if (connections == null) {
+                        connections = new LinkedList<PooledHttpConnection>();
+                        idle.put(connection.getRoute(), connections);
+                    }
+                    if (connections.size() < maxIdlePerRoute) {
+                        connection.markIdle(System.currentTimeMillis());
+                        connections.addFirst(connection);
+                        startEvictor();
+                        return;
+                    }
+                }
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Closes connections which have been idle for too long. This runs in the background every
+     * <code>maxIdleMillis</code>, but no more than once a second, while the pool holds idle
+     * connections.
+     */
+    public synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (LinkedList<PooledHttpConnection> connections : idle.values()) {
+            for (Iterator<PooledHttpConnection> it = connections.iterator(); it.hasNext(); ) {
+                PooledHttpConnection connection = it.next();
+                if (isExpired(connection, now)) {
+                    it.remove();
+                    evict(connection);
+                }
+            }
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        for (LinkedList<PooledHttpConnection> connections : idle.values()) {
+            for (PooledHttpConnection connection : connections) {
+                connection.close();
+            }
+        }
+        idle.clear();
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    public long getConnectionsEvicted() {
+        return connectionsEvicted.get();
+    }
+
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (LinkedList<PooledHttpConnection> connections : idle.values()) {
+            count += connections.size();
+        }
+        return count;
+    }
+
+    private void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        long interval = Math.max(maxIdleMillis, MIN_EVICTION_INTERVAL_MILLIS);
+        evictor = Executors.newSingleThreadScheduledExecutor(new EvictorThreadFactory());
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdle();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isExpired(PooledHttpConnection connection, long now) {
+        return connection.isClosed() || now - connection.getIdleSince() > maxIdleMillis;
+    }
+
+    private void evict(PooledHttpConnection connection) {
+        connectionsEvicted.incrementAndGet();
+        connection.close();
+    }
+
+    private PooledHttpConnection open(URL url, String route) throws IOException {
+        boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        if (!https && !"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IOException("unsupported protocol: " + url.getProtocol());
+        }
+
+        String host = url.getHost();
+        int port = port(url);
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+
+            if (https) {
+                SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+                socket = sslSocket;
+                sslSocket.startHandshake();
+                if (!hostnameVerifier.verify(host, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("certificate does not match host " + host);
+                }
+            }
+
+            return new PooledHttpConnection(route, socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    private static int port(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private static String route(URL url) {
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port(url);
+    }
+
+    private static class EvictorThreadFactory implements ThreadFactory {
+        private static final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "http-connection-evictor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,16 +1,28 @@
 package com.acknsyn.brandon.urlwriter.http;
 
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
 
 public class HttpException extends IOException {
     private int status;
     private String response;
+    private long retryAfterMillis = -1;
 
     public HttpException(int status, String response) {
         this.status = status;
         this.response = response;
     }
 
+    /**
+     * @param retryAfterMillis how long the server asked clients to wait before retrying, or -1
+     */
+    public HttpException(int status, String response, long retryAfterMillis) {
+        this(status, response);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
     public String getResponse() {
         return response;
     }
@@ -18,4 +30,34 @@ public class HttpException extends IOException {
     public int getStatus() {
         return status;
     }
+
+    /**
+     * The delay asked for by the response's <code>Retry-After</code> header, or -1 if it had none.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Parses a <code>Retry-After</code> header value, either delay-seconds or an HTTP-date,
+     * into a delay from <code>now</code>; returns -1 if the value is missing or malformed.
+     */
+    public static long parseRetryAfter(String value, long now) {
+        if (value == null) return -1;
+        value = value.trim();
+
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+            //not delay-seconds, try a date
+        }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - now);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
 }
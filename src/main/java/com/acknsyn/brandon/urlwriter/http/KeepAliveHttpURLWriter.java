@@ -0,0 +1,338 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import com.acknsyn.brandon.urlwriter.io.OutputWriterFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * Like {@link com.acknsyn.brandon.urlwriter.http.UnchunkedHttpURLWriter}, buffers the request
+ * body and POSTs it with a fixed content-length on the first flush, but speaks HTTP/1.1 over a
+ * connection borrowed from an {@link com.acknsyn.brandon.urlwriter.http.HttpConnectionPool} and
+ * hands the connection back afterwards instead of disconnecting.
+ *
+ * If a reused connection turns out to have been closed by the server while idle (nothing comes
+ * back before the connection drops), the request is sent again on another connection.
+ */
+public class KeepAliveHttpURLWriter extends Writer {
+    private static final Logger log = LoggerFactory.getLogger(KeepAliveHttpURLWriter.class);
+
+    static final String HTTP_CONTENT_TYPE_VALUE = "application/json; charset=utf-8";
+    private static final String HTTP_CHARSET = "UTF-8";
+    private static final Charset HTTP_CHARSET_UTF8 = Charset.forName(HTTP_CHARSET);
+    private static final Charset HTTP_HEADER_CHARSET = Charset.forName("ISO-8859-1");
+    private static final int MAX_SEND_ATTEMPTS = 3;
+    private static final int MAX_ERROR_RESPONSE_BYTES = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final URL url;
+    private final HttpConnectionPool connectionPool;
+    private final ByteArrayBufferPool bufferPool;
+    private final ContentEncoding contentEncoding;
+    private final String contentType;
+
+    private ByteArrayBuffer request;
+    private OutputStream body;
+    private Writer encoder;
+    private boolean flushed = false;
+    private boolean closed = false;
+
+    public KeepAliveHttpURLWriter(URL url, HttpConnectionPool connectionPool, OutputWriterFactory writerFactory,
+                                  ByteArrayBufferPool bufferPool) throws IOException {
+        this(url, connectionPool, writerFactory, bufferPool, ContentEncoding.IDENTITY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public KeepAliveHttpURLWriter(URL url, HttpConnectionPool connectionPool, OutputWriterFactory writerFactory,
+                                  ByteArrayBufferPool bufferPool, ContentEncoding contentEncoding,
+                                  int compressionLevel) throws IOException {
+        this(url, connectionPool, writerFactory, bufferPool, contentEncoding, compressionLevel,
+                HTTP_CONTENT_TYPE_VALUE);
+    }
+
+    /**
+     * @param contentType <code>Content-Type</code> of the body, for bodies other than json
+     *                    passed to {@link #writeEncoded(byte[], int, int)} as they are
+     */
+    public KeepAliveHttpURLWriter(URL url, HttpConnectionPool connectionPool, OutputWriterFactory writerFactory,
+                                  ByteArrayBufferPool bufferPool, ContentEncoding contentEncoding,
+                                  int compressionLevel, String contentType) throws IOException {
+        this.url = url;
+        this.connectionPool = connectionPool;
+        this.bufferPool = bufferPool;
+        this.contentEncoding = contentEncoding;
+        this.contentType = contentType;
+
+        request = bufferPool != null ? bufferPool.acquire() : new ByteArrayBuffer();
+        body = contentEncoding.compress(request, compressionLevel);
+        encoder = writerFactory.getWriter(body, HTTP_CHARSET_UTF8);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureWritable();
+        encoder.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureWritable();
+        encoder.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureWritable();
+        encoder.write(str, off, len);
+    }
+
+    /**
+     * Adds body text which is already encoded as UTF-8, after anything written so far.
+     */
+    public void writeEncoded(byte[] utf8, int off, int len) throws IOException {
+        ensureWritable();
+        encoder.flush();
+        body.write(utf8, off, len);
+    }
+
+    private void ensureWritable() throws IOException {
+        if (closed) throw new IOException("write failed: writer is closed");
+        if (flushed) throw new IOException("write failed: write disallowed after first flush");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed) throw new IOException("flush failed: writer closed");
+        if (flushed) throw new IOException("flush failed: only a single flush supported");
+
+        try {
+            encoder.close();
+
+            if (log.isDebugEnabled()) {
+                log.debug("making http request of {} bytes", request.size());
+            }
+
+            Response response = send();
+
+            if (response.status >= 300 || response.status < 200) {
+                throw new HttpException(response.status, response.body, response.retryAfterMillis);
+            }
+        } finally {
+            flushed = true;
+            releaseRequest();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!flushed) flush();
+        } finally {
+            closed = true;
+            releaseRequest();
+        }
+    }
+
+    private void releaseRequest() {
+        if (request != null) {
+            if (bufferPool != null) bufferPool.release(request);
+            request = null;
+        }
+    }
+
+    private Response send() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            PooledHttpConnection connection = connectionPool.acquire(url);
+            Response response = new Response();
+            try {
+                exchange(connection, response);
+            } catch (IOException e) {
+                connectionPool.release(connection, false);
+                boolean stale = connection.getRequestCount() > 1 && !response.started;
+                if (stale && attempt < MAX_SEND_ATTEMPTS) {
+                    log.debug("pooled connection was closed while idle, retrying on another", e);
+                    continue;
+                }
+                throw e;
+            }
+            connectionPool.release(connection, response.keepAlive);
+            return response;
+        }
+    }
+
+    private void exchange(PooledHttpConnection connection, Response response) throws IOException {
+        connection.startRequest();
+
+        OutputStream out = connection.getOutputStream();
+        out.write(requestHead().getBytes(HTTP_HEADER_CHARSET.name()));
+        request.writeTo(out);
+        out.flush();
+
+        InputStream in = connection.getInputStream();
+        readResponse(in, response);
+        response.body = readBody(in, response);
+    }
+
+    private String requestHead() {
+        String path = url.getPath();
+        if (path == null || path.length() == 0) path = "/";
+        if (url.getQuery() != null) path = path + "?" + url.getQuery();
+
+        String host = url.getHost();
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) host = host + ":" + url.getPort();
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append("\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        if (contentEncoding.getHeaderValue() != null) {
+            head.append("Content-Encoding: ").append(contentEncoding.getHeaderValue()).append("\r\n");
+        }
+        head.append("Accept: */*\r\n");
+        head.append("Content-Length: ").append(request.size()).append("\r\n");
+        head.append("Connection: keep-alive\r\n");
+        head.append("\r\n");
+        return head.toString();
+    }
+
+    private void readResponse(InputStream in, Response response) throws IOException {
+        do {
+            String statusLine = readLine(in);
+            if (statusLine == null) {
+                throw new EOFException("connection closed before response");
+            }
+            response.started = true;
+
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("malformed status line: " + statusLine);
+            }
+            try {
+                response.status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed status line: " + statusLine);
+            }
+            response.keepAlive = "HTTP/1.1".equals(parts[0]);
+            response.contentLength = -1;
+            response.chunked = false;
+            response.retryAfterMillis = -1;
+
+            String header;
+            while ((header = readLine(in)) != null && header.length() > 0) {
+                int colon = header.indexOf(':');
+                if (colon <= 0) continue;
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    try {
+                        response.contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("malformed content-length: " + value);
+                    }
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                    response.chunked = value.toLowerCase().indexOf("chunked") >= 0;
+                } else if ("Retry-After".equalsIgnoreCase(name)) {
+                    response.retryAfterMillis = HttpException.parseRetryAfter(value, System.currentTimeMillis());
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    if ("close".equalsIgnoreCase(value)) response.keepAlive = false;
+                    if ("keep-alive".equalsIgnoreCase(value)) response.keepAlive = true;
+                }
+            }
+            if (header == null) {
+                throw new EOFException("connection closed while reading response headers");
+            }
+        } while (response.status >= 100 && response.status < 200);
+    }
+
+    /**
+     * Consumes the response body, so the connection can be reused, and returns it as text for
+     * error responses.
+     */
+    private String readBody(InputStream in, Response response) throws IOException {
+        boolean keep = response.status >= 300 || response.status < 200;
+        ByteArrayBuffer body = keep ? new ByteArrayBuffer(256) : null;
+
+        if (response.status == 204 || response.status == 304) {
+            return null;
+        } else if (response.chunked) {
+            long chunkSize;
+            while ((chunkSize = readChunkSize(in)) > 0) {
+                copy(in, chunkSize, body);
+                readLine(in);
+            }
+            String trailer;
+            while ((trailer = readLine(in)) != null && trailer.length() > 0) {
+                //trailers ignored
+            }
+        } else if (response.contentLength >= 0) {
+            copy(in, response.contentLength, body);
+        } else {
+            copy(in, Long.MAX_VALUE, body);
+            response.keepAlive = false;
+        }
+
+        return body != null ? body.toString(HTTP_CHARSET) : null;
+    }
+
+    private long readChunkSize(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) throw new EOFException("connection closed while reading chunked response");
+        int extension = line.indexOf(';');
+        if (extension >= 0) line = line.substring(0, extension);
+        try {
+            return Long.parseLong(line.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed chunk size: " + line);
+        }
+    }
+
+    private static void copy(InputStream in, long length, ByteArrayBuffer body) throws IOException {
+        byte[] buf = new byte[4096];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (read < 0) {
+                if (length == Long.MAX_VALUE) return;
+                throw new EOFException("connection closed while reading response body");
+            }
+            if (body != null && body.size() < MAX_ERROR_RESPONSE_BYTES) {
+                body.write(buf, 0, Math.min(read, MAX_ERROR_RESPONSE_BYTES - body.size()));
+            }
+            remaining -= read;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') sb.setLength(length - 1);
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) throw new IOException("response line too long");
+            sb.append((char) b);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static class Response {
+        boolean started;
+        int status;
+        long contentLength;
+        boolean chunked;
+        boolean keepAlive;
+        long retryAfterMillis;
+        String body;
+    }
+}
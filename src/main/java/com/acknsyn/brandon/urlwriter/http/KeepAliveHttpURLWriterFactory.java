@@ -0,0 +1,71 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import com.acknsyn.brandon.urlwriter.io.OutputWriterFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link com.acknsyn.brandon.urlwriter.URLWriterFactory} whose writers reuse connections
+ * from a shared {@link com.acknsyn.brandon.urlwriter.http.HttpConnectionPool}. The pool's
+ * counters show how many connections were reused versus newly opened.
+ */
+public class KeepAliveHttpURLWriterFactory implements EncodedURLWriterFactory {
+    private final HttpConnectionPool connectionPool;
+    private final OutputWriterFactory writerFactory;
+    private final ByteArrayBufferPool bufferPool;
+    private final ContentEncoding contentEncoding;
+    private final int compressionLevel;
+    private final String contentType;
+
+    public KeepAliveHttpURLWriterFactory(OutputWriterFactory writerFactory) {
+        this(new HttpConnectionPool(), writerFactory);
+    }
+
+    public KeepAliveHttpURLWriterFactory(HttpConnectionPool connectionPool, OutputWriterFactory writerFactory) {
+        this(connectionPool, writerFactory, ContentEncoding.IDENTITY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public KeepAliveHttpURLWriterFactory(HttpConnectionPool connectionPool, OutputWriterFactory writerFactory,
+                                         ContentEncoding contentEncoding, int compressionLevel) {
+        this(connectionPool, writerFactory, contentEncoding, compressionLevel,
+                KeepAliveHttpURLWriter.HTTP_CONTENT_TYPE_VALUE);
+    }
+
+    /**
+     * @param contentType <code>Content-Type</code> of request bodies, for bodies other than json
+     *                    {@link #send(URL, byte[], int, int) sent} as they are
+     */
+    public KeepAliveHttpURLWriterFactory(HttpConnectionPool connectionPool, OutputWriterFactory writerFactory,
+                                         ContentEncoding contentEncoding, int compressionLevel, String contentType) {
+        this.connectionPool = connectionPool;
+        this.writerFactory = writerFactory;
+        this.bufferPool = new ByteArrayBufferPool();
+        this.contentEncoding = contentEncoding;
+        this.compressionLevel = compressionLevel;
+        this.contentType = contentType;
+    }
+
+    public Writer getWriter(URL url) throws IOException {
+        return new KeepAliveHttpURLWriter(url, connectionPool, writerFactory, bufferPool, contentEncoding,
+                compressionLevel, contentType);
+    }
+
+    public void send(URL url, byte[] body, int off, int len) throws IOException {
+        KeepAliveHttpURLWriter writer = new KeepAliveHttpURLWriter(url, connectionPool, writerFactory, bufferPool, contentEncoding,
+                compressionLevel, contentType);
+        try {
+            writer.writeEncoded(body, off, len);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+}
@@ -0,0 +1,72 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * An open socket to an http(s) server, borrowed from and returned to an
+ * {@link com.acknsyn.brandon.urlwriter.http.HttpConnectionPool}.
+ */
+public class PooledHttpConnection {
+    private final String route;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private long idleSince;
+    private int requestCount;
+    private boolean closed = false;
+
+    PooledHttpConnection(String route, Socket socket) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    String getRoute() {
+        return route;
+    }
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * The number of requests started on this connection, including the current one.
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    void startRequest() {
+        requestCount++;
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    void markIdle(long now) {
+        idleSince = now;
+    }
+
+    public boolean isClosed() {
+        return closed || socket.isClosed();
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
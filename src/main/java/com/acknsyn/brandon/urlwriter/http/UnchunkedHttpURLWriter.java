@@ -1,5 +1,7 @@
 package com.acknsyn.brandon.urlwriter.http;
 
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
 import com.acknsyn.brandon.urlwriter.io.InputReaderFactory;
 import com.acknsyn.brandon.urlwriter.io.OutputWriterFactory;
 import org.slf4j.Logger;
@@ -9,6 +11,7 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.zip.Deflater;
 
 public class UnchunkedHttpURLWriter extends Writer {
     private static final Logger log = LoggerFactory.getLogger(UnchunkedHttpURLWriter.class);
@@ -18,41 +21,104 @@ public class UnchunkedHttpURLWriter extends Writer {
     private static final String HTTP_ACCEPT_KEY = "Accept";
     private static final String HTTP_ACCEPT_VALUE = "*/*";
     private static final String HTTP_CONTENT_TYPE_KEY = "Content-Type";
-    private static final String HTTP_CONTENT_TYPE_VALUE = "application/json; charset=utf-8";
+    static final String HTTP_CONTENT_TYPE_VALUE = "application/json; charset=utf-8";
+    private static final String HTTP_CONTENT_ENCODING_KEY = "Content-Encoding";
+    private static final String HTTP_RETRY_AFTER_KEY = "Retry-After";
     private static final String HTTP_POST = "POST";
     private static final String HTTP_CHARSET = "UTF-8";
+    private static final Charset HTTP_CHARSET_UTF8 = Charset.forName(HTTP_CHARSET);
 
     private HttpURLConnection connection;
-    private OutputWriterFactory writerFactory;
     private InputReaderFactory readerFactory;
 
-    private ByteArrayOutputStream request;
+    private ByteArrayBufferPool bufferPool;
+    private ByteArrayBuffer request;
+    private OutputStream body;
+    private Writer encoder;
     private boolean flushed = false;
     private boolean closed = false;
 
     public UnchunkedHttpURLWriter(URL url, OutputWriterFactory writerFactory, InputReaderFactory readerFactory) throws IOException {
+        this(url, writerFactory, readerFactory, null);
+    }
+
+    /**
+     * @param bufferPool pool the request body buffer is borrowed from and returned to once
+     *                   the request has been sent; may be null, in which case a new buffer is used
+     */
+    public UnchunkedHttpURLWriter(URL url, OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                  ByteArrayBufferPool bufferPool) throws IOException {
+        this(url, writerFactory, readerFactory, bufferPool, ContentEncoding.IDENTITY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param contentEncoding  compression applied to the body as it is written
+     * @param compressionLevel {@link java.util.zip.Deflater} level used when compressing
+     */
+    public UnchunkedHttpURLWriter(URL url, OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                  ByteArrayBufferPool bufferPool, ContentEncoding contentEncoding,
+                                  int compressionLevel) throws IOException {
+        this(url, writerFactory, readerFactory, bufferPool, contentEncoding, compressionLevel, HTTP_CONTENT_TYPE_VALUE);
+    }
+
+    /**
+     * @param contentType <code>Content-Type</code> of the body, for bodies other than json
+     *                    passed to {@link #writeEncoded(byte[], int, int)} as they are
+     */
+    public UnchunkedHttpURLWriter(URL url, OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                  ByteArrayBufferPool bufferPool, ContentEncoding contentEncoding,
+                                  int compressionLevel, String contentType) throws IOException {
         connection = (HttpURLConnection) url.openConnection();
-        this.writerFactory = writerFactory;
         this.readerFactory = readerFactory;
 
         connection.setConnectTimeout(HTTP_CONNECT_TIMEOUT_MILLIS);
         connection.setReadTimeout(HTTP_READ_TIMEOUT_MILLIS);
         connection.setDoOutput(true);
         connection.setRequestMethod(HTTP_POST);
-        connection.setRequestProperty(HTTP_CONTENT_TYPE_KEY, HTTP_CONTENT_TYPE_VALUE);
+        connection.setRequestProperty(HTTP_CONTENT_TYPE_KEY, contentType);
         connection.setRequestProperty(HTTP_ACCEPT_KEY, HTTP_ACCEPT_VALUE);
         connection.setUseCaches(false);
-        request = new ByteArrayOutputStream();
+        if (contentEncoding.getHeaderValue() != null) {
+            connection.setRequestProperty(HTTP_CONTENT_ENCODING_KEY, contentEncoding.getHeaderValue());
+        }
+
+        //encode (and compress) as we go, so the body is held once, as bytes ready to send
+        this.bufferPool = bufferPool;
+        request = bufferPool != null ? bufferPool.acquire() : new ByteArrayBuffer();
+        body = contentEncoding.compress(request, compressionLevel);
+        encoder = writerFactory.getWriter(body, HTTP_CHARSET_UTF8);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureWritable();
+        encoder.write(c);
     }
 
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureWritable();
+        encoder.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureWritable();
+        encoder.write(str, off, len);
+    }
+
+    /**
+     * Adds body text which is already encoded as UTF-8, after anything written so far.
+     */
+    public void writeEncoded(byte[] utf8, int off, int len) throws IOException {
+        ensureWritable();
+        encoder.flush();
+        body.write(utf8, off, len);
+    }
+
+    private void ensureWritable() throws IOException {
         if (closed) throw new IOException("write failed: writer is closed");
         if (flushed) throw new IOException("write failed: write disallowed after first flush");
-
-        for (int i = off; i < off + len; i++) {
-            request.write(cbuf[i]);
-        }
     }
 
     @Override
@@ -60,32 +126,38 @@ public class UnchunkedHttpURLWriter extends Writer {
         if (closed) throw new IOException("flush failed: writer closed");
         if (flushed) throw new IOException("flush failed: only a single flush supported");
 
-        //now that we know there's no more data, set content-length
-        connection.setFixedLengthStreamingMode(request.size());
-
-        //write out the data
-        Writer writer = null;
+        OutputStream out = null;
         try {
-            writer = writerFactory.getWriter(connection.getOutputStream(), Charset.forName(HTTP_CHARSET));
-            writer.write(request.toString());
-            writer.flush();
+            //drain the encoder; now that we know there's no more data, set content-length
+            encoder.close();
+            connection.setFixedLengthStreamingMode(request.size());
+
+            //write out the data
+            out = connection.getOutputStream();
+            request.writeTo(out);
+            out.flush();
 
-            log.debug("made http request {}", request);
+            if (log.isDebugEnabled()) {
+                log.debug("made http request of {} bytes", request.size());
+            }
 
             int responseCode = connection.getResponseCode();
 
             if (responseCode >= 300 || responseCode < 200) {
-                throw new HttpException(responseCode, getResponse());
+                long retryAfter = HttpException.parseRetryAfter(connection.getHeaderField(HTTP_RETRY_AFTER_KEY),
+                        System.currentTimeMillis());
+                throw new HttpException(responseCode, getResponse(), retryAfter);
             }
 
         } catch (HttpException hwe) {
             throw hwe;
         } finally {
             flushed = true;
+            releaseRequest();
 
-            if (writer != null) {
+            if (out != null) {
                 try {
-                    writer.close();
+                    out.close();
                 } catch (Exception e) {
                     log.error("couldn't close http writer", e);
                 }
@@ -100,6 +172,14 @@ public class UnchunkedHttpURLWriter extends Writer {
             if (!flushed) flush();
         } finally {
             closed = true;
+            releaseRequest();
+        }
+    }
+
+    private void releaseRequest() {
+        if (request != null) {
+            if (bufferPool != null) bufferPool.release(request);
+            request = null;
         }
     }
 
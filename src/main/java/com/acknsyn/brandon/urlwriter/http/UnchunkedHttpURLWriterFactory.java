@@ -1,24 +1,72 @@
 package com.acknsyn.brandon.urlwriter.http;
 
-import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.net.URL;
+import java.util.zip.Deflater;
 
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
 import com.acknsyn.brandon.urlwriter.io.InputReaderFactory;
 import com.acknsyn.brandon.urlwriter.io.OutputWriterFactory;
 
-public class UnchunkedHttpURLWriterFactory implements URLWriterFactory {
+public class UnchunkedHttpURLWriterFactory implements EncodedURLWriterFactory {
     private OutputWriterFactory writerFactory;
     private InputReaderFactory readerFactory;
+    private ByteArrayBufferPool bufferPool;
+    private ContentEncoding contentEncoding;
+    private int compressionLevel;
+    private String contentType;
 
     public UnchunkedHttpURLWriterFactory(OutputWriterFactory writerFactory, InputReaderFactory readerFactory) {
+        this(writerFactory, readerFactory, new ByteArrayBufferPool());
+    }
+
+    public UnchunkedHttpURLWriterFactory(OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                         ByteArrayBufferPool bufferPool) {
+        this(writerFactory, readerFactory, bufferPool, ContentEncoding.IDENTITY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public UnchunkedHttpURLWriterFactory(OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                         ContentEncoding contentEncoding, int compressionLevel) {
+        this(writerFactory, readerFactory, new ByteArrayBufferPool(), contentEncoding, compressionLevel);
+    }
+
+    public UnchunkedHttpURLWriterFactory(OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                         ByteArrayBufferPool bufferPool, ContentEncoding contentEncoding,
+                                         int compressionLevel) {
+        this(writerFactory, readerFactory, bufferPool, contentEncoding, compressionLevel,
+                UnchunkedHttpURLWriter.HTTP_CONTENT_TYPE_VALUE);
+    }
+
+    /**
+     * @param contentType <code>Content-Type</code> of request bodies, for bodies other than json
+     *                    {@link #send(URL, byte[], int, int) sent} as they are
+     */
+    public UnchunkedHttpURLWriterFactory(OutputWriterFactory writerFactory, InputReaderFactory readerFactory,
+                                         ByteArrayBufferPool bufferPool, ContentEncoding contentEncoding,
+                                         int compressionLevel, String contentType) {
         this.writerFactory = writerFactory;
         this.readerFactory = readerFactory;
+        this.bufferPool = bufferPool;
+        this.contentEncoding = contentEncoding;
+        this.compressionLevel = compressionLevel;
+        this.contentType = contentType;
     }
 
     public Writer getWriter(URL url) throws IOException {
-        return new UnchunkedHttpURLWriter(url, writerFactory, readerFactory);
+        return new UnchunkedHttpURLWriter(url, writerFactory, readerFactory, bufferPool, contentEncoding,
+                compressionLevel, contentType);
+    }
+
+    public void send(URL url, byte[] body, int off, int len) throws IOException {
+        UnchunkedHttpURLWriter writer = new UnchunkedHttpURLWriter(url, writerFactory, readerFactory, bufferPool, contentEncoding,
+                compressionLevel, contentType);
+        try {
+            writer.writeEncoded(body, off, len);
+        } finally {
+            writer.close();
+        }
     }
 }
@@ -0,0 +1,98 @@
+package com.acknsyn.brandon.urlwriter.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * An unsynchronized, growable byte buffer. Unlike {@link java.io.ByteArrayOutputStream},
+ * the backing array is never copied on the way out ({@link #writeTo(java.io.OutputStream)})
+ * and can be kept around and {@link #reset()} for the next request.
+ */
+public class ByteArrayBuffer extends OutputStream {
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private byte[] buf;
+    private int count;
+
+    public ByteArrayBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ByteArrayBuffer(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity must not be negative");
+        }
+        buf = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Grows the backing array, if needed, so that at least <code>minCapacity</code> bytes fit.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("buffer size exceeds maximum array length");
+        }
+        if (minCapacity > buf.length) {
+            int newCapacity = Math.max(buf.length << 1, minCapacity);
+            if (newCapacity < 0) {
+                newCapacity = Integer.MAX_VALUE;
+            }
+            byte[] grown = new byte[newCapacity];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * The backing array; only the first {@link #size()} bytes are meaningful.
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int capacity() {
+        return buf.length;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public String toString(String charsetName) throws UnsupportedEncodingException {
+        return new String(buf, 0, count, charsetName);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+}
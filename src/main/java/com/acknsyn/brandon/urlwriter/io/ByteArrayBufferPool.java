@@ -0,0 +1,51 @@
+package com.acknsyn.brandon.urlwriter.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of {@link com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer}s so request
+ * bodies can be assembled in an already-grown array each interval instead of a fresh one.
+ * Buffers which have grown past <code>maxRetainedCapacity</code> are dropped rather than
+ * pooled, so a single oversized request does not pin its array forever.
+ */
+public class ByteArrayBufferPool {
+    private static final int DEFAULT_MAX_POOLED = 4;
+    private static final int DEFAULT_MAX_RETAINED_CAPACITY = 16 * 1024 * 1024;
+
+    private final Queue<ByteArrayBuffer> buffers = new ConcurrentLinkedQueue<ByteArrayBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int maxPooled;
+    private final int maxRetainedCapacity;
+
+    public ByteArrayBufferPool() {
+        this(DEFAULT_MAX_POOLED, DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    public ByteArrayBufferPool(int maxPooled, int maxRetainedCapacity) {
+        this.maxPooled = maxPooled;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    public ByteArrayBuffer acquire() {
+        ByteArrayBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return new ByteArrayBuffer();
+        }
+        pooled.decrementAndGet();
+        buffer.reset();
+        return buffer;
+    }
+
+    public void release(ByteArrayBuffer buffer) {
+        if (buffer == null || buffer.capacity() > maxRetainedCapacity) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,154 @@
+package com.acknsyn.brandon.urlwriter.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A single-threaded UTF-8 encoding {@link java.io.Writer}. Characters are encoded
+ * straight into a small byte scratch buffer which is handed to the underlying stream
+ * whenever it fills up, so no intermediate <code>String</code> or char copy is made.
+ * Unpaired surrogates are encoded as <code>'?'</code>, as the JDK encoder does.
+ */
+public class Utf8Writer extends Writer {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final byte REPLACEMENT = (byte) '?';
+
+    private final OutputStream out;
+    private final byte[] bytes;
+    private int position;
+    private char pendingHighSurrogate;
+    private boolean closed;
+
+    public Utf8Writer(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8Writer(OutputStream out, int bufferSize) {
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("bufferSize must be at least 4 bytes");
+        }
+        this.out = out;
+        this.bytes = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > cbuf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+            if (c < 0x80 && pendingHighSurrogate == 0 && position < bytes.length) {
+                bytes[position++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > str.length()) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && pendingHighSurrogate == 0 && position < bytes.length) {
+                bytes[position++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if (csq instanceof String) {
+            write((String) csq, 0, csq.length());
+            return this;
+        }
+        return super.append(csq);
+    }
+
+    private void encode(char c) throws IOException {
+        if (position > bytes.length - 4) {
+            drain();
+        }
+
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                return;
+            }
+            bytes[position++] = REPLACEMENT;
+            encode(c);
+            return;
+        }
+
+        if (c < 0x80) {
+            bytes[position++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[position++] = (byte) (0xc0 | (c >> 6));
+            bytes[position++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            bytes[position++] = REPLACEMENT;
+        } else {
+            bytes[position++] = (byte) (0xe0 | (c >> 12));
+            bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            bytes[position++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(bytes, 0, position);
+            position = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("writer is closed");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                if (position == bytes.length) drain();
+                bytes[position++] = REPLACEMENT;
+            }
+            drain();
+            out.close();
+        } finally {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.acknsyn.brandon.urlwriter.io;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * An {@link com.acknsyn.brandon.urlwriter.io.OutputWriterFactory} which returns a
+ * {@link com.acknsyn.brandon.urlwriter.io.Utf8Writer} for UTF-8 output, falling back to
+ * a buffered JDK writer for any other charset.
+ */
+public class Utf8WriterFactory implements OutputWriterFactory {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public Writer getWriter(OutputStream outputStream, Charset charset) {
+        if (UTF_8.equals(charset)) {
+            return new Utf8Writer(outputStream);
+        }
+        return new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+    }
+}
@@ -0,0 +1,88 @@
+package com.acknsyn.brandon.urlwriter.retry;
+
+/**
+ * Stops requests from being made to an endpoint that keeps failing. After
+ * <code>failureThreshold</code> consecutive failures the breaker opens, and requests are
+ * refused until <code>openMillis</code> have passed. It then lets a single trial request
+ * through: if that succeeds the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long timesOpened;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Whether a request may be made now. Once open time has passed, only the first caller is
+     * allowed through until that trial request reports back.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * @param minOpenMillis how long the endpoint asked to be left alone, e.g. by
+     *                      <code>Retry-After</code>, or 0; opening lasts at least this long
+     */
+    public synchronized void onFailure(long minOpenMillis) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold || minOpenMillis > 0) {
+            if (state != State.OPEN) timesOpened++;
+            state = State.OPEN;
+            openUntil = currentTimeMillis() + Math.max(openMillis, minOpenMillis);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Time left before an open breaker lets a trial request through, or 0.
+     */
+    public synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - currentTimeMillis()) : 0;
+    }
+
+    /**
+     * The number of times the breaker has opened.
+     */
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,24 @@
+package com.acknsyn.brandon.urlwriter.retry;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request while the endpoint's {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long remainingMillis;
+
+    public CircuitOpenException(String message, long remainingMillis) {
+        super(message);
+        this.remainingMillis = remainingMillis;
+    }
+
+    /**
+     * How much longer the breaker stays open before a trial request is let through.
+     */
+    public long getRemainingMillis() {
+        return remainingMillis;
+    }
+}
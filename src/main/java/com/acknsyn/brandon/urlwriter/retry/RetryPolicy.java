@@ -0,0 +1,69 @@
+package com.acknsyn.brandon.urlwriter.retry;
+
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * How often, and how far apart, a failed request is retried. Backoff doubles from
+ * <code>initialBackoffMillis</code> up to <code>maxBackoffMillis</code>, and each delay is
+ * jittered down by up to half so that hosts which failed together don't retry together.
+ * No retry is started that would end more than <code>maxElapsedMillis</code> after the first attempt.
+ */
+public class RetryPolicy {
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 250, 2000, 5000);
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long maxElapsedMillis;
+
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, long maxElapsedMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis || maxElapsedMillis < 0) {
+            throw new IllegalArgumentException("backoff must satisfy 0 <= initial <= max, and elapsed must not be negative");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxElapsedMillis = maxElapsedMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getMaxElapsedMillis() {
+        return maxElapsedMillis;
+    }
+
+    /**
+     * The delay before retry number <code>retry</code>, counting from 1.
+     */
+    public long backoffMillis(int retry, Random random) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < retry && backoff < maxBackoffMillis; i++) {
+            backoff <<= 1;
+        }
+        backoff = Math.min(backoff, maxBackoffMillis);
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half + 1));
+    }
+
+    /**
+     * Whether a request that failed this way might succeed if sent later: I/O errors
+     * (including an open circuit), 5xx, 408 and 429 responses. Any other status means the
+     * request itself was rejected.
+     */
+    public static boolean isRetryable(IOException e) {
+        if (e instanceof HttpException) {
+            int status = ((HttpException) e).getStatus();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,142 @@
+package com.acknsyn.brandon.urlwriter.retry;
+
+import com.acknsyn.brandon.urlwriter.BufferedRequestWriter;
+import com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * A {@link com.acknsyn.brandon.urlwriter.URLWriterFactory} whose writers buffer what is
+ * written, as UTF-8, and on close send it through a delegate factory, retrying failures the
+ * {@link RetryPolicy} considers transient. A <code>Retry-After</code> from the endpoint is
+ * used in place of the backoff when it is longer, as long as it fits the policy's elapsed time limit.
+ *
+ * Requests that still fail count against a {@link CircuitBreaker}. While it is open, closing
+ * a writer throws a {@link CircuitOpenException} at once and nothing is sent.
+ *
+ * The time spent in <code>close()</code> is at most the policy's elapsed time limit plus one
+ * attempt, which the delegate's connect and read timeouts bound.
+ */
+public class RetryingURLWriterFactory implements EncodedURLWriterFactory {
+    private static final Logger log = LoggerFactory.getLogger(RetryingURLWriterFactory.class);
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_OPEN_MILLIS = 60000;
+
+    private final URLWriterFactory delegate;
+    private final RetryPolicy policy;
+    private final CircuitBreaker breaker;
+    private final Random random;
+    private final ByteArrayBufferPool bufferPool = new ByteArrayBufferPool();
+
+    public RetryingURLWriterFactory(URLWriterFactory delegate) {
+        this(delegate, RetryPolicy.DEFAULT, new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS));
+    }
+
+    public RetryingURLWriterFactory(URLWriterFactory delegate, RetryPolicy policy, CircuitBreaker breaker) {
+        this(delegate, policy, breaker, new Random());
+    }
+
+    RetryingURLWriterFactory(URLWriterFactory delegate, RetryPolicy policy, CircuitBreaker breaker, Random random) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.breaker = breaker;
+        this.random = random;
+    }
+
+    public Writer getWriter(URL url) throws IOException {
+        return new RetryingWriter(url);
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public void send(URL url, byte[] body, int off, int len) throws IOException {
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException("circuit open for " + url.getPath() + ", request not sent",
+                    breaker.getRemainingOpenMillis());
+        }
+
+        //whatever way this leaves, the breaker has to hear about it, or a trial request
+        //that never reports back keeps it half open for good
+        boolean reported = false;
+        try {
+            final long start = currentTimeMillis();
+            for (int attempt = 1; ; attempt++) {
+                IOException failure;
+                try {
+                    BufferedRequestWriter.send(delegate, url, body, off, len);
+                    reported = true;
+                    breaker.onSuccess();
+                    return;
+                } catch (IOException e) {
+                    failure = e;
+                }
+
+                if (!RetryPolicy.isRetryable(failure)) {
+                    //the endpoint answered, so it is up; the request was just bad
+                    reported = true;
+                    breaker.onSuccess();
+                    throw failure;
+                }
+
+                long retryAfter = failure instanceof HttpException ? ((HttpException) failure).getRetryAfterMillis() : -1;
+                long delay = Math.max(policy.backoffMillis(attempt, random), retryAfter);
+                long elapsed = currentTimeMillis() - start;
+                if (attempt >= policy.getMaxAttempts() || elapsed + delay > policy.getMaxElapsedMillis()) {
+                    reported = true;
+                    breaker.onFailure(Math.max(retryAfter, 0));
+                    throw failure;
+                }
+
+                log.debug("request to {} failed, retrying in {}ms: {}", new Object[]{url.getPath(), delay, failure.toString()});
+                try {
+                    sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting to retry request to " + url.getPath());
+                }
+            }
+        } finally {
+            if (!reported) {
+                breaker.onFailure(0);
+            }
+        }
+    }
+
+    private final class RetryingWriter extends BufferedRequestWriter {
+        private final URL url;
+
+        RetryingWriter(URL url) {
+            super(bufferPool);
+            this.url = url;
+        }
+
+        @Override
+        protected void send(ByteArrayBuffer request) throws IOException {
+            try {
+                RetryingURLWriterFactory.this.send(url, request.array(), 0, request.size());
+            } finally {
+                bufferPool.release(request);
+            }
+        }
+    }
+}
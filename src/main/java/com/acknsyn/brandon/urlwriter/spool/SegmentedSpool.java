@@ -0,0 +1,306 @@
+package com.acknsyn.brandon.urlwriter.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+/**
+ * A bounded, append-only spool of opaque records kept in a directory of segment files.
+ * Records are read back oldest first. When the spool grows past its byte budget, whole
+ * segments are deleted, oldest first.
+ *
+ * Appends are not synced to disk one by one. Instead, the current segment is synced once
+ * every <code>syncEveryAppends</code> appends, or on the first append after
+ * <code>syncIntervalMillis</code>, whichever comes first. A crash can therefore lose the last
+ * few records, but spooling never costs an fsync per request. Each record has a CRC32, and a
+ * torn record at the end of a segment is dropped when the segment is read.
+ *
+ * How far the oldest segment has been replayed is only kept in memory. After a restart, that
+ * segment is replayed from its start again.
+ */
+public class SegmentedSpool {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedSpool.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final int syncEveryAppends;
+    private final long syncIntervalMillis;
+
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private long totalBytes;
+    private long headOffset;
+    private long nextSequence;
+    private RandomAccessFile current;
+    private int appendsSinceSync;
+    private long lastSync = System.currentTimeMillis();
+
+    private long appendedRecords;
+    private long evictedBytes;
+    private long droppedRecords;
+    private long syncs;
+
+    public SegmentedSpool(File directory, long maxBytes, long segmentBytes, int syncEveryAppends,
+                          long syncIntervalMillis) throws IOException {
+        if (maxBytes < 1 || segmentBytes < 1) {
+            throw new IllegalArgumentException("maxBytes and segmentBytes must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.min(segmentBytes, maxBytes);
+        this.syncEveryAppends = syncEveryAppends;
+        this.syncIntervalMillis = syncIntervalMillis;
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        for (File file : files) {
+            Segment segment = new Segment(file, sequence(file));
+            segments.add(segment);
+            totalBytes += file.length();
+            nextSequence = segment.sequence + 1;
+        }
+    }
+
+    /**
+     * Appends a record, evicting the oldest segments if that takes the spool over budget.
+     * A record larger than the whole budget is dropped.
+     */
+    public synchronized void append(byte[] data, int off, int len) throws IOException {
+        long recordBytes = RECORD_HEADER_BYTES + (long) len;
+        if (recordBytes > maxBytes) {
+            droppedRecords++;
+            log.warn("dropping {} byte record larger than spool budget of {} bytes", len, maxBytes);
+            return;
+        }
+
+        if (current == null || current.length() + recordBytes > segmentBytes) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        header.putInt(len).putInt((int) crc.getValue()).flip();
+
+        FileChannel channel = current.getChannel();
+        channel.position(channel.size());
+        ByteBuffer[] record = new ByteBuffer[]{header, ByteBuffer.wrap(data, off, len)};
+        while (record[1].hasRemaining()) {
+            channel.write(record);
+        }
+        totalBytes += recordBytes;
+        appendedRecords++;
+
+        appendsSinceSync++;
+        long now = System.currentTimeMillis();
+        if (appendsSinceSync >= syncEveryAppends || now - lastSync >= syncIntervalMillis) {
+            sync();
+        }
+
+        evictOverBudget();
+    }
+
+    /**
+     * Forces appended records to disk.
+     */
+    public synchronized void sync() throws IOException {
+        if (current != null && appendsSinceSync > 0) {
+            current.getChannel().force(false);
+            syncs++;
+        }
+        appendsSinceSync = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads the oldest record not yet consumed, or returns null if the spool is empty.
+     * Call {@link #consume(Record)} with it once it has been dealt with.
+     */
+    public synchronized Record peek() throws IOException {
+        while (!segments.isEmpty()) {
+            Segment head = segments.getFirst();
+            RandomAccessFile file = new RandomAccessFile(head.file, "r");
+            try {
+                if (headOffset + RECORD_HEADER_BYTES <= file.length()) {
+                    file.seek(headOffset);
+                    int length = file.readInt();
+                    int checksum = file.readInt();
+                    if (length >= 0 && headOffset + RECORD_HEADER_BYTES + length <= file.length()) {
+                        byte[] data = new byte[length];
+                        file.readFully(data);
+                        CRC32 crc = new CRC32();
+                        crc.update(data, 0, length);
+                        if ((int) crc.getValue() == checksum) {
+                            return new Record(head.sequence, headOffset, data);
+                        }
+                    }
+                    log.warn("discarding corrupt remainder of spool segment {}", head.file);
+                } else if (headOffset < file.length()) {
+                    log.warn("discarding torn record at end of spool segment {}", head.file);
+                } else if (current != null && segments.size() == 1) {
+                    return null;
+                }
+            } catch (EOFException e) {
+                log.warn("discarding truncated spool segment {}", head.file);
+            } finally {
+                file.close();
+            }
+
+            deleteHead();
+        }
+        return null;
+    }
+
+    /**
+     * Marks a record returned by {@link #peek()} as consumed, unless it's no longer the oldest
+     * record, e.g. because its segment was evicted while it was being dealt with.
+     *
+     * @return whether the record was consumed
+     */
+    public synchronized boolean consume(Record record) throws IOException {
+        if (segments.isEmpty()) {
+            return false;
+        }
+        Segment head = segments.getFirst();
+        if (head.sequence != record.sequence || headOffset != record.offset) {
+            return false;
+        }
+
+        headOffset += RECORD_HEADER_BYTES + record.data.length;
+        if (headOffset >= head.file.length()) {
+            deleteHead();
+        }
+        return true;
+    }
+
+    /**
+     * Whether every record appended has been consumed. Unlike {@link #peek()}, this never
+     * touches the segment files, so a spool holding nothing but a torn or corrupt record is
+     * not empty until <code>peek</code> has discarded it.
+     */
+    public synchronized boolean isEmpty() {
+        return totalBytes - headOffset <= 0;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getAppendedRecords() {
+        return appendedRecords;
+    }
+
+    public synchronized long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    public synchronized void close() throws IOException {
+        if (current != null) {
+            sync();
+            current.close();
+            current = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (current != null) {
+            sync();
+            current.close();
+            current = null;
+        }
+        //never reused, so a record peeked from a deleted segment can't be mistaken for a new one
+        long sequence = nextSequence++;
+        File file = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        current = new RandomAccessFile(file, "rw");
+        segments.add(new Segment(file, sequence));
+    }
+
+    private void evictOverBudget() throws IOException {
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            long length = segments.getFirst().file.length();
+            evictedBytes += length;
+            log.warn("spool over budget, evicting oldest segment of {} bytes", length);
+            deleteHead();
+        }
+    }
+
+    private void deleteHead() throws IOException {
+        Segment head = segments.removeFirst();
+        if (current != null && segments.isEmpty()) {
+            //the head was also the segment being appended to
+            current.close();
+            current = null;
+        }
+        totalBytes -= head.file.length();
+        if (!head.file.delete()) {
+            log.warn("unable to delete spool segment {}", head.file);
+        }
+        headOffset = 0;
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A record read by {@link #peek()}, and where it was read from.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final long offset;
+        private final byte[] data;
+
+        Record(long sequence, long offset, byte[] data) {
+            this.sequence = sequence;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final long sequence;
+
+        Segment(File file, long sequence) {
+            this.file = file;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.acknsyn.brandon.urlwriter.spool;
+
+import com.acknsyn.brandon.urlwriter.BufferedRequestWriter;
+import com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBufferPool;
+import com.acknsyn.brandon.urlwriter.retry.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link com.acknsyn.brandon.urlwriter.URLWriterFactory} that keeps requests which fail
+ * through its delegate in an on-disk {@link SegmentedSpool}, one per endpoint, and replays
+ * them in order after the next request to that endpoint succeeds.
+ *
+ * A request is spooled when it fails in a way {@link RetryPolicy#isRetryable} considers
+ * transient; a request the endpoint rejected outright would only be rejected again.
+ * Replayed requests are sent to the URL of the request that just succeeded. The spool stores
+ * no query string, so credentials passed as query parameters are never written to disk.
+ *
+ * Replays run on a background thread, so neither the request that succeeded nor anything
+ * else using the factory waits for a backlog to drain. At most <code>maxReplayPerRequest</code>
+ * spooled requests are replayed after each successful one, and each endpoint's are replayed
+ * one at a time, in order.
+ */
+public class SpoolingURLWriterFactory implements EncodedURLWriterFactory {
+    private static final Logger log = LoggerFactory.getLogger(SpoolingURLWriterFactory.class);
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int DEFAULT_SYNC_EVERY_APPENDS = 16;
+    private static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+    private static final int DEFAULT_MAX_REPLAY_PER_REQUEST = 16;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final URLWriterFactory delegate;
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final int syncEveryAppends;
+    private final long syncIntervalMillis;
+    private final int maxReplayPerRequest;
+    private final Map<String, SegmentedSpool> spools = new HashMap<String, SegmentedSpool>();
+    private final ByteArrayBufferPool bufferPool = new ByteArrayBufferPool();
+    private final Executor replayer;
+    private final ExecutorService ownedReplayer;
+    private final Set<String> replaying = new HashSet<String>();
+
+    private boolean closed;
+    private long spooledRequests;
+    private long replayedRequests;
+
+    public SpoolingURLWriterFactory(URLWriterFactory delegate, File directory) {
+        this(delegate, directory, DEFAULT_MAX_BYTES);
+    }
+
+    public SpoolingURLWriterFactory(URLWriterFactory delegate, File directory, long maxBytes) {
+        this(delegate, directory, maxBytes, Math.min(DEFAULT_SEGMENT_BYTES, maxBytes), DEFAULT_SYNC_EVERY_APPENDS,
+                DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_MAX_REPLAY_PER_REQUEST);
+    }
+
+    /**
+     * @param maxBytes           disk budget for each endpoint's spool
+     * @param segmentBytes       size at which a new segment file is started; eviction deletes whole segments
+     * @param syncEveryAppends   appends between syncs of the spool to disk
+     * @param syncIntervalMillis longest time appended requests go unsynced, checked on append
+     */
+    public SpoolingURLWriterFactory(URLWriterFactory delegate, File directory, long maxBytes, long segmentBytes,
+                                    int syncEveryAppends, long syncIntervalMillis, int maxReplayPerRequest) {
+        this(delegate, directory, maxBytes, segmentBytes, syncEveryAppends, syncIntervalMillis, maxReplayPerRequest,
+                Executors.newSingleThreadExecutor(new ReplayThreadFactory()), true);
+    }
+
+    /**
+     * Replays on the given executor, which is not shut down by {@link #close()}.
+     */
+    public SpoolingURLWriterFactory(URLWriterFactory delegate, File directory, long maxBytes, long segmentBytes,
+                                    int syncEveryAppends, long syncIntervalMillis, int maxReplayPerRequest,
+                                    Executor replayer) {
+        this(delegate, directory, maxBytes, segmentBytes, syncEveryAppends, syncIntervalMillis, maxReplayPerRequest,
+                replayer, false);
+    }
+
+    private SpoolingURLWriterFactory(URLWriterFactory delegate, File directory, long maxBytes, long segmentBytes,
+                                     int syncEveryAppends, long syncIntervalMillis, int maxReplayPerRequest,
+                                     Executor replayer, boolean ownsReplayer) {
+        if (maxReplayPerRequest < 0) {
+            throw new IllegalArgumentException("maxReplayPerRequest must not be negative");
+        }
+        this.delegate = delegate;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.syncEveryAppends = syncEveryAppends;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.maxReplayPerRequest = maxReplayPerRequest;
+        this.replayer = replayer;
+        this.ownedReplayer = ownsReplayer ? (ExecutorService) replayer : null;
+    }
+
+    public Writer getWriter(URL url) throws IOException {
+        return new SpoolingWriter(url);
+    }
+
+    public void send(URL url, byte[] body, int off, int len) throws IOException {
+        try {
+            BufferedRequestWriter.send(delegate, url, body, off, len);
+        } catch (IOException e) {
+            if (RetryPolicy.isRetryable(e)) {
+                spool(url, body, off, len);
+            }
+            throw e;
+        }
+        replay(url);
+    }
+
+    /**
+     * The number of requests spooled since this factory was created.
+     */
+    public synchronized long getSpooledRequests() {
+        return spooledRequests;
+    }
+
+    /**
+     * The number of spooled requests successfully replayed since this factory was created.
+     */
+    public synchronized long getReplayedRequests() {
+        return replayedRequests;
+    }
+
+    /**
+     * The bytes currently spooled for all endpoints.
+     */
+    public synchronized long getSpooledBytes() {
+        long bytes = 0;
+        for (SegmentedSpool spool : spools.values()) {
+            bytes += spool.getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Stops replaying, then syncs and closes the spools; anything left in them is replayed by
+     * the next factory to use the same directory.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        if (ownedReplayer != null) {
+            //let a replay that is being sent finish, so it isn't sent again next time
+            ownedReplayer.shutdown();
+            try {
+                ownedReplayer.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (SegmentedSpool spool : spools.values()) {
+                spool.close();
+            }
+            spools.clear();
+        }
+    }
+
+    private synchronized SegmentedSpool spoolFor(URL url) throws IOException {
+        String endpoint = endpoint(url);
+        SegmentedSpool spool = spools.get(endpoint);
+        if (spool == null) {
+            spool = new SegmentedSpool(new File(directory, endpoint), maxBytes, segmentBytes, syncEveryAppends,
+                    syncIntervalMillis);
+            spools.put(endpoint, spool);
+        }
+        return spool;
+    }
+
+    private static String endpoint(URL url) {
+        StringBuilder name = new StringBuilder();
+        String endpoint = url.getProtocol() + "_" + url.getAuthority() + url.getPath();
+        for (int i = 0; i < endpoint.length(); i++) {
+            char c = endpoint.charAt(i);
+            name.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+        }
+        return name.toString();
+    }
+
+    private synchronized void spool(URL url, byte[] body, int off, int len) {
+        try {
+            spoolFor(url).append(body, off, len);
+            spooledRequests++;
+        } catch (IOException e) {
+            log.error("unable to spool request to " + url.getPath(), e);
+        }
+    }
+
+    private void replay(final URL url) {
+        if (maxReplayPerRequest == 0) return;
+
+        final String endpoint = endpoint(url);
+        synchronized (this) {
+            try {
+                //one replay per endpoint at a time, so records go out in the order they were spooled
+                if (closed || spoolFor(url).isEmpty() || !replaying.add(endpoint)) {
+                    return;
+                }
+            } catch (IOException e) {
+                log.error("unable to open spool for " + url.getPath(), e);
+                return;
+            }
+        }
+
+        try {
+            replayer.execute(new Runnable() {
+                public void run() {
+                    try {
+                        replayFrom(url);
+                    } finally {
+                        synchronized (SpoolingURLWriterFactory.this) {
+                            replaying.remove(endpoint);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                replaying.remove(endpoint);
+            }
+        }
+    }
+
+    private void replayFrom(URL url) {
+        try {
+            for (int i = 0; i < maxReplayPerRequest; i++) {
+                //the monitor is only held to read the spool, never while a replay is sent
+                SegmentedSpool spool;
+                SegmentedSpool.Record record;
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    spool = spoolFor(url);
+                    record = spool.peek();
+                }
+                if (record == null) {
+                    return;
+                }
+
+                try {
+                    byte[] data = record.getData();
+                    BufferedRequestWriter.send(delegate, url, data, 0, data.length);
+                } catch (IOException e) {
+                    if (RetryPolicy.isRetryable(e)) {
+                        log.warn("replay to {} failed, will retry later: {}", url.getPath(), e.toString());
+                        return;
+                    }
+                    log.error("replay to {} rejected, discarding spooled request: {}", url.getPath(), e.toString());
+                }
+
+                synchronized (this) {
+                    //if its segment was evicted meanwhile, there's nothing left to consume
+                    spool.consume(record);
+                    replayedRequests++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("unable to read spool for " + url.getPath(), e);
+        }
+    }
+
+    private final class SpoolingWriter extends BufferedRequestWriter {
+        private final URL url;
+
+        SpoolingWriter(URL url) {
+            super(bufferPool);
+            this.url = url;
+        }
+
+        @Override
+        protected void send(ByteArrayBuffer request) throws IOException {
+            try {
+                SpoolingURLWriterFactory.this.send(url, request.array(), 0, request.size());
+            } finally {
+                bufferPool.release(request);
+            }
+        }
+    }
+
+    private static class ReplayThreadFactory implements ThreadFactory {
+        private static final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "spool-replay-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveIntervalTest {
+    private AdaptiveInterval interval;
+
+    @Before
+    public void setup() {
+        interval = new AdaptiveInterval(1000, 60000);
+        interval.reset(10000);
+    }
+
+    @Test
+    public void testNext_keepsPeriodWhileCheap() {
+        assertEquals(10000, interval.current());
+        assertEquals(10000, interval.next(100, false));
+        assertEquals(10000, interval.next(5000, false));
+    }
+
+    @Test
+    public void testNext_slowReportStretchesInterval() {
+        assertEquals("report should take no more than half the interval", 16000, interval.next(8000, false));
+        assertEquals("should go back to the period once reports are cheap", 10000, interval.next(100, false));
+        assertEquals("should stop at max", 60000, interval.next(45000, false));
+    }
+
+    @Test
+    public void testNext_idleBacksOff() {
+        assertEquals(20000, interval.next(100, true));
+        assertEquals(40000, interval.next(100, true));
+        assertEquals(60000, interval.next(100, true));
+        assertEquals(60000, interval.next(100, true));
+        assertEquals("should go back to the period once busy", 10000, interval.next(100, false));
+    }
+
+    @Test
+    public void testReset_clampsPeriod() {
+        interval.reset(10);
+        assertEquals(1000, interval.current());
+        interval.reset(Long.MAX_VALUE);
+        assertEquals(60000, interval.current());
+        assertEquals(60000, interval.next(Long.MAX_VALUE, true));
+    }
+}
@@ -0,0 +1,234 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.http.ContentEncoding;
+import com.acknsyn.brandon.urlwriter.http.HttpConnectionPool;
+import com.acknsyn.brandon.urlwriter.http.KeepAliveHttpURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.ByteArrayBuffer;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class BinarySeriesEncoderTest {
+    private static final String[] TAGS = new String[]{"env:test", "service:caf\u00e9"};
+
+    private static SeriesBatch points() {
+        Series[] fields = Series.group(new String[]{"timer.count", "timer.p99", "timer.mean"},
+                SeriesStream.MetricType.GAUGE, "host", TAGS);
+        SeriesBatch batch = new SeriesBatch(1400000000L, 2);
+        batch.add(fields[0], 42L);
+        batch.add(fields[1], 0.1d + 0.2d);
+        batch.add(fields[2], -1234.5678d);
+        batch.add(new Series("counter", SeriesStream.MetricType.COUNTER, "host", TAGS), -3L);
+        batch.add(new Series("min", SeriesStream.MetricType.GAUGE, null, null), Long.MIN_VALUE);
+        batch.add(new Series("max", SeriesStream.MetricType.GAUGE, "other-host", new String[]{"env:test"}),
+                Long.MAX_VALUE);
+        return batch;
+    }
+
+    private static SeriesBatch distributions() {
+        SeriesBatch batch = new SeriesBatch(1400000000L);
+        DistributionSketch sketch = new DistributionSketch(0.01, 2048);
+        for (int i = 1; i <= 1000; i++) {
+            sketch.accept(i);
+        }
+        batch.addDistribution(new Series("latency", null, "host", TAGS), sketch);
+        DistributionSketch single = new DistributionSketch(0.01, 2048);
+        single.accept(-7.5);
+        batch.addDistribution(new Series("offset", null, null, null), single);
+        return batch;
+    }
+
+    private static SeriesBatch roundTrip(SeriesBatch batch, boolean distributions) throws IOException {
+        ByteArrayBuffer out = new ByteArrayBuffer();
+        BinarySeriesEncoder encoder = new BinarySeriesEncoder();
+        if (distributions) {
+            encoder.encodeDistributions(batch, out);
+        } else {
+            encoder.encodePoints(batch, out);
+        }
+        return BinarySeriesEncoder.decode(out.array(), 0, out.size());
+    }
+
+    private static String json(SeriesBatch batch, boolean distributions) throws IOException {
+        ByteArrayBuffer out = new ByteArrayBuffer();
+        JsonSeriesEncoder encoder = new JsonSeriesEncoder(SeriesStream.MAX_PRECISION, 100);
+        if (distributions) {
+            encoder.encodeDistributions(batch, out);
+        } else {
+            encoder.encodePoints(batch, out);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testEncode_pointsRoundTrip() throws IOException {
+        SeriesBatch batch = points();
+        SeriesBatch decoded = roundTrip(batch, false);
+
+        assertEquals(batch.getTimestamp(), decoded.getTimestamp());
+        assertEquals(batch.size(), decoded.size());
+        assertEquals(0, decoded.getDistributionCount());
+        for (int i = 0; i < batch.size(); i++) {
+            Series expected = batch.getSeries(i);
+            Series actual = decoded.getSeries(i);
+            assertEquals(expected.getMetricName(), actual.getMetricName());
+            assertEquals(expected.getMetricType(), actual.getMetricType());
+            assertEquals(expected.getHost(), actual.getHost());
+            assertTrue(Arrays.equals(expected.getTags(), actual.getTags()));
+            assertEquals(batch.isDouble(i), decoded.isDouble(i));
+            if (batch.isDouble(i)) {
+                assertEquals("doubles should be exact", Double.doubleToRawLongBits(batch.getDouble(i)),
+                        Double.doubleToRawLongBits(decoded.getDouble(i)));
+            } else {
+                assertEquals(batch.getLong(i), decoded.getLong(i));
+            }
+        }
+        assertEquals("decoded batch should encode to the same json", json(batch, false), json(decoded, false));
+    }
+
+    @Test
+    public void testEncode_distributionsRoundTrip() throws IOException {
+        SeriesBatch batch = distributions();
+        SeriesBatch decoded = roundTrip(batch, true);
+
+        assertEquals(0, decoded.size());
+        assertEquals(2, decoded.getDistributionCount());
+        for (int i = 0; i < batch.getDistributionCount(); i++) {
+            SeriesBatch.Distribution expected = batch.getDistribution(i);
+            SeriesBatch.Distribution actual = decoded.getDistribution(i);
+            assertEquals(expected.getSeries().getMetricName(), actual.getSeries().getMetricName());
+            assertNull(actual.getSeries().getMetricType());
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getBucketCount(), actual.getBucketCount());
+            for (int bucket = 0; bucket < expected.getBucketCount(); bucket++) {
+                assertEquals(expected.getValue(bucket), actual.getValue(bucket), 0d);
+                assertEquals(expected.getCount(bucket), actual.getCount(bucket));
+            }
+        }
+        assertEquals("decoded batch should encode to the same json", json(batch, true), json(decoded, true));
+    }
+
+    @Test
+    public void testEncode_smallerThanJson() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            registry.register("gauge." + i, new Gauge<Double>() {
+                public Double getValue() {
+                    return value / 3d;
+                }
+            });
+            registry.counter("counter." + i).inc(i);
+        }
+        DatadogReporterTest.RecordingSink sink = new DatadogReporterTest.RecordingSink();
+        DatadogReporter reporter = DatadogReporter.forRegistry(registry)
+                .writeUsing(new DatadogReporterTest.RecordingURLWriterFactory())
+                .addSink(sink)
+                .build("host", "key");
+        reporter.report();
+        reporter.stop();
+
+        SeriesBatch batch = sink.batches.get(0);
+        ByteArrayBuffer binary = new ByteArrayBuffer();
+        new BinarySeriesEncoder().encodePoints(batch, binary);
+        assertTrue("binary should be well under half the size of json, was " + binary.size(),
+                binary.size() * 2 < json(batch, false).length());
+        assertEquals(batch.size(), BinarySeriesEncoder.decode(binary.array(), 0, binary.size()).size());
+    }
+
+    @Test
+    public void testDecode_rejectsMalformed() throws IOException {
+        ByteArrayBuffer out = new ByteArrayBuffer();
+        new BinarySeriesEncoder().encodePoints(points(), out);
+        byte[] payload = new byte[out.size()];
+        System.arraycopy(out.array(), 0, payload, 0, payload.length);
+
+        for (int length = 0; length < payload.length; length++) {
+            try {
+                BinarySeriesEncoder.decode(payload, 0, length);
+                fail("truncated payload of " + length + " bytes should be rejected");
+            } catch (IOException expected) {
+            }
+        }
+        byte[] versioned = payload.clone();
+        versioned[2] = 2;
+        try {
+            BinarySeriesEncoder.decode(versioned, 0, versioned.length);
+            fail("unknown version should be rejected");
+        } catch (IOException expected) {
+        }
+        //varints of 2^63 or more, as a count of series, of tags and as a string, then no name
+        byte[][] malformed = new byte[][]{
+                payload(0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01),
+                payload(1, BinarySeriesEncoder.GAUGE, 1, 1, 'm', 0,
+                        0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01),
+                payload(1, BinarySeriesEncoder.GAUGE, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x01,
+                        0, 0, 0),
+                payload(1, BinarySeriesEncoder.GAUGE, 0, 0, 0, 0)};
+        for (byte[] bytes : malformed) {
+            try {
+                BinarySeriesEncoder.decode(bytes, 0, bytes.length);
+                fail("malformed payload " + Arrays.toString(bytes) + " should be rejected");
+            } catch (IOException expected) {
+            }
+        }
+        byte[] json = "{\"series\":[]}".getBytes("UTF-8");
+        try {
+            BinarySeriesEncoder.decode(json, 0, json.length);
+            fail("json should be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    //a points payload at timestamp 0 followed by the given bytes
+    private static byte[] payload(int... bytes) {
+        byte[] payload = new byte[5 + bytes.length];
+        payload[0] = 'S';
+        payload[1] = 'B';
+        payload[2] = BinarySeriesEncoder.VERSION;
+        payload[3] = BinarySeriesEncoder.POINTS;
+        payload[4] = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            payload[5 + i] = (byte) bytes[i];
+        }
+        return payload;
+    }
+
+    @Test
+    public void testHttpSink_postsEitherEncoding() throws IOException {
+        FakeDatadogServer server = new FakeDatadogServer();
+        try {
+            String base = server.getApiBaseUrl();
+            URL seriesUrl = new URL(String.format(DatadogReporter.SERIES_URL_TEMPLATE, base, "key"));
+            URL distributionUrl = new URL(String.format(DatadogReporter.DISTRIBUTION_URL_TEMPLATE, base, "key"));
+            SeriesBatch batch = points();
+            batch.append(distributions());
+
+            HttpConnectionPool pool = new HttpConnectionPool();
+            try {
+                new HttpSeriesSink(seriesUrl, distributionUrl, new BinarySeriesEncoder(),
+                        new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory(), ContentEncoding.GZIP,
+                                Deflater.DEFAULT_COMPRESSION, BinarySeriesEncoder.CONTENT_TYPE)).write(batch);
+                new HttpSeriesSink(seriesUrl, distributionUrl, new JsonSeriesEncoder(2, 100),
+                        new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory())).write(batch);
+            } finally {
+                pool.close();
+            }
+
+            assertEquals(4, server.accepted.get());
+            assertEquals(0, server.invalid.get());
+            assertEquals(2 * batch.size(), server.series.get());
+            assertEquals(2 * batch.getDistributionCount(), server.distributions.get());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CountDeltaTrackerTest {
+    private CountDeltaTracker tracker;
+
+    @Before
+    public void setup() {
+        tracker = new CountDeltaTracker();
+    }
+
+    @Test
+    public void testDelta_increaseSinceLastCount() {
+        long series = SeriesChangeTracker.hash("metric", "host", null);
+
+        tracker.beginInterval();
+        assertEquals("new series should report its whole count", 10, tracker.delta(series, 10));
+        assertEquals(0, tracker.delta(series, 10));
+        assertEquals(5, tracker.delta(series, 15));
+        assertEquals(0, tracker.getResetCount());
+    }
+
+    @Test
+    public void testDelta_resetReportsWholeCount() {
+        long series = SeriesChangeTracker.hash("metric", "host", null);
+
+        tracker.beginInterval();
+        tracker.delta(series, 100);
+        assertEquals("lower count should be taken as a reset", 3, tracker.delta(series, 3));
+        assertEquals(2, tracker.delta(series, 5));
+        assertEquals(1, tracker.getResetCount());
+    }
+
+    @Test
+    public void testEndInterval_dropsStaleSeries() {
+        tracker.beginInterval();
+        for (int i = 0; i < 3000; i++) {
+            tracker.delta(SeriesChangeTracker.hash("metric." + i, "host", null), i);
+        }
+        tracker.endInterval();
+        assertEquals(3000, tracker.size());
+
+        tracker.beginInterval();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(1, tracker.delta(SeriesChangeTracker.hash("metric." + i, "host", null), i + 1));
+        }
+        tracker.endInterval();
+        assertEquals("series not reported should be dropped", 1000, tracker.size());
+
+        tracker.beginInterval();
+        assertEquals("dropped series should start over", 2000,
+                tracker.delta(SeriesChangeTracker.hash("metric.2000", "host", null), 2000));
+    }
+}
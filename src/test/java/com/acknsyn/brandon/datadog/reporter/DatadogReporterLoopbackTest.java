@@ -0,0 +1,82 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.http.ContentEncoding;
+import com.acknsyn.brandon.urlwriter.http.HttpConnectionPool;
+import com.acknsyn.brandon.urlwriter.http.KeepAliveHttpURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
+import com.acknsyn.brandon.urlwriter.retry.CircuitBreaker;
+import com.acknsyn.brandon.urlwriter.retry.RetryPolicy;
+import com.acknsyn.brandon.urlwriter.retry.RetryingURLWriterFactory;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatadogReporterLoopbackTest {
+    private FakeDatadogServer server;
+    private HttpConnectionPool pool;
+    private MetricRegistry registry;
+
+    @Before
+    public void setup() throws IOException {
+        server = new FakeDatadogServer();
+        pool = new HttpConnectionPool(2, 30000);
+        registry = new MetricRegistry();
+        for (int i = 0; i < 100; i++) {
+            registry.counter("counter." + i).inc(i);
+            registry.timer("timer." + i).update(i, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @After
+    public void teardown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testReport_overRealSockets() throws Exception {
+        DatadogReporter reporter = DatadogReporter.forRegistry(registry)
+                .withApiBaseUrl(server.getApiBaseUrl())
+                .writeUsing(new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory(), ContentEncoding.GZIP,
+                        Deflater.DEFAULT_COMPRESSION))
+                .splitRequestsAt(500, Long.MAX_VALUE)
+                .build("host", "key");
+
+        reporter.report();
+        reporter.report();
+        assertTrue(reporter.publishEvent(new Event("deploy", "deployed")));
+        assertTrue(reporter.getEventPublisher().close(5, TimeUnit.SECONDS));
+
+        assertEquals("every payload should be valid", 0, server.invalid.get());
+        assertEquals(2 * 100 * (1 + 15), server.series.get());
+        assertEquals(1, server.events.get());
+        assertTrue("should reuse connections", server.connections.get() < server.requests.get());
+    }
+
+    @Test
+    public void testReport_retriesThroughFaults() throws Exception {
+        DatadogReporter reporter = DatadogReporter.forRegistry(registry)
+                .withApiBaseUrl(server.getApiBaseUrl())
+                .writeUsing(new RetryingURLWriterFactory(new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory()),
+                        new RetryPolicy(4, 10, 50, 5000), new CircuitBreaker(10, 1000)))
+                .build("host", "key");
+
+        server.failNext(1, 503);
+        server.resetNext(1);
+        server.failNext(1, 500);
+        reporter.report();
+
+        assertEquals(1, server.resets.get());
+        assertEquals(2, server.failed.get());
+        assertEquals("should get through on the fourth attempt", 1, server.accepted.get());
+        assertEquals(100 * (1 + 15), server.series.get());
+    }
+}
@@ -0,0 +1,137 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.http.ContentEncoding;
+import com.acknsyn.brandon.urlwriter.http.HttpConnectionPool;
+import com.acknsyn.brandon.urlwriter.http.KeepAliveHttpURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
+import com.acknsyn.brandon.urlwriter.retry.CircuitBreaker;
+import com.acknsyn.brandon.urlwriter.retry.RetryPolicy;
+import com.acknsyn.brandon.urlwriter.retry.RetryingURLWriterFactory;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a reporter against a {@link FakeDatadogServer} for a while, at high cardinality and
+ * with faults injected, then prints throughput, request latency and heap use. Skipped unless
+ * asked for, e.g.:
+ *
+ * <pre>mvn test -Dtest=DatadogReporterSoakTest -Dsoak.seconds=300 -Dsoak.metrics=100000</pre>
+ *
+ * Other knobs: <code>soak.periodMillis</code> (1000), <code>soak.latencyMillis</code> (20) and
+ * <code>soak.faultEvery</code> (50; one request in that many fails or has its connection reset).
+ */
+public class DatadogReporterSoakTest {
+
+    @Test
+    public void soak() throws Exception {
+        Assume.assumeTrue(System.getProperty("soak.seconds") != null);
+        final long seconds = Long.getLong("soak.seconds");
+        final int metrics = Integer.getInteger("soak.metrics", 50000);
+        final long periodMillis = Long.getLong("soak.periodMillis", 1000);
+        final int faultEvery = Integer.getInteger("soak.faultEvery", 50);
+
+        FakeDatadogServer server = new FakeDatadogServer();
+        server.setLatency(Long.getLong("soak.latencyMillis", 20), TimeUnit.MILLISECONDS);
+        HttpConnectionPool pool = new HttpConnectionPool(4, 30000);
+        ExecutorService collector = Executors.newFixedThreadPool(4);
+        MetricRegistry registry = new MetricRegistry();
+        MetricRegistry self = new MetricRegistry();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Counter[] counters = new Counter[metrics / 4];
+        Timer[] timers = new Timer[metrics / 4];
+        Histogram[] histograms = new Histogram[metrics / 2];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = registry.counter("soak.counter." + i);
+            timers[i] = registry.timer("soak.timer." + i);
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = registry.histogram("soak.histogram." + i);
+        }
+
+        DatadogReporter reporter = DatadogReporter.forRegistry(registry)
+                .withApiBaseUrl(server.getApiBaseUrl())
+                .writeUsing(new RetryingURLWriterFactory(new KeepAliveHttpURLWriterFactory(pool,
+                        new Utf8WriterFactory(), ContentEncoding.GZIP, Deflater.BEST_SPEED),
+                        new RetryPolicy(3, 50, 500, 2000), new CircuitBreaker(20, 5000)))
+                .collectInParallel(collector)
+                .recordSelfMetrics(self)
+                .build("soak-host", "key");
+
+        Random random = new Random(42);
+        long heapMin = Long.MAX_VALUE;
+        long heapMax = 0;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        long nextReport = System.nanoTime();
+        int reports = 0;
+        try {
+            while (System.nanoTime() < deadline) {
+                for (int i = 0; i < 10000; i++) {
+                    int n = random.nextInt(counters.length);
+                    counters[n].inc();
+                    timers[n].update(random.nextInt(1000), TimeUnit.MICROSECONDS);
+                    histograms[random.nextInt(histograms.length)].update(random.nextInt(10000));
+                }
+                if (System.nanoTime() >= nextReport) {
+                    if (faultEvery > 0 && random.nextInt(faultEvery) == 0) {
+                        if (random.nextBoolean()) {
+                            server.resetNext(1);
+                        } else {
+                            server.failNext(1, random.nextBoolean() ? 503 : 429);
+                        }
+                    }
+                    reporter.report();
+                    reports++;
+                    nextReport += TimeUnit.MILLISECONDS.toNanos(periodMillis);
+
+                    long used = memory.getHeapMemoryUsage().getUsed();
+                    heapMin = Math.min(heapMin, used);
+                    heapMax = Math.max(heapMax, used);
+                }
+            }
+        } finally {
+            reporter.stop();
+            collector.shutdownNow();
+            pool.close();
+            server.close();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Snapshot http = self.timer("datadog.reporter.http").getSnapshot();
+        Snapshot report = self.timer("datadog.reporter.report").getSnapshot();
+        System.out.println(String.format(
+                "soak: %d metrics, %d reports in %.1fs%n"
+                        + "  series accepted: %d (%.0f/s), requests: %d accepted, %d failed, %d reset, %d invalid%n"
+                        + "  payload: %.1f MB received, %d connections%n"
+                        + "  report ms p50/p99/max: %.1f / %.1f / %.1f%n"
+                        + "  http ms p50/p99/max: %.1f / %.1f / %.1f%n"
+                        + "  heap MB min/max: %.1f / %.1f",
+                metrics, reports, elapsed,
+                server.series.get(), server.series.get() / elapsed, server.accepted.get(), server.failed.get(),
+                server.resets.get(), server.invalid.get(),
+                server.bodyBytes.get() / 1e6, server.connections.get(),
+                report.getMedian() / 1e6, report.get99thPercentile() / 1e6, report.getMax() / 1e6,
+                http.getMedian() / 1e6, http.get99thPercentile() / 1e6, http.getMax() / 1e6,
+                heapMin / 1e6, heapMax / 1e6));
+
+        assertEquals("every payload should be valid", 0, server.invalid.get());
+        assertTrue("should get series through", server.series.get() > 0);
+    }
+}
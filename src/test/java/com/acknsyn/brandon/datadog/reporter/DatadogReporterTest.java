@@ -0,0 +1,606 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import com.codahale.metrics.*;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatadogReporterTest {
+    private JsonParser jsonParser;
+    private MetricRegistry registry;
+    private ManualClock clock;
+    private RecordingURLWriterFactory urlWriterFactory;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        jsonParser = new JsonParser();
+        registry = new MetricRegistry();
+        clock = new ManualClock();
+        urlWriterFactory = new RecordingURLWriterFactory();
+        executor = Executors.newFixedThreadPool(4);
+
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            registry.register("gauge." + i, new Gauge<Integer>() {
+                public Integer getValue() {
+                    return value;
+                }
+            });
+            registry.counter("counter." + i).inc(i);
+            Histogram histogram = registry.histogram("histogram." + i);
+            Meter meter = registry.register("meter." + i, new Meter(clock));
+            Timer timer = registry.register("timer." + i, new Timer(new UniformReservoir(), clock));
+            for (int j = 0; j <= i; j++) {
+                histogram.update(j);
+                meter.mark();
+                timer.update(j, java.util.concurrent.TimeUnit.MILLISECONDS);
+            }
+        }
+        clock.tick += 1000000000L;
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private DatadogReporter.Builder builder() {
+        return DatadogReporter.forRegistry(registry)
+                .withClock(clock)
+                .writeUsing(urlWriterFactory);
+    }
+
+    @Test
+    public void testReport_seriesPayload() {
+        builder().build("host", "key").report();
+
+        assertEquals("should make one request", 1, urlWriterFactory.requests.size());
+
+        JsonObject payload = (JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0));
+        // 20 gauges + 20 counters + 11 per histogram + 5 per meter + 15 per timer
+        assertEquals("series count should match", 20 * (1 + 1 + 11 + 5 + 15),
+                payload.getAsJsonArray("series").size());
+    }
+
+    @Test
+    public void testReport_parallelMatchesSerial() {
+        builder().build("host", "key").report();
+        builder().collectInParallel(executor, 3).build("host", "key").report();
+
+        assertEquals("should make two requests", 2, urlWriterFactory.requests.size());
+        assertEquals("parallel payload should match serial payload",
+                urlWriterFactory.requests.get(0), urlWriterFactory.requests.get(1));
+    }
+
+    @Test
+    public void testReport_splitBySeriesCount() {
+        builder().splitRequestsAt(100, Long.MAX_VALUE).build("host", "key").report();
+
+        int total = 0;
+        for (String request : urlWriterFactory.requests) {
+            int series = ((JsonObject) jsonParser.parse(request)).getAsJsonArray("series").size();
+            // limits are checked between metrics, so a batch may overshoot by one timer's worth
+            assertTrue("batch should not exceed limit by more than one metric", series < 100 + 15);
+            total += series;
+        }
+
+        assertTrue("should make several requests", urlWriterFactory.requests.size() > 1);
+        assertEquals("series count should match", 20 * (1 + 1 + 11 + 5 + 15), total);
+    }
+
+    @Test
+    public void testReport_splitBySize() {
+        builder().collectInParallel(executor, 2).splitRequestsAt(Integer.MAX_VALUE, 4096).build("host", "key").report();
+
+        int total = 0;
+        for (String request : urlWriterFactory.requests) {
+            total += ((JsonObject) jsonParser.parse(request)).getAsJsonArray("series").size();
+        }
+
+        assertTrue("should make several requests", urlWriterFactory.requests.size() > 1);
+        assertEquals("series count should match", 20 * (1 + 1 + 11 + 5 + 15), total);
+    }
+
+    @Test
+    public void testReport_failedBatchDoesNotStopOthers() {
+        urlWriterFactory.failFirst = true;
+        builder().splitRequestsAt(100, Long.MAX_VALUE).build("host", "key").report();
+
+        assertTrue("should still send remaining batches", urlWriterFactory.requests.size() > 1);
+    }
+
+    @Test
+    public void testReport_changesOnly() {
+        DatadogReporter reporter = builder().reportChangesOnly(60, java.util.concurrent.TimeUnit.SECONDS)
+                .build("host", "key");
+
+        reporter.report();
+        assertEquals("should send everything the first time", 20 * (1 + 1 + 11 + 5 + 15),
+                ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series").size());
+
+        clock.time += 10000;
+        reporter.report();
+        assertEquals("should not send a request when nothing changed", 1, urlWriterFactory.requests.size());
+
+        registry.counter("counter.3").inc();
+        clock.time += 10000;
+        reporter.report();
+        JsonObject payload = (JsonObject) jsonParser.parse(urlWriterFactory.requests.get(1));
+        assertEquals("should send only the changed series", 1, payload.getAsJsonArray("series").size());
+        assertEquals("counter.3.count",
+                payload.getAsJsonArray("series").get(0).getAsJsonObject().get("metric").getAsString());
+
+        clock.time += 50000;
+        reporter.report();
+        assertEquals("should resend series due a heartbeat", 20 * (1 + 1 + 11 + 5 + 15) - 1,
+                ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(2))).getAsJsonArray("series").size());
+    }
+
+    @Test
+    public void testReport_cachedSeriesMatchUncached() {
+        DatadogReporter cached = builder().build("host", "key");
+        cached.report();
+        cached.report();
+        builder().cacheSeries(false).build("host", "key").report();
+
+        assertEquals("should make three requests", 3, urlWriterFactory.requests.size());
+        assertEquals(urlWriterFactory.requests.get(2), urlWriterFactory.requests.get(0));
+        assertEquals(urlWriterFactory.requests.get(2), urlWriterFactory.requests.get(1));
+    }
+
+    @Test
+    public void testReport_cachedSeriesFollowRegistry() {
+        final int[] aliased = new int[1];
+        DatadogReporter reporter = builder().aliasUsing(new AliasStrategy() {
+            public String alias(String name, Metric metric) {
+                aliased[0]++;
+                return metric instanceof Counter ? name + ".c" + ((Counter) metric).getCount() : name;
+            }
+        }).build("host", "key");
+
+        reporter.report();
+        reporter.report();
+        assertEquals("strategies should only be asked once per metric", 100, aliased[0]);
+
+        registry.remove("counter.3");
+        registry.counter("counter.3").inc(42);
+        reporter.report();
+
+        assertEquals("replaced metric should be rendered again", 101, aliased[0]);
+        assertTrue("should report replaced metric under its new alias",
+                urlWriterFactory.requests.get(2).contains("\"counter.3.c42.count\""));
+    }
+
+    @Test
+    public void testReport_distributions() {
+        builder().reportDistributions(0.01, 8).build("host", "key").report();
+        builder().reportDistributions(0.01, 8).collectInParallel(executor, 3).build("host", "key").report();
+
+        assertEquals("should make a series and a distribution request per report", 4,
+                urlWriterFactory.requests.size());
+        JsonObject payload = (JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0));
+        // 20 gauges + 20 counters + 1 per histogram + 5 per meter + 5 per timer
+        assertEquals("series count should match", 20 * (1 + 1 + 1 + 5 + 5),
+                payload.getAsJsonArray("series").size());
+
+        assertTrue(urlWriterFactory.urls.get(1).getPath().endsWith("/distribution_points"));
+        JsonObject distributions = (JsonObject) jsonParser.parse(urlWriterFactory.requests.get(1));
+        assertEquals("one distribution per histogram and timer", 40, distributions.getAsJsonArray("series").size());
+        for (int i = 0; i < 40; i++) {
+            JsonArray values = distributions.getAsJsonArray("series").get(i).getAsJsonObject()
+                    .getAsJsonArray("points").get(0).getAsJsonArray().get(1).getAsJsonArray();
+            assertTrue("values should be capped", values.size() <= 8);
+        }
+
+        assertEquals("parallel payload should match serial payload",
+                urlWriterFactory.requests.get(0), urlWriterFactory.requests.get(2));
+        assertEquals("parallel distributions should match serial distributions",
+                urlWriterFactory.requests.get(1), urlWriterFactory.requests.get(3));
+    }
+
+    @Test
+    public void testReport_selectedFields() {
+        final int[] snapshots = new int[1];
+        registry.register("histogram.unsnapshotted", new Histogram(new UniformReservoir() {
+            @Override
+            public Snapshot getSnapshot() {
+                snapshots[0]++;
+                return super.getSnapshot();
+            }
+        }));
+
+        builder().fieldsUsing(new SelectedFieldsStrategy()
+                .forNames("timer\\.1\\d", SeriesField.MAX)
+                .forType(Timer.class, SeriesField.P99, SeriesField.M1_RATE)
+                .forType(Histogram.class, SeriesField.COUNT)
+                .forType(Meter.class))
+                .build("host", "key").report();
+
+        JsonArray series = ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series");
+        // 20 gauges + 20 counters + 21 histogram counts + 10 timers * 2 + 10 timers * 1
+        assertEquals("series count should match", 20 + 20 + 21 + 10 * 2 + 10, series.size());
+        assertEquals("histogram without percentile fields should not be snapshotted", 0, snapshots[0]);
+
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < series.size(); i++) {
+            names.add(series.get(i).getAsJsonObject().get("metric").getAsString());
+        }
+        assertTrue(names.contains("timer.5.p99"));
+        assertTrue(names.contains("timer.5.m1_rate"));
+        assertTrue(names.contains("timer.15.max"));
+        assertTrue(!names.contains("timer.15.p99"));
+        assertTrue(!names.contains("meter.5.count"));
+    }
+
+    @Test
+    public void testReport_additionalRegistries() {
+        MetricRegistry other = new MetricRegistry();
+        other.counter("counter.1").inc(5);
+        other.register("meter.other", new Meter(clock)).mark();
+        clock.tick += 1000000000L;
+
+        builder().alsoReport(other, "module:other").build("host", "key").report();
+        builder().alsoReport(other, "module:other").collectInParallel(executor, 3).build("host", "key").report();
+
+        assertEquals("should make one request per report", 2, urlWriterFactory.requests.size());
+        JsonArray series = ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series");
+        assertEquals("series count should match", 20 * (1 + 1 + 11 + 5 + 15) + 1 + 5, series.size());
+        JsonObject last = series.get(series.size() - 1).getAsJsonObject();
+        assertEquals("meter.other.mean_rate", last.get("metric").getAsString());
+        assertEquals("module:other", last.getAsJsonArray("tags").get(0).getAsString());
+        assertEquals("parallel payload should match serial payload",
+                urlWriterFactory.requests.get(0), urlWriterFactory.requests.get(1));
+    }
+
+    @Test
+    public void testReport_aggregateCounters() {
+        MetricRegistry other = new MetricRegistry();
+        other.counter("counter.1").inc(5);
+        other.counter("counter.other").inc(7);
+        Meter meter = other.register("meter.1", new Meter(clock));
+        meter.mark(3);
+        clock.tick += 1000000000L;
+
+        builder().alsoReport(other).aggregateCounters().build("host", "key").report();
+        builder().alsoReport(other).aggregateCounters().collectInParallel(executor, 3).build("host", "key").report();
+
+        JsonArray series = ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series");
+        assertEquals("series count should match", 20 * (1 + 11 + 15) + 21 + 20 * 5, series.size());
+        assertEquals("counter.1.count", series.get(20 * (1 + 11 + 15) + 1).getAsJsonObject()
+                .get("metric").getAsString());
+        assertEquals("should sum counters with the same alias", 6, value(series.get(20 * (1 + 11 + 15) + 1)));
+        assertEquals("counter.other.count", series.get(20 * (1 + 11 + 15) + 20).getAsJsonObject()
+                .get("metric").getAsString());
+        assertEquals("meter.1.count", series.get(20 * (1 + 11 + 15) + 21 + 5).getAsJsonObject()
+                .get("metric").getAsString());
+        assertEquals("should merge meters with the same alias", 5, value(series.get(20 * (1 + 11 + 15) + 21 + 5)));
+        assertEquals("parallel payload should match serial payload",
+                urlWriterFactory.requests.get(0), urlWriterFactory.requests.get(1));
+    }
+
+    @Test
+    public void testReport_countDeltas() {
+        DatadogReporter reporter = builder().reportCountDeltas().build("host", "key");
+
+        reporter.report();
+        registry.counter("counter.3").inc(4);
+        registry.meter("meter.3").mark(2);
+        reporter.report();
+
+        JsonArray first = ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series");
+        JsonArray second = ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(1))).getAsJsonArray("series");
+        assertEquals("series count should match", 20 * (1 + 1 + 11 + 5 + 15), second.size());
+        for (int i = 0; i < second.size(); i++) {
+            JsonObject series = second.get(i).getAsJsonObject();
+            String metric = series.get("metric").getAsString();
+            if (metric.equals("counter.3.count")) {
+                assertEquals("counter", series.get("type").getAsString());
+                assertEquals(3, value(first.get(i)));
+                assertEquals("should send the increase", 4, value(series));
+            } else if (metric.equals("meter.3.count")) {
+                assertEquals("counter", series.get("type").getAsString());
+                assertEquals(2, value(series));
+            } else if (metric.startsWith("histogram.") && metric.endsWith(".count")) {
+                assertEquals("histogram counts should stay totals", "gauge", series.get("type").getAsString());
+            } else if (metric.endsWith(".count")) {
+                assertEquals("counter", series.get("type").getAsString());
+                assertEquals("unchanged counts should send no increase", 0, value(series));
+            }
+        }
+    }
+
+    @Test
+    public void testReport_bufferedPoints() {
+        DatadogReporter reporter = builder().bufferPoints(3, 100000).collectInParallel(executor, 3)
+                .build("host", "key");
+
+        for (int i = 0; i < 2; i++) {
+            reporter.report();
+            clock.time += 10000;
+        }
+        assertEquals("should not send until three reports are buffered", 0, urlWriterFactory.requests.size());
+
+        registry.counter("counter.3").inc();
+        reporter.report();
+        assertEquals("should send all three reports in one request", 1, urlWriterFactory.requests.size());
+
+        JsonArray series = ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series");
+        assertEquals("series count should match", 20 * (1 + 1 + 11 + 5 + 15), series.size());
+        for (int i = 0; i < series.size(); i++) {
+            JsonObject s = series.get(i).getAsJsonObject();
+            JsonArray points = s.getAsJsonArray("points");
+            assertEquals("each series should carry three points", 3, points.size());
+            assertEquals(1400000000 + 10 * 2, points.get(2).getAsJsonArray().get(0).getAsLong());
+            if (s.get("metric").getAsString().equals("counter.3.count")) {
+                assertEquals(3, points.get(1).getAsJsonArray().get(1).getAsLong());
+                assertEquals(4, points.get(2).getAsJsonArray().get(1).getAsLong());
+            }
+        }
+
+        reporter.report();
+        reporter.stop();
+        assertEquals("should send what's buffered when stopped", 2, urlWriterFactory.requests.size());
+    }
+
+    @Test
+    public void testReport_selfMetrics() {
+        MetricRegistry self = new MetricRegistry();
+        DatadogReporter reporter = builder().recordSelfMetrics(self).splitRequestsAt(500, Long.MAX_VALUE)
+                .build("host", "key");
+
+        urlWriterFactory.failFirst = true;
+        reporter.report();
+        assertEquals(1, self.counter("datadog.reporter.failures.500").getCount());
+        assertEquals(1, self.timer("datadog.reporter.report").getCount());
+        assertEquals(1, self.timer("datadog.reporter.snapshot").getCount());
+        assertEquals("should time the request that went out", 1, self.timer("datadog.reporter.http").getCount());
+        assertEquals(urlWriterFactory.requests.get(0).length(),
+                self.histogram("datadog.reporter.payload.bytes").getSnapshot().getMax());
+        assertEquals("should count only series sent",
+                ((JsonObject) jsonParser.parse(urlWriterFactory.requests.get(0))).getAsJsonArray("series").size(),
+                self.histogram("datadog.reporter.series").getSnapshot().getMax());
+
+        reporter.report();
+        String payload = urlWriterFactory.requests.get(1) + urlWriterFactory.requests.get(2);
+        assertTrue("should report its own metrics", payload.contains("\"datadog.reporter.failures.500.count\""));
+        assertTrue(payload.contains("\"datadog.reporter.http.p99\""));
+    }
+
+    @Test
+    public void testReport_sinksShareOneCollection() {
+        builder().build("host", "key").report();
+        RecordingSink sink = new RecordingSink();
+        DatadogReporter reporter = builder().addSink(sink).build("host", "key");
+        reporter.report();
+        reporter.stop();
+        DatadogReporter parallel = builder().collectInParallel(executor, 3).addSink(new RecordingSink())
+                .build("host", "key");
+        parallel.report();
+        parallel.stop();
+
+        assertEquals("should make three requests", 3, urlWriterFactory.requests.size());
+        assertEquals("api sink should send the same payload", urlWriterFactory.requests.get(0),
+                urlWriterFactory.requests.get(1));
+        assertEquals("parallel collection should batch the same series", urlWriterFactory.requests.get(0),
+                urlWriterFactory.requests.get(2));
+        assertEquals(1, sink.batches.size());
+        assertEquals(20 * (1 + 1 + 11 + 5 + 15), sink.batches.get(0).size());
+        assertTrue("sink should be closed on stop", sink.closed);
+    }
+
+    @Test
+    public void testReport_slowSinkDoesNotHoldUpOthers() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        SeriesSink blocked = new RecordingSink() {
+            @Override
+            public void write(SeriesBatch batch) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        };
+        SeriesSink failing = new RecordingSink() {
+            @Override
+            public void write(SeriesBatch batch) throws IOException {
+                throw new IOException("unreachable");
+            }
+        };
+        RecordingSink recording = new RecordingSink();
+        DatadogReporter reporter = builder().addSink(blocked, 1).addSink(failing).addSink(recording)
+                .build("host", "key");
+        for (int i = 0; i < 4; i++) {
+            reporter.report();
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recording.size() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("other sinks should get every report", 4, recording.size());
+        release.countDown();
+        reporter.stop();
+        assertEquals("api should get every report", 4, urlWriterFactory.requests.size());
+    }
+
+    @Test
+    public void testStart_adaptiveIntervalBacksOffWhileIdle() throws InterruptedException {
+        MetricRegistry self = new MetricRegistry();
+        DatadogReporter reporter = builder().recordSelfMetrics(self)
+                .adaptInterval(10, 80, TimeUnit.MILLISECONDS).build("host", "key");
+        reporter.start(10, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue("interval should back off to max while nothing is counted", awaitInterval(self, 80));
+            registry.counter("counter.0").inc();
+            assertTrue("interval should go back to the period once something is", awaitInterval(self, 10));
+        } finally {
+            reporter.stop();
+        }
+        assertEquals(0, self.counter("datadog.reporter.skipped").getCount());
+    }
+
+    @Test
+    public void testStart_adaptiveIntervalSkipsOverrunReports() throws InterruptedException {
+        MetricRegistry self = new MetricRegistry();
+        final AtomicInteger reporting = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        registry.register("slow", new Gauge<Integer>() {
+            public Integer getValue() {
+                overlapped.compareAndSet(false, reporting.incrementAndGet() > 1);
+                //each report takes a second
+                clock.tick += 1000000000L;
+                reporting.decrementAndGet();
+                return 0;
+            }
+        });
+        DatadogReporter reporter = builder().recordSelfMetrics(self)
+                .adaptInterval(10, 100, TimeUnit.MILLISECONDS).build("host", "key");
+        reporter.start(10, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue("interval should stretch to max", awaitInterval(self, 100));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (self.counter("datadog.reporter.skipped").getCount() < 20 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            reporter.stop();
+        }
+        assertEquals("each overrun report should skip the ten due meanwhile", 0,
+                self.counter("datadog.reporter.skipped").getCount() % 10);
+        assertTrue(self.counter("datadog.reporter.skipped").getCount() >= 20);
+        assertFalse("reports should never overlap", overlapped.get());
+    }
+
+    @Test
+    public void testStart_adaptiveIntervalKeepsReportingAfterError() throws InterruptedException {
+        final AtomicBoolean thrown = new AtomicBoolean();
+        registry.register("broken", new Gauge<Integer>() {
+            public Integer getValue() {
+                if (thrown.compareAndSet(false, true)) {
+                    throw new Error("broken gauge");
+                }
+                return 0;
+            }
+        });
+        DatadogReporter reporter = builder().adaptInterval(10, 100, TimeUnit.MILLISECONDS).build("host", "key");
+        reporter.start(10, TimeUnit.MILLISECONDS);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (urlWriterFactory.requests.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            reporter.stop();
+        }
+        assertTrue(thrown.get());
+        assertTrue("should keep reporting after a report fails with an error", urlWriterFactory.requests.size() >= 2);
+    }
+
+    @Test
+    public void testStart_adaptiveIntervalRecordsClampedPeriod() {
+        MetricRegistry self = new MetricRegistry();
+        DatadogReporter reporter = builder().recordSelfMetrics(self)
+                .adaptInterval(10, 80, TimeUnit.MILLISECONDS).build("host", "key");
+        reporter.start(3600, TimeUnit.SECONDS);
+        try {
+            assertEquals(80L, self.getGauges().get("datadog.reporter.interval").getValue());
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    private static boolean awaitInterval(MetricRegistry self, long millis) throws InterruptedException {
+        Gauge interval = self.getGauges().get("datadog.reporter.interval");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (Long.valueOf(millis).equals(interval.getValue())) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    private static long value(com.google.gson.JsonElement series) {
+        return series.getAsJsonObject().getAsJsonArray("points").get(0).getAsJsonArray().get(1).getAsLong();
+    }
+
+    static class ManualClock extends Clock {
+        long tick = 0;
+        long time = 1400000000000L;
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+
+    static class RecordingSink implements SeriesSink {
+        final List<SeriesBatch> batches = new ArrayList<SeriesBatch>();
+        volatile boolean closed;
+
+        public synchronized void write(SeriesBatch batch) throws IOException {
+            batches.add(batch);
+        }
+
+        synchronized int size() {
+            return batches.size();
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+    static class RecordingURLWriterFactory implements URLWriterFactory {
+        final List<URL> urls = new ArrayList<URL>();
+        final List<String> requests = new ArrayList<String>();
+        boolean failFirst;
+
+        public synchronized Writer getWriter(final URL url) throws IOException {
+            return new StringWriter() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    synchronized (RecordingURLWriterFactory.this) {
+                        if (failFirst) {
+                            failFirst = false;
+                            throw new HttpException(500, "failed");
+                        }
+                        urls.add(url);
+                        requests.add(toString());
+                    }
+                }
+            };
+        }
+    }
+}
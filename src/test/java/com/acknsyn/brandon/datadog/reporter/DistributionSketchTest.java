@@ -0,0 +1,101 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DistributionSketchTest {
+    private DistributionSketch sketch;
+
+    @Before
+    public void setup() {
+        sketch = new DistributionSketch(0.01, 2048);
+    }
+
+    @Test
+    public void testQuantiles_withinRelativeAccuracy() {
+        for (int i = 1; i <= 10000; i++) {
+            sketch.accept(i);
+        }
+
+        assertEquals(10000, sketch.getCount());
+        assertWithin(1, sketch.getValueAtQuantile(0));
+        assertWithin(5000, sketch.getValueAtQuantile(0.5));
+        assertWithin(9900, sketch.getValueAtQuantile(0.99));
+        assertWithin(10000, sketch.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void testQuantiles_negativeAndZero() {
+        sketch.accept(-100);
+        sketch.accept(-10);
+        sketch.accept(0);
+        sketch.accept(10);
+        sketch.accept(100);
+
+        assertWithin(-100, sketch.getValueAtQuantile(0));
+        assertWithin(-10, sketch.getValueAtQuantile(0.25));
+        assertEquals(0, sketch.getValueAtQuantile(0.5), 0);
+        assertWithin(100, sketch.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void testAccept_boundedBuckets() {
+        sketch = new DistributionSketch(0.01, 64);
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            sketch.accept(Math.exp(random.nextDouble() * 40));
+        }
+        sketch.accept(1e-3);
+
+        assertEquals(100001, sketch.getCount());
+        assertTrue("top of the range should keep its accuracy",
+                Math.abs(sketch.getValueAtQuantile(1) / Math.exp(40) - 1) < 0.02);
+    }
+
+    @Test
+    public void testClear() {
+        sketch.accept(5);
+        sketch.clear();
+
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.getValueAtQuantile(0.5)));
+        sketch.accept(1000);
+        assertWithin(1000, sketch.getValueAtQuantile(0));
+    }
+
+    @Test
+    public void testWriteDistribution_downsamplesValues() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            sketch.accept(i < 900 ? 10 : 1000);
+        }
+
+        StringWriter writer = new StringWriter();
+        SeriesStream series = new SeriesStream(writer);
+        series.writeDistribution(new Series("latency", null, "host", new String[]{"a:b"}), 1400000000L, sketch, 50);
+        series.close();
+
+        JsonObject distribution = ((JsonObject) new JsonParser().parse(writer.toString()))
+                .getAsJsonArray("series").get(0).getAsJsonObject();
+        assertFalse("distributions have no type", distribution.has("type"));
+        JsonArray point = distribution.getAsJsonArray("points").get(0).getAsJsonArray();
+        assertEquals(1400000000L, point.get(0).getAsLong());
+        JsonArray values = point.get(1).getAsJsonArray();
+        assertEquals(50, values.size());
+        assertWithin(10, values.get(44).getAsDouble());
+        assertWithin(1000, values.get(45).getAsDouble());
+    }
+
+    private void assertWithin(double expected, double actual) {
+        assertTrue("expected " + expected + " within 1%, was " + actual,
+                Math.abs(actual - expected) <= Math.abs(expected) * 0.01 + 1e-9);
+    }
+}
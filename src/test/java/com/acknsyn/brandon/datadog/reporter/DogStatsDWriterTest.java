@@ -0,0 +1,129 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DogStatsDWriterTest {
+    private DatagramSocket agent;
+    private List<String> datagrams;
+
+    @Before
+    public void setup() throws IOException {
+        agent = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        agent.setReceiveBufferSize(1 << 20);
+        agent.setSoTimeout(500);
+        datagrams = new ArrayList<String>();
+    }
+
+    @After
+    public void teardown() {
+        agent.close();
+    }
+
+    private InetSocketAddress address() {
+        return new InetSocketAddress("127.0.0.1", agent.getLocalPort());
+    }
+
+    private List<String> receive() throws IOException {
+        byte[] bytes = new byte[65536];
+        List<String> lines = new ArrayList<String>();
+        while (true) {
+            DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+            try {
+                agent.receive(packet);
+            } catch (SocketTimeoutException e) {
+                return lines;
+            }
+            String datagram = new String(packet.getData(), 0, packet.getLength(), "UTF-8");
+            datagrams.add(datagram);
+            lines.addAll(Arrays.asList(datagram.split("\n")));
+        }
+    }
+
+    @Test
+    public void testReport_sendsSeriesAsDatagrams() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 200; i++) {
+            final int value = i;
+            registry.register("gauge." + i, new Gauge<Integer>() {
+                public Integer getValue() {
+                    return value;
+                }
+            });
+            registry.counter("counter." + i).inc(i);
+        }
+        DatadogReporterTest.RecordingURLWriterFactory urlWriterFactory = new DatadogReporterTest.RecordingURLWriterFactory();
+        DatadogReporter reporter = DatadogReporter.forRegistry(registry)
+                .writeUsing(urlWriterFactory)
+                .tagUsing(new TagStrategy() {
+                    public String[] tags(String name, com.codahale.metrics.Metric metric) {
+                        return new String[]{"env:test"};
+                    }
+                })
+                .sendToDogStatsD(address(), 512)
+                .build("host", "key");
+        reporter.report();
+
+        List<String> lines = receive();
+        assertEquals("should send every series", 400, lines.size());
+        assertTrue(lines.contains("gauge.7:7|g|#host:host,env:test"));
+        assertTrue(lines.contains("counter.3.count:3|g|#host:host,env:test"));
+        assertTrue("should pack several lines per datagram", datagrams.size() < 400 / 4);
+        for (String datagram : datagrams) {
+            assertTrue("datagram should fit the packet size", datagram.getBytes("UTF-8").length <= 512);
+        }
+        assertEquals("should not post series", 0, urlWriterFactory.requests.size());
+    }
+
+    @Test
+    public void testWrite_typesAndSampleRates() throws IOException {
+        DogStatsDWriter writer = new DogStatsDWriter(address());
+        writer.write(new Series("deltas", SeriesStream.MetricType.COUNTER, null, null), 5L);
+        writer.write(new Series("rate", SeriesStream.MetricType.GAUGE, null, new String[]{"a|b"}), 0.125d);
+        writer.write(new Series("skipped", SeriesStream.MetricType.GAUGE, null, null), Double.NaN);
+
+        DistributionSketch sketch = new DistributionSketch(0.01, 2048);
+        sketch.accept(1);
+        sketch.accept(100);
+        sketch.accept(100);
+        sketch.accept(100);
+        sketch.accept(100);
+        writer.writeDistribution(new Series("latency", null, "host", null), sketch);
+        writer.close();
+
+        List<String> lines = receive();
+        assertEquals(4, lines.size());
+        assertEquals("deltas:5|c", lines.get(0));
+        assertEquals("rate:0.13|g|#a_b", lines.get(1));
+        assertTrue(lines.get(2), lines.get(2).matches("latency:\\d\\.\\d\\d\\|d\\|#host:host"));
+        assertTrue(lines.get(3), lines.get(3).matches("latency:\\d+\\.\\d\\d\\|d\\|@0\\.250000000000\\|#host:host"));
+        assertEquals(1, writer.getPacketCount());
+    }
+
+    @Test
+    public void testWrite_skipsLinesLongerThanPacket() throws IOException {
+        DogStatsDWriter writer = new DogStatsDWriter(address(), 32, 2);
+        writer.write(new Series("short", SeriesStream.MetricType.GAUGE, null, null), 1L);
+        writer.write(new Series("a.rather.long.metric.name.indeed", SeriesStream.MetricType.GAUGE, null, null), 1L);
+        writer.write(new Series("short", SeriesStream.MetricType.GAUGE, null, null), 2L);
+        writer.close();
+
+        assertEquals(Arrays.asList("short:1|g", "short:2|g"), receive());
+        assertEquals(1, writer.getOversizedLineCount());
+    }
+}
@@ -0,0 +1,164 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EventPublisherTest {
+    private BlockingURLWriterFactory writerFactory;
+    private EventPublisher publisher;
+
+    @Before
+    public void setup() throws IOException {
+        writerFactory = new BlockingURLWriterFactory();
+    }
+
+    @After
+    public void teardown() throws InterruptedException {
+        writerFactory.release.countDown();
+        if (publisher != null) {
+            publisher.close(1, TimeUnit.SECONDS);
+        }
+    }
+
+    private EventPublisher publisher(int capacity, int batchSize, long lingerMillis) throws IOException {
+        publisher = new EventPublisher(writerFactory, new URL("http://localhost/api/v1/events"), capacity, batchSize,
+                lingerMillis, TimeUnit.MILLISECONDS);
+        return publisher;
+    }
+
+    @Test
+    public void testPublish_sentInBackground() throws Exception {
+        writerFactory.release.countDown();
+        publisher(16, 4, 0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(publisher.publish(new Event("title " + i, "text")));
+        }
+        assertTrue("should drain before closing", publisher.close(5, TimeUnit.SECONDS));
+
+        assertEquals(10, publisher.getSentCount());
+        assertEquals(10, writerFactory.requests.size());
+        assertTrue(writerFactory.requests.get(9).contains("\"title 9\""));
+        assertFalse("should refuse events once closed", publisher.publish(new Event("late", "text")));
+        assertEquals(1, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void testPublish_racingCloseNeverLosesAcceptedEvents() throws Exception {
+        writerFactory.release.countDown();
+        for (int round = 0; round < 500; round++) {
+            writerFactory.requests.clear();
+            final EventPublisher racing = publisher(1024, 16, 0);
+            final AtomicInteger accepted = new AtomicInteger();
+            final AtomicInteger refused = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] publishers = new Thread[8];
+            for (int i = 0; i < publishers.length; i++) {
+                publishers[i] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int j = 0; j < 100; j++) {
+                            if (racing.publish(new Event("title " + j, "text"))) {
+                                accepted.incrementAndGet();
+                            } else {
+                                refused.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+                publishers[i].start();
+            }
+            start.countDown();
+            Thread.yield();
+            assertTrue(racing.close(5, TimeUnit.SECONDS));
+            for (Thread thread : publishers) {
+                thread.join();
+            }
+
+            assertEquals("every accepted event should be sent", accepted.get(), racing.getSentCount());
+            assertEquals(accepted.get(), writerFactory.requests.size());
+            assertEquals(refused.get(), racing.getDroppedCount());
+        }
+    }
+
+    @Test
+    public void testPublish_coalescesByAggregationKey() throws Exception {
+        publisher(16, 16, 200);
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(new Event("deploy " + i, "text", null, null, null, null, "deploy", null));
+        }
+        publisher.publish(new Event("failover", "text"));
+        writerFactory.release.countDown();
+        assertTrue(publisher.close(5, TimeUnit.SECONDS));
+
+        assertEquals("should send only the latest event per key", 2, writerFactory.requests.size());
+        assertTrue(writerFactory.requests.get(0).contains("\"deploy 4\""));
+        assertEquals(4, publisher.getCoalescedCount());
+    }
+
+    @Test
+    public void testPublish_dropsOrWaitsWhenFull() throws Exception {
+        publisher(2, 1, 0);
+
+        //the first event is taken by the sender, which then blocks sending it
+        assertTrue(publisher.publish(new Event("first", "text")));
+        writerFactory.sending.await(5, TimeUnit.SECONDS);
+        assertTrue(publisher.publish(new Event("second", "text")));
+        assertTrue(publisher.publish(new Event("third", "text")));
+
+        assertFalse("should drop when full", publisher.publish(new Event("dropped", "text")));
+        assertFalse("should give up waiting for room",
+                publisher.publish(new Event("timed out", "text"), 10, TimeUnit.MILLISECONDS));
+        assertEquals(2, publisher.getDroppedCount());
+        assertEquals(1, publisher.getBackpressureCount());
+
+        writerFactory.release.countDown();
+        assertTrue("should get room once sending resumes",
+                publisher.publish(new Event("waited", "text"), 5, TimeUnit.SECONDS));
+        assertTrue(publisher.close(5, TimeUnit.SECONDS));
+        assertEquals(4, publisher.getSentCount());
+    }
+
+    static class BlockingURLWriterFactory implements URLWriterFactory {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> requests = new ArrayList<String>();
+
+        public Writer getWriter(URL url) throws IOException {
+            return new StringWriter() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    sending.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                    synchronized (requests) {
+                        requests.add(toString());
+                    }
+                }
+            };
+        }
+    }
+}
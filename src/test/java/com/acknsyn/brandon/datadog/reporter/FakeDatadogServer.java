@@ -0,0 +1,384 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A stand-in for the Datadog intake, listening on the loopback interface, for tests that
+ * want real sockets. It speaks just enough HTTP/1.1 for the writers here (fixed-length
+ * bodies, keep-alive, gzip and deflate) and serves <code>/api/v1/series</code>,
+ * <code>/api/v1/distribution_points</code> and <code>/api/v1/events</code>.
+ *
+ * Payloads are parsed and checked for the fields Datadog requires, and counted; series
+ * posted in the {@link BinarySeriesEncoder binary form} are taken too, as a relay would. Faults can
+ * be queued up: a response delay, error statuses (429s with a Retry-After) and connection
+ * resets, each applying to the next requests received.
+ */
+public class FakeDatadogServer implements Closeable {
+    private static final int MAX_HEADER_LINE = 8192;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentLinkedQueue<Fault> faults = new ConcurrentLinkedQueue<Fault>();
+    private final ConcurrentLinkedQueue<Socket> sockets = new ConcurrentLinkedQueue<Socket>();
+    private volatile long latencyMillis;
+    private volatile boolean closed;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong accepted = new AtomicLong();
+    final AtomicLong invalid = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong resets = new AtomicLong();
+    final AtomicLong connections = new AtomicLong();
+    final AtomicLong series = new AtomicLong();
+    final AtomicLong points = new AtomicLong();
+    final AtomicLong distributions = new AtomicLong();
+    final AtomicLong events = new AtomicLong();
+    final AtomicLong bodyBytes = new AtomicLong();
+
+    public FakeDatadogServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.execute(new Runnable() {
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * The base url to point a reporter at.
+     */
+    public String getApiBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/api/v1";
+    }
+
+    /**
+     * Delays every response by <code>latency</code>.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyMillis = unit.toMillis(latency);
+    }
+
+    /**
+     * Answers the next <code>times</code> requests with <code>status</code>; a 429 comes with a
+     * Retry-After of one second.
+     */
+    public void failNext(int times, int status) {
+        for (int i = 0; i < times; i++) {
+            faults.add(new Fault(status));
+        }
+    }
+
+    /**
+     * Resets the connection, without responding, on the next <code>times</code> requests.
+     */
+    public void resetNext(int times) {
+        for (int i = 0; i < times; i++) {
+            faults.add(new Fault(-1));
+        }
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.incrementAndGet();
+            sockets.add(socket);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        //client went away
+                    } finally {
+                        sockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (!closed) {
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<String, String>();
+            String header;
+            while ((header = readLine(in)) != null && header.length() > 0) {
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    headers.put(header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                            header.substring(colon + 1).trim());
+                }
+            }
+            if (header == null) {
+                return;
+            }
+
+            byte[] body = readBody(in, headers);
+            requests.incrementAndGet();
+            bodyBytes.addAndGet(body.length);
+
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            Fault fault = faults.poll();
+            if (fault != null && fault.status < 0) {
+                resets.incrementAndGet();
+                socket.setSoLinger(true, 0);
+                socket.close();
+                return;
+            }
+
+            int status;
+            String response;
+            if (fault != null) {
+                failed.incrementAndGet();
+                status = fault.status;
+                response = "{\"errors\":[\"injected\"]}";
+            } else {
+                String error = handle(requestLine, headers, body);
+                if (error == null) {
+                    accepted.incrementAndGet();
+                    status = 202;
+                    response = "{\"status\":\"ok\"}";
+                } else {
+                    invalid.incrementAndGet();
+                    status = 400;
+                    response = "{\"errors\":[\"" + error + "\"]}";
+                }
+            }
+
+            boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+            respond(out, status, response, keepAlive);
+            if (!keepAlive) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks and counts a request, returning why it's invalid, or null if it isn't.
+     */
+    private String handle(String requestLine, Map<String, String> headers, byte[] body) {
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !"POST".equals(parts[0])) {
+            return "expected a POST";
+        }
+        String target = parts[1];
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        if (query < 0 || !target.substring(query + 1).startsWith("api_key=")) {
+            return "missing api_key";
+        }
+
+        if (BinarySeriesEncoder.CONTENT_TYPE.equals(headers.get("content-type"))) {
+            return countBinary(path, body, headers.get("content-encoding"));
+        }
+
+        JsonElement json;
+        try {
+            json = new JsonParser().parse(new InputStreamReader(decode(body, headers.get("content-encoding")),
+                    "UTF-8"));
+        } catch (Exception e) {
+            return "malformed body";
+        }
+        if (!json.isJsonObject()) {
+            return "expected an object";
+        }
+
+        if (path.equals("/api/v1/series")) {
+            return countSeries(json.getAsJsonObject(), series, false);
+        } else if (path.equals("/api/v1/distribution_points")) {
+            return countSeries(json.getAsJsonObject(), distributions, true);
+        } else if (path.equals("/api/v1/events")) {
+            JsonObject event = json.getAsJsonObject();
+            if (!event.has("title") || !event.has("text")) {
+                return "event without title or text";
+            }
+            events.incrementAndGet();
+            return null;
+        }
+        return "unknown path " + path;
+    }
+
+    private String countSeries(JsonObject payload, AtomicLong counter, boolean distribution) {
+        JsonArray all = payload.getAsJsonArray("series");
+        if (all == null) {
+            return "missing series";
+        }
+        for (JsonElement element : all) {
+            JsonObject one = element.getAsJsonObject();
+            if (!one.has("metric") || !one.has("points")) {
+                return "series without metric or points";
+            }
+            for (JsonElement point : one.getAsJsonArray("points")) {
+                JsonArray pair = point.getAsJsonArray();
+                if (pair.size() != 2 || (distribution != pair.get(1).isJsonArray())) {
+                    return "malformed point in " + one.get("metric").getAsString();
+                }
+                points.incrementAndGet();
+            }
+            counter.incrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * Counts a payload in the binary form, as a relay which takes it would.
+     */
+    private String countBinary(String path, byte[] body, String encoding) {
+        SeriesBatch batch;
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            InputStream in = decode(body, encoding);
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                payload.write(chunk, 0, n);
+            }
+            batch = BinarySeriesEncoder.decode(payload.toByteArray(), 0, payload.size());
+        } catch (IOException e) {
+            return "malformed body";
+        }
+        if (path.equals("/api/v1/series")) {
+            series.addAndGet(batch.size());
+            points.addAndGet(batch.size());
+        } else if (path.equals("/api/v1/distribution_points")) {
+            distributions.addAndGet(batch.getDistributionCount());
+            points.addAndGet(batch.getDistributionCount());
+        } else {
+            return "unknown path " + path;
+        }
+        return null;
+    }
+
+    private static InputStream decode(byte[] body, String encoding) throws IOException {
+        InputStream in = new ByteArrayInputStream(body);
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    private static byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+        String length = headers.get("content-length");
+        if (length == null) {
+            return new byte[0];
+        }
+        byte[] body = new byte[Integer.parseInt(length)];
+        int read = 0;
+        while (read < body.length) {
+            int n = in.read(body, read, body.length - read);
+            if (n < 0) {
+                throw new EOFException("connection closed mid-body");
+            }
+            read += n;
+        }
+        return body;
+    }
+
+    private static void respond(OutputStream out, int status, String response, boolean keepAlive)
+            throws IOException {
+        byte[] body = response.getBytes("UTF-8");
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(status < 300 ? " Accepted" : " Error").append("\r\n");
+        head.append("Content-Type: application/json\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        if (status == 429) {
+            head.append("Retry-After: 1\r\n");
+        }
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(head.length() + body.length);
+        bytes.write(head.toString().getBytes("ISO-8859-1"));
+        bytes.write(body);
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        try {
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    int length = sb.length();
+                    if (length > 0 && sb.charAt(length - 1) == '\r') sb.setLength(length - 1);
+                    return sb.toString();
+                }
+                if (sb.length() >= MAX_HEADER_LINE) throw new IOException("header line too long");
+                sb.append((char) b);
+            }
+        } catch (SocketException e) {
+            return null;
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+
+    private static final class Fault {
+        final int status;
+
+        Fault(int status) {
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FileCaptureSinkTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricRegistry registry;
+    private DatadogReporterTest.ManualClock clock;
+
+    @Before
+    public void setup() {
+        registry = new MetricRegistry();
+        clock = new DatadogReporterTest.ManualClock();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            registry.register("gauge." + i, new Gauge<Integer>() {
+                public Integer getValue() {
+                    return value;
+                }
+            });
+            registry.counter("counter." + i).inc(i);
+            for (int j = 0; j <= i; j++) {
+                registry.histogram("histogram." + i).update(j);
+            }
+        }
+    }
+
+    private DatadogReporter.Builder builder(DatadogReporterTest.RecordingURLWriterFactory api) {
+        return DatadogReporter.forRegistry(registry)
+                .withClock(clock)
+                .writeUsing(api)
+                .reportDistributions(0.01, 8);
+    }
+
+    private void assertReplayMatches(boolean gzip) throws IOException {
+        File directory = folder.newFolder("capture");
+        DatadogReporterTest.RecordingURLWriterFactory api = new DatadogReporterTest.RecordingURLWriterFactory();
+        FileCaptureSink sink = new FileCaptureSink(directory, 1 << 20, 1 << 20, gzip,
+                SeriesStream.DEFAULT_PRECISION, 8);
+        DatadogReporter reporter = builder(api).addSink(sink).build("host", "key");
+        reporter.report();
+        clock.time += 10000;
+        reporter.report();
+        reporter.stop();
+
+        assertEquals("should capture a series and a distribution payload per report", 4, sink.getRecordCount());
+        DatadogReporterTest.RecordingURLWriterFactory replayed = new DatadogReporterTest.RecordingURLWriterFactory();
+        CaptureReplay replay = new CaptureReplay(replayed, DatadogReporter.DATADOG_API_BASE_URL, "key");
+        for (File segment : FileCaptureSink.segments(directory)) {
+            replay.replay(segment);
+        }
+
+        assertEquals(4, replay.getSentCount());
+        assertEquals("replay should send what the api was sent", api.requests, replayed.requests);
+        assertEquals("replay should send to the same urls", api.urls, replayed.urls);
+    }
+
+    @Test
+    public void testCapture_replaysApiPayloads() throws IOException {
+        assertReplayMatches(false);
+    }
+
+    @Test
+    public void testCapture_replaysGzippedApiPayloads() throws IOException {
+        assertReplayMatches(true);
+    }
+
+    @Test
+    public void testCapture_keepsWithinBudget() throws IOException {
+        File directory = folder.newFolder("capture");
+        DatadogReporterTest.RecordingURLWriterFactory api = new DatadogReporterTest.RecordingURLWriterFactory();
+        FileCaptureSink sink = new FileCaptureSink(directory, 3 * 8192, 8192, false,
+                SeriesStream.DEFAULT_PRECISION, 8);
+        DatadogReporter reporter = builder(api).addSink(sink, 16).build("host", "key");
+        for (int i = 0; i < 10; i++) {
+            reporter.report();
+            clock.time += 10000;
+        }
+        reporter.stop();
+
+        assertEquals(20, sink.getRecordCount());
+        assertEquals(0, sink.getDroppedRecordCount());
+        assertTrue("old segments should be deleted", sink.getEvictedSegmentCount() > 0);
+        assertEquals("should keep to the budget", 3, FileCaptureSink.segments(directory).length);
+
+        //a new sink carries on after the segments already there
+        FileCaptureSink next = new FileCaptureSink(directory, 3 * 8192, 8192, false,
+                SeriesStream.DEFAULT_PRECISION, 8);
+        DatadogReporter nextReporter = builder(api).addSink(next).build("host", "key");
+        nextReporter.report();
+        nextReporter.stop();
+        File[] segments = FileCaptureSink.segments(directory);
+        assertEquals(3, segments.length);
+        assertEquals(1, next.getEvictedSegmentCount());
+
+        CaptureReplay replay = new CaptureReplay(new DatadogReporterTest.RecordingURLWriterFactory(),
+                DatadogReporter.DATADOG_API_BASE_URL, "key");
+        replay.replay(segments[2]);
+        assertEquals("newest segment should hold the last report", 2, replay.getSentCount());
+    }
+
+    @Test
+    public void testCapture_rollsGzippedPayloadsOverFullSegments() throws IOException {
+        File directory = folder.newFolder("capture");
+        FileCaptureSink sink = new FileCaptureSink(directory, 64 * 1024, 1024, true,
+                SeriesStream.DEFAULT_PRECISION, 8);
+        DatadogReporter reporter = builder(new DatadogReporterTest.RecordingURLWriterFactory()).addSink(sink, 16)
+                .build("host", "key");
+        for (int i = 0; i < 10; i++) {
+            reporter.report();
+            clock.time += 10000;
+        }
+        reporter.stop();
+
+        assertEquals(20, sink.getRecordCount());
+        assertEquals(0, sink.getDroppedRecordCount());
+        File[] segments = FileCaptureSink.segments(directory);
+        assertTrue("payloads should have filled several segments", segments.length > 2);
+        CaptureReplay replay = new CaptureReplay(new DatadogReporterTest.RecordingURLWriterFactory(),
+                DatadogReporter.DATADOG_API_BASE_URL, "key");
+        for (File segment : segments) {
+            replay.replay(segment);
+        }
+        assertEquals(20, replay.getSentCount());
+        assertEquals(0, replay.getCorruptCount());
+    }
+
+    @Test
+    public void testCapture_dropsPayloadLargerThanSegment() throws IOException {
+        File directory = folder.newFolder("capture");
+        FileCaptureSink sink = new FileCaptureSink(directory, 1024, 1024, false, SeriesStream.DEFAULT_PRECISION, 8);
+        DatadogReporter reporter = builder(new DatadogReporterTest.RecordingURLWriterFactory()).addSink(sink)
+                .build("host", "key");
+        reporter.report();
+        reporter.stop();
+
+        assertEquals(0, sink.getRecordCount());
+        assertEquals(2, sink.getDroppedRecordCount());
+    }
+
+    @Test
+    public void testReplay_stopsAtCorruptPayload() throws IOException {
+        File directory = folder.newFolder("capture");
+        FileCaptureSink sink = new FileCaptureSink(directory, 1 << 20, 1 << 20, false,
+                SeriesStream.DEFAULT_PRECISION, 8);
+        DatadogReporter reporter = builder(new DatadogReporterTest.RecordingURLWriterFactory()).addSink(sink)
+                .build("host", "key");
+        reporter.report();
+        reporter.stop();
+
+        File segment = FileCaptureSink.segments(directory)[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            int length = file.readInt();
+            //flip a byte in the second payload
+            file.seek(FileCaptureSink.RECORD_HEADER_BYTES + length + FileCaptureSink.RECORD_HEADER_BYTES + 5);
+            int b = file.read();
+            file.seek(file.getFilePointer() - 1);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        DatadogReporterTest.RecordingURLWriterFactory replayed = new DatadogReporterTest.RecordingURLWriterFactory();
+        CaptureReplay replay = new CaptureReplay(replayed, DatadogReporter.DATADOG_API_BASE_URL, "key");
+        replay.replay(segment);
+        assertEquals("should send payloads before the corrupt one", 1, replay.getSentCount());
+        assertEquals(1, replay.getCorruptCount());
+    }
+}
@@ -0,0 +1,62 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class PointBufferTest {
+    private final Series a = new Series("a", SeriesStream.MetricType.GAUGE, "host", null);
+    private final Series b = new Series("b", SeriesStream.MetricType.GAUGE, "host", null);
+
+    @Test
+    public void testWriteBuffered_pointsOldestFirst() throws IOException {
+        PointBuffer buffer = new PointBuffer(3, 6);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.add(a, 1000 + i, (long) i));
+        }
+        buffer.add(b, 1000, 1.5d);
+
+        StringWriter out = new StringWriter();
+        SeriesStream stream = new SeriesStream(out);
+        stream.writeBuffered(buffer, 0);
+        stream.writeBuffered(buffer, 1);
+        stream.close();
+
+        JsonArray series = ((JsonObject) new JsonParser().parse(out.toString())).getAsJsonArray("series");
+        JsonArray points = series.get(0).getAsJsonObject().getAsJsonArray("points");
+        assertEquals("ring should keep the latest points", 3, points.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1002 + i, points.get(i).getAsJsonArray().get(0).getAsLong());
+            assertEquals(2 + i, points.get(i).getAsJsonArray().get(1).getAsLong());
+        }
+        assertEquals("1.50", series.get(1).getAsJsonObject().getAsJsonArray("points").get(0).getAsJsonArray()
+                .get(1).getAsString());
+        assertEquals(2, buffer.getOverwrittenCount());
+    }
+
+    @Test
+    public void testAdd_refusesSeriesPastLimit() throws IOException {
+        PointBuffer buffer = new PointBuffer(2, 3);
+        assertTrue(buffer.add(a, 1000, 1L));
+        assertFalse("should only have room for one series", buffer.add(b, 1000, 1L));
+        assertTrue("known series should still be buffered", buffer.add(a, 1010, 2L));
+        assertEquals(1, buffer.getRefusedCount());
+
+        StringWriter out = new StringWriter();
+        SeriesStream stream = new SeriesStream(out);
+        stream.bufferPoints(buffer);
+        stream.writeMetric(b, 1000, 7L);
+        stream.close();
+        assertTrue("refused series should be written straight away", out.toString().contains("\"metric\":\"b\""));
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.add(b, 1020, 1L));
+    }
+}
@@ -0,0 +1,92 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class SeriesChangeTrackerTest {
+    private SeriesChangeTracker tracker;
+
+    @Before
+    public void setup() {
+        tracker = new SeriesChangeTracker(60);
+    }
+
+    @Test
+    public void testShouldSend_onlyChangesAndHeartbeats() {
+        long series = SeriesChangeTracker.hash("metric", "host", new String[]{"a:b"});
+
+        tracker.beginInterval();
+        assertTrue("new series should be sent", tracker.shouldSend(series, 5, 1000));
+        assertFalse("unchanged series should be skipped", tracker.shouldSend(series, 5, 1010));
+        assertTrue("changed series should be sent", tracker.shouldSend(series, 6, 1020));
+        assertFalse(tracker.shouldSend(series, 6, 1079));
+        assertTrue("series due a heartbeat should be sent", tracker.shouldSend(series, 6, 1080));
+
+        assertEquals(3, tracker.getSentCount());
+        assertEquals(2, tracker.getSkippedCount());
+    }
+
+    @Test
+    public void testHash_distinguishesHostAndTags() {
+        long series = SeriesChangeTracker.hash("metric", "host", new String[]{"a:b"});
+
+        assertEquals(series, SeriesChangeTracker.hash("metric", "host", new String[]{"a:b"}));
+        assertFalse(series == SeriesChangeTracker.hash("metric", "other", new String[]{"a:b"}));
+        assertFalse(series == SeriesChangeTracker.hash("metric", "host", new String[]{"a:c"}));
+        assertFalse(series == SeriesChangeTracker.hash("metric", "host", null));
+        assertFalse(SeriesChangeTracker.hash("ab", "c", null) == SeriesChangeTracker.hash("a", "bc", null));
+    }
+
+    @Test
+    public void testEndInterval_dropsSeriesNoLongerReported() {
+        tracker.beginInterval();
+        for (int i = 0; i < 5000; i++) {
+            tracker.shouldSend(SeriesChangeTracker.hash("metric." + i, null, null), i, 1000);
+        }
+        tracker.endInterval();
+        assertEquals(5000, tracker.size());
+
+        tracker.beginInterval();
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(tracker.shouldSend(SeriesChangeTracker.hash("metric." + i, null, null), i, 1010));
+        }
+        tracker.endInterval();
+        assertEquals(1000, tracker.size());
+
+        tracker.beginInterval();
+        for (int i = 0; i < 1000; i++) {
+            assertFalse("kept series should still be known",
+                    tracker.shouldSend(SeriesChangeTracker.hash("metric." + i, null, null), i, 1020));
+        }
+    }
+
+    @Test
+    public void testSeriesStream_skipsChangesBelowPrecision() throws IOException {
+        StringWriter writer = new StringWriter();
+        SeriesStream series = new SeriesStream(writer, 2);
+        series.trackChanges(tracker);
+        tracker.beginInterval();
+
+        series.writeMetric("rate", 1000, 1.001d, null, null);
+        series.writeMetric("rate", 1010, 1.004d, null, null);
+        series.writeMetric("rate", 1020, 1.006d, null, null);
+        series.close();
+
+        assertEquals(2, series.getSeriesCount());
+    }
+
+    @Test
+    public void testSeriesStream_emptyEnvelope() throws IOException {
+        StringWriter writer = new StringWriter();
+        SeriesStream series = new SeriesStream(writer);
+
+        assertEquals("nothing should be written before the first series", "", writer.toString());
+        series.close();
+        assertEquals("{\"series\":[]}", writer.toString());
+    }
+}
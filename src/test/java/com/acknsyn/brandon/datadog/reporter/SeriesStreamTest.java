@@ -0,0 +1,144 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class SeriesStreamTest {
+    private JsonParser jsonParser;
+    private StringWriter writer;
+
+    @Before
+    public void setup() {
+        jsonParser = new JsonParser();
+        writer = new StringWriter();
+    }
+
+    private String value(int index) {
+        String json = writer.toString();
+        JsonObject jsonObject = (JsonObject) jsonParser.parse(json);
+        JsonArray point = jsonObject.getAsJsonArray("series").get(index).getAsJsonObject()
+                .getAsJsonArray("points").get(0).getAsJsonArray();
+        return point.get(1).getAsJsonPrimitive().getAsString();
+    }
+
+    @Test
+    public void testWriteMetric_allFields() throws IOException {
+        SeriesStream series = new SeriesStream(writer);
+        series.writeMetric("metric.name", 1400000000L, 12L, SeriesStream.MetricType.COUNTER, "host",
+                new String[]{"tag:one", "tag:two"});
+        series.close();
+
+        JsonObject metric = ((JsonObject) jsonParser.parse(writer.toString()))
+                .getAsJsonArray("series").get(0).getAsJsonObject();
+
+        assertEquals("metric should match", "metric.name", metric.getAsJsonPrimitive("metric").getAsString());
+        assertEquals("timestamp should match", 1400000000L,
+                metric.getAsJsonArray("points").get(0).getAsJsonArray().get(0).getAsLong());
+        assertEquals("value should match", 12L,
+                metric.getAsJsonArray("points").get(0).getAsJsonArray().get(1).getAsLong());
+        assertEquals("type should match", "counter", metric.getAsJsonPrimitive("type").getAsString());
+        assertEquals("host should match", "host", metric.getAsJsonPrimitive("host").getAsString());
+        assertEquals("tag count should match", 2, metric.getAsJsonArray("tags").size());
+    }
+
+    @Test
+    public void testWriteMetric_longs() throws IOException {
+        long[] values = new long[]{0L, 7L, -7L, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+
+        SeriesStream series = new SeriesStream(writer);
+        for (long v : values) {
+            series.writeMetric("m", 1L, v, null, null);
+        }
+        series.close();
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("long should match", Long.toString(values[i]), value(i));
+        }
+    }
+
+    @Test
+    public void testWriteMetric_doublesMatchFormatter() throws IOException {
+        double[] values = new double[]{0d, 0.125d, 1.5d, -1.5d, 2.675d, 99.999d, -0.001d, 123456.789d, 1e20d,
+                1.005d, -1.005d, 0.015d, 1.0005d, 8.345d, 4.35d};
+
+        for (int precision = 0; precision <= 4; precision++) {
+            writer = new StringWriter();
+            SeriesStream series = new SeriesStream(writer, precision);
+            for (double v : values) {
+                series.writeMetric("m", 1L, v, null, null);
+            }
+            series.close();
+
+            for (int i = 0; i < values.length; i++) {
+                String expected = String.format(Locale.US, "%." + precision + "f", values[i]);
+                if (expected.matches("-0(\\.0*)?")) {
+                    expected = expected.substring(1);
+                }
+                assertEquals("double should match formatter at precision " + precision, expected, value(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFormatDouble_decimalTiesMatchFormatter() {
+        char[] digits = new char[21 + SeriesStream.MAX_PRECISION];
+        for (int precision = 0; precision <= 3; precision++) {
+            //every value with one more decimal place than written, half of them ties
+            double scale = Math.pow(10, precision + 1);
+            for (int i = -20000; i <= 20000; i++) {
+                double v = i / scale;
+                int start = SeriesStream.formatDouble(v, precision, digits);
+                String actual = start < 0 ? SeriesStream.formatExact(v, precision)
+                        : new String(digits, start, digits.length - start);
+                String expected = String.format(Locale.US, "%." + precision + "f", v);
+                if (expected.matches("-0(\\.0*)?")) {
+                    expected = expected.substring(1);
+                }
+                assertEquals("double " + v + " should match formatter at precision " + precision, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testGetSize_countsUtf8Bytes() throws IOException {
+        SeriesStream series = new SeriesStream(writer);
+        series.writeMetric("m\u00e9trique", 1L, 1L, SeriesStream.MetricType.GAUGE, "h\u00f4te",
+                new String[]{"\u6771\u4eac", "smile:\ud83d\ude00"});
+        series.writeMetric("m", 1L, 2L, null, null);
+        series.close();
+
+        assertEquals(writer.toString().getBytes("UTF-8").length, series.getSize());
+    }
+
+    @Test
+    public void testWriteMetric_boxedNumbers() throws IOException {
+        SeriesStream series = new SeriesStream(writer);
+        series.writeMetric("m", 1L, Integer.valueOf(3), null, null);
+        series.writeMetric("m", 1L, Float.valueOf(0.5f), null, null);
+        series.close();
+
+        assertEquals("integer should be written as long", "3", value(0));
+        assertEquals("float should be written as double", "0.50", value(1));
+    }
+
+    @Test
+    public void testWriteMetric_nonFiniteSkipped() throws IOException {
+        SeriesStream series = new SeriesStream(writer);
+        series.writeMetric("m", 1L, Double.NaN, null, null);
+        series.writeMetric("m", 1L, 1L, null, null);
+        series.writeMetric("m", 1L, Double.POSITIVE_INFINITY, null, null);
+        series.close();
+
+        JsonObject jsonObject = (JsonObject) jsonParser.parse(writer.toString());
+        assertEquals("only finite points should be written", 1, jsonObject.getAsJsonArray("series").size());
+    }
+}
@@ -0,0 +1,51 @@
+package com.acknsyn.brandon.datadog.reporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SeriesTableTest {
+    @Test
+    public void testAdd_keepsColumnsAcrossGrowth() {
+        SeriesTable table = new SeriesTable(2);
+        for (long series = 1; series <= 5000; series++) {
+            assertEquals(-1, table.find(series));
+            int slot = table.add(series);
+            table.set(slot, 0, series);
+            table.set(slot, 1, -series);
+        }
+
+        assertEquals(5000, table.size());
+        for (long series = 1; series <= 5000; series++) {
+            int slot = table.find(series);
+            assertEquals(series, table.get(slot, 0));
+            assertEquals(-series, table.get(slot, 1));
+        }
+    }
+
+    @Test
+    public void testEndInterval_dropsStaleOnceAQuarter() {
+        SeriesTable table = new SeriesTable(1);
+        table.beginInterval();
+        for (long series = 1; series <= 100; series++) {
+            table.add(series);
+        }
+        table.endInterval();
+
+        table.beginInterval();
+        for (long series = 1; series <= 80; series++) {
+            table.find(series);
+        }
+        table.endInterval();
+        assertEquals("a fifth stale should be kept", 100, table.size());
+
+        table.beginInterval();
+        for (long series = 1; series <= 75; series++) {
+            table.find(series);
+        }
+        table.endInterval();
+        assertEquals(75, table.size());
+        assertEquals(-1, table.find(80));
+        assertTrue(table.find(75) >= 0);
+    }
+}
@@ -0,0 +1,116 @@
+package com.acknsyn.brandon.urlwriter.async;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncURLWriterFactoryTest {
+    private URL url;
+    private CountDownLatch release;
+    private List<String> sent;
+    private List<Exception> failures;
+    private boolean failSend;
+    private AsyncURLWriterFactory factory;
+
+    @Before
+    public void setup() throws IOException {
+        url = new URL("http://example.com/api/v1/series");
+        release = new CountDownLatch(1);
+        sent = new CopyOnWriteArrayList<String>();
+        failures = new CopyOnWriteArrayList<Exception>();
+
+        URLWriterFactory blockingFactory = new URLWriterFactory() {
+            public Writer getWriter(URL url) throws IOException {
+                return new StringWriter() {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException("interrupted");
+                        }
+                        if (failSend) throw new HttpException(503, "unavailable");
+                        sent.add(toString());
+                    }
+                };
+            }
+        };
+
+        factory = new AsyncURLWriterFactory(blockingFactory, 2);
+        factory.addListener(new CompletionListener() {
+            public void onSuccess(URL url) {
+            }
+
+            public void onFailure(URL url, Exception e) {
+                failures.add(e);
+            }
+        });
+    }
+
+    @After
+    public void teardown() {
+        release.countDown();
+        factory.shutdown();
+    }
+
+    @Test
+    public void testClose_returnsBeforeSend() throws Exception {
+        Writer writer = factory.getWriter(url);
+        writer.write("{\"series\":[]}");
+        writer.close();
+
+        assertEquals("should be in flight until sent", 1, factory.getInFlightCount());
+        assertTrue("should not have sent yet", sent.isEmpty());
+
+        release.countDown();
+
+        assertTrue("should complete", factory.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals("should send body", "{\"series\":[]}", sent.get(0));
+        assertEquals("nothing should be in flight", 0, factory.getInFlightCount());
+    }
+
+    @Test
+    public void testClose_dropsBeyondMaxInFlight() throws Exception {
+        factory.getWriter(url).close();
+        factory.getWriter(url).close();
+
+        IOException exception = null;
+        try {
+            factory.getWriter(url).close();
+        } catch (IOException ioe) {
+            exception = ioe;
+        }
+
+        assertNotNull("should refuse requests beyond max in flight", exception);
+        assertEquals("in flight count should be capped", 2, factory.getInFlightCount());
+
+        release.countDown();
+        assertTrue("should complete", factory.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals("should send accepted requests", 2, sent.size());
+    }
+
+    @Test
+    public void testFailure_notifiesListener() throws Exception {
+        failSend = true;
+        release.countDown();
+
+        factory.getWriter(url).close();
+
+        assertTrue("should complete", factory.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals("should notify failure", 1, failures.size());
+        assertEquals("should pass on status", 503, ((HttpException) failures.get(0)).getStatus());
+    }
+}
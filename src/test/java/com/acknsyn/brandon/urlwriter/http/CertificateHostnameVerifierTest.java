@@ -0,0 +1,66 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CertificateHostnameVerifierTest {
+    private final CertificateHostnameVerifier verifier = new CertificateHostnameVerifier();
+
+    private static X509Certificate certificate(String subject, Object... alternativeNames)
+            throws CertificateParsingException {
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(certificate.getSubjectX500Principal()).thenReturn(new X500Principal(subject));
+        if (alternativeNames.length > 0) {
+            Collection<List<?>> names = new ArrayList<List<?>>();
+            for (int i = 0; i < alternativeNames.length; i += 2) {
+                names.add(Arrays.asList(alternativeNames[i], alternativeNames[i + 1]));
+            }
+            when(certificate.getSubjectAlternativeNames()).thenReturn(names);
+        }
+        return certificate;
+    }
+
+    @Test
+    public void testMatches_dnsAlternativeNames() throws CertificateParsingException {
+        X509Certificate certificate = certificate("CN=ignored.example.com, O=Example",
+                2, "app.datadoghq.com", 2, "*.agent.datadoghq.com");
+
+        assertTrue(verifier.matches("app.datadoghq.com", certificate));
+        assertTrue(verifier.matches("APP.DatadogHQ.com.", certificate));
+        assertTrue(verifier.matches("1-2-3.agent.datadoghq.com", certificate));
+        assertFalse("wildcard covers one label", verifier.matches("a.b.agent.datadoghq.com", certificate));
+        assertFalse(verifier.matches("agent.datadoghq.com", certificate));
+        assertFalse("cn is ignored when there are dns names", verifier.matches("ignored.example.com", certificate));
+        assertFalse(verifier.matches("evil.com", certificate));
+    }
+
+    @Test
+    public void testMatches_commonNameWithoutAlternativeNames() throws CertificateParsingException {
+        X509Certificate certificate = certificate("CN=api.example.com, OU=Ops, O=Example");
+
+        assertTrue(verifier.matches("api.example.com", certificate));
+        assertFalse(verifier.matches("example.com", certificate));
+    }
+
+    @Test
+    public void testMatches_ipAddresses() throws CertificateParsingException {
+        X509Certificate certificate = certificate("CN=127.0.0.1", 7, "127.0.0.1", 7, "0:0:0:0:0:0:0:1",
+                2, "localhost");
+
+        assertTrue(verifier.matches("127.0.0.1", certificate));
+        assertTrue(verifier.matches("[::1]", certificate));
+        assertFalse(verifier.matches("127.0.0.2", certificate));
+        assertFalse("a bare wildcard never matches", verifier.matches("example.com", certificate("CN=*.com")));
+    }
+}
@@ -0,0 +1,186 @@
+package com.acknsyn.brandon.urlwriter.http;
+
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveHttpURLWriterTest {
+    private HttpServer server;
+    private URL url;
+    private List<String> received;
+    private volatile int status;
+    private volatile String response;
+    private HttpConnectionPool pool;
+    private KeepAliveHttpURLWriterFactory factory;
+
+    @Before
+    public void setup() throws IOException {
+        received = new CopyOnWriteArrayList<String>();
+        status = 202;
+        response = "{}";
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/series", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                if ("deflate".equals(encoding)) {
+                    in = new InflaterInputStream(in);
+                }
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    body.write(buf, 0, read);
+                }
+                received.add(body.toString("UTF-8") + " " + exchange.getRequestURI().getQuery());
+
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1/series?api_key=key");
+        pool = new HttpConnectionPool(2, 30000);
+        factory = new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory());
+    }
+
+    @After
+    public void teardown() {
+        pool.close();
+        server.stop(0);
+    }
+
+    private void post(String body) throws IOException {
+        Writer writer = factory.getWriter(url);
+        writer.write(body);
+        writer.close();
+    }
+
+    @Test
+    public void testConnectionReusedAcrossRequests() throws IOException {
+        post("{\"series\":[1]}");
+        post("{\"series\":[2]}");
+        post("{\"series\":[3]}");
+
+        assertEquals("should receive every request", 3, received.size());
+        assertEquals("should send body and query", "{\"series\":[2]} api_key=key", received.get(1));
+        assertEquals("should open one connection", 1, pool.getConnectionsCreated());
+        assertEquals("should reuse it for later requests", 2, pool.getConnectionsReused());
+        assertEquals("should keep connection idle in pool", 1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testExpiredConnectionsEvicted() throws IOException {
+        pool = new HttpConnectionPool(2, -1);
+        factory = new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory());
+
+        post("{}");
+        post("{}");
+
+        assertEquals("should open a connection per request", 2, pool.getConnectionsCreated());
+        assertEquals("should not reuse expired connections", 0, pool.getConnectionsReused());
+        assertEquals("should evict expired connection", 1, pool.getConnectionsEvicted());
+    }
+
+    @Test
+    public void testIdleConnectionsEvictedInBackground() throws Exception {
+        pool = new HttpConnectionPool(2, 50);
+        factory = new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory());
+
+        post("{}");
+        assertEquals(1, pool.getIdleCount());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("should close idle connection without another request", 0, pool.getIdleCount());
+        assertEquals(1, pool.getConnectionsEvicted());
+    }
+
+    @Test
+    public void testServerClosedIdleConnectionRetried() throws IOException {
+        post("{}");
+
+        //restart the server on the same port; the pooled connection is now dead
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        HttpServer restarted = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        restarted.createContext("/api/v1/series", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                received.add("restarted");
+                exchange.sendResponseHeaders(202, -1);
+                exchange.close();
+            }
+        });
+        restarted.start();
+        server = restarted;
+
+        post("{}");
+
+        assertEquals("should deliver request on a new connection", "restarted", received.get(received.size() - 1));
+        assertEquals("should open a second connection", 2, pool.getConnectionsCreated());
+    }
+
+    @Test
+    public void testDeflatedBody() throws IOException {
+        factory = new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory(), ContentEncoding.DEFLATE,
+                Deflater.DEFAULT_COMPRESSION);
+
+        post("{\"series\":[\"compressed\"]}");
+
+        assertEquals("should inflate to body", "{\"series\":[\"compressed\"]} api_key=key", received.get(0));
+    }
+
+    @Test
+    public void testSendEncodedBody() throws IOException {
+        factory = new KeepAliveHttpURLWriterFactory(pool, new Utf8WriterFactory(), ContentEncoding.DEFLATE,
+                Deflater.DEFAULT_COMPRESSION);
+        byte[] body = "--{\"tags\":[\"caf\u00e9\"]}--".getBytes("UTF-8");
+
+        factory.send(url, body, 2, body.length - 4);
+
+        assertEquals("{\"tags\":[\"caf\u00e9\"]} api_key=key", received.get(0));
+    }
+
+    @Test
+    public void testThrowsHttpException() throws IOException {
+        status = 429;
+        response = "{\"errors\":[\"rate limited\"]}";
+
+        HttpException exception = null;
+        try {
+            post("{}");
+        } catch (HttpException he) {
+            exception = he;
+        }
+
+        assertNotNull("should throw HttpException", exception);
+        assertEquals("should return correct status", 429, exception.getStatus());
+        assertEquals("should return error response", response, exception.getResponse());
+        assertEquals("connection should still be reusable", 1, pool.getIdleCount());
+    }
+}
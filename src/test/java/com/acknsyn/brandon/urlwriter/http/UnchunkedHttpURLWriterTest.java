@@ -2,6 +2,7 @@ package com.acknsyn.brandon.urlwriter.http;
 
 import com.acknsyn.brandon.urlwriter.io.InputReaderFactory;
 import com.acknsyn.brandon.urlwriter.io.OutputWriterFactory;
+import com.acknsyn.brandon.urlwriter.io.Utf8WriterFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,13 +15,14 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.matches;
 import static org.mockito.Mockito.*;
 import static org.powermock.api.mockito.PowerMockito.mock;
-import static org.powermock.api.mockito.PowerMockito.verifyNoMoreInteractions;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 
@@ -37,12 +39,15 @@ public class UnchunkedHttpURLWriterTest {
     private Reader mockReader;
 
     private InputStream mockInputStream;
+    private ByteArrayOutputStream requestBody;
 
     @Before
     public void setup() throws IOException {
         mockUrl = PowerMockito.mock(URL.class);
         mockHttpURLConnection = PowerMockito.mock(HttpURLConnection.class);
         when(mockUrl.openConnection()).thenReturn(mockHttpURLConnection);
+        requestBody = new ByteArrayOutputStream();
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(requestBody);
 
         mockOutputWriterFactory = mock(OutputWriterFactory.class);
         mockWriter = mock(Writer.class);
@@ -75,11 +80,12 @@ public class UnchunkedHttpURLWriterTest {
         UnchunkedHttpURLWriter unchunkedHttpURLWriter = new UnchunkedHttpURLWriter(mockUrl, mockOutputWriterFactory, mockInputReaderFactory);
 
         unchunkedHttpURLWriter.write(expected);
-        verifyNoMoreInteractions(mockWriter);
+        verify(mockWriter).write(expected, 0, expected.length());
+        verify(mockHttpURLConnection, never()).getOutputStream();
 
         unchunkedHttpURLWriter.flush();
-        verify(mockWriter).write(expected);
-        verify(mockWriter).flush();
+        verify(mockWriter).close();
+        verify(mockHttpURLConnection).getOutputStream();
         verify(mockHttpURLConnection).disconnect();
     }
 
@@ -94,14 +100,54 @@ public class UnchunkedHttpURLWriterTest {
         UnchunkedHttpURLWriter writer = new UnchunkedHttpURLWriter(mockUrl, mockOutputWriterFactory, mockInputReaderFactory);
 
         writer.write(expected);
-        verifyNoMoreInteractions(mockWriter);
+        verify(mockWriter).write(expected, 0, expected.length());
+        verify(mockHttpURLConnection, never()).getOutputStream();
 
         writer.close();
-        verify(mockWriter).write(expected);
-        verify(mockWriter).flush();
+        verify(mockWriter).close();
+        verify(mockHttpURLConnection).getOutputStream();
         verify(mockHttpURLConnection).disconnect();
     }
 
+    @Test
+    public void testFlushWritesUtf8Body() throws IOException {
+        String expected = "{\"message\":\"h\u00e9llo, \u4e16\u754c \ud83d\ude00\"}";
+        byte[] expectedBytes = expected.getBytes("UTF-8");
+
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+
+        UnchunkedHttpURLWriter writer = new UnchunkedHttpURLWriter(mockUrl, new Utf8WriterFactory(), mockInputReaderFactory);
+        writer.write(expected.substring(0, 10));
+        writer.write(expected.substring(10).toCharArray());
+        writer.close();
+
+        verify(mockHttpURLConnection).setFixedLengthStreamingMode(expectedBytes.length);
+        assertArrayEquals("should send utf-8 encoded body", expectedBytes, requestBody.toByteArray());
+    }
+
+    @Test
+    public void testFlushWritesGzippedBody() throws IOException {
+        String expected = "{\"series\":[{\"metric\":\"a\"},{\"metric\":\"a\"},{\"metric\":\"a\"}]}";
+
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+
+        UnchunkedHttpURLWriter writer = new UnchunkedHttpURLWriter(mockUrl, new Utf8WriterFactory(),
+                mockInputReaderFactory, null, ContentEncoding.GZIP, Deflater.BEST_SPEED);
+        writer.write(expected);
+        writer.close();
+
+        verify(mockHttpURLConnection).setRequestProperty("Content-Encoding", "gzip");
+        verify(mockHttpURLConnection).setFixedLengthStreamingMode(requestBody.size());
+
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(requestBody.toByteArray()));
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            decompressed.write(b);
+        }
+        assertEquals("should decompress to body", expected, decompressed.toString("UTF-8"));
+    }
+
     private void setErrorResponse(String errorResponse) throws IOException {
         char[] errorResponseChars = errorResponse.toCharArray();
         OngoingStubbing stub = when(mockReader.read());
@@ -211,6 +257,28 @@ public class UnchunkedHttpURLWriterTest {
         assertEquals("should return error response", expectedResponse, exception.getResponse());
     }
 
+    @Test
+    public void testThrowsHttpException_503_retryAfter() throws IOException {
+        when(mockUrl.openConnection()).thenReturn(mockHttpURLConnection);
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(503);
+        when(mockHttpURLConnection.getHeaderField("Retry-After")).thenReturn("30");
+        when(mockHttpURLConnection.getErrorStream()).thenReturn(mockInputStream);
+        setErrorResponse("unavailable");
+
+        HttpException exception = null;
+
+        UnchunkedHttpURLWriter writer = new UnchunkedHttpURLWriter(mockUrl, mockOutputWriterFactory, mockInputReaderFactory);
+        try {
+            writer.write("boo");
+            writer.close();
+        } catch (HttpException he) {
+            exception = he;
+        }
+
+        assertNotNull("should throw HttpException", exception);
+        assertEquals("should return retry-after delay", 30000, exception.getRetryAfterMillis());
+    }
+
     @Test
     public void testThrowsHttpException_200() throws IOException {
         int expectedStatus = 200;
@@ -0,0 +1,87 @@
+package com.acknsyn.brandon.urlwriter.io;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Utf8WriterTest {
+    private ByteArrayBuffer buffer;
+
+    @Before
+    public void setup() {
+        buffer = new ByteArrayBuffer(0);
+    }
+
+    private byte[] written() {
+        byte[] bytes = new byte[buffer.size()];
+        System.arraycopy(buffer.array(), 0, bytes, 0, buffer.size());
+        return bytes;
+    }
+
+    @Test
+    public void testWrite_matchesJdkEncoding() throws IOException {
+        String expected = "ascii \u00e9\u00df \u4e16\u754c \ud83d\ude00 done";
+
+        Utf8Writer writer = new Utf8Writer(buffer);
+        writer.write(expected);
+        writer.close();
+
+        assertArrayEquals("should match jdk utf-8 encoding", expected.getBytes("UTF-8"), written());
+    }
+
+    @Test
+    public void testWrite_surrogatePairSplitAcrossWrites() throws IOException {
+        String expected = "a\ud83d\ude00b";
+
+        Utf8Writer writer = new Utf8Writer(buffer);
+        writer.write(expected.toCharArray(), 0, 2);
+        writer.write(expected.toCharArray(), 2, 2);
+        writer.close();
+
+        assertArrayEquals("should join surrogate pair across writes", expected.getBytes("UTF-8"), written());
+    }
+
+    @Test
+    public void testWrite_unpairedSurrogatesReplaced() throws IOException {
+        Utf8Writer writer = new Utf8Writer(buffer);
+        writer.write("a\ud83db\ude00c\ud83d");
+        writer.close();
+
+        assertEquals("should replace unpaired surrogates", "a?b?c?", buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void testWrite_largerThanScratchBuffer() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("\u00e9x\u4e16");
+        }
+        String expected = sb.toString();
+
+        Utf8Writer writer = new Utf8Writer(buffer, 16);
+        writer.write(expected);
+        writer.close();
+
+        assertArrayEquals("should drain scratch buffer as it fills", expected.getBytes("UTF-8"), written());
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        Utf8Writer writer = new Utf8Writer(buffer);
+        writer.close();
+
+        boolean isException = false;
+        try {
+            writer.write("fail!");
+        } catch (IOException ioe) {
+            isException = true;
+        }
+
+        assertTrue("should throw IOException if write called after close", isException);
+    }
+}
@@ -0,0 +1,255 @@
+package com.acknsyn.brandon.urlwriter.retry;
+
+import com.acknsyn.brandon.urlwriter.EncodedURLWriterFactory;
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RetryingURLWriterFactoryTest {
+    private URL url;
+    private LinkedList<IOException> failures;
+    private List<String> sent;
+    private List<Long> sleeps;
+    private long now;
+    private URLWriterFactory failingFactory;
+    private CircuitBreaker breaker;
+    private RetryingURLWriterFactory factory;
+
+    @Before
+    public void setup() throws IOException {
+        url = new URL("http://example.com/api/v1/series");
+        failures = new LinkedList<IOException>();
+        sent = new ArrayList<String>();
+        sleeps = new ArrayList<Long>();
+
+        failingFactory = new URLWriterFactory() {
+            public Writer getWriter(URL url) throws IOException {
+                return new StringWriter() {
+                    @Override
+                    public void close() throws IOException {
+                        sent.add(toString());
+                        if (!failures.isEmpty()) throw failures.removeFirst();
+                    }
+                };
+            }
+        };
+
+        breaker = new CircuitBreaker(2, 10000) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+
+        factory = new RetryingURLWriterFactory(failingFactory, new RetryPolicy(4, 100, 400, 2000), breaker,
+                new Random(1)) {
+            @Override
+            protected void sleep(long millis) {
+                sleeps.add(millis);
+                now += millis;
+            }
+
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testClose_retriesTransientFailures() throws IOException {
+        failures.add(new HttpException(503, "unavailable"));
+        failures.add(new IOException("connection reset"));
+
+        post("body");
+
+        assertEquals(3, sent.size());
+        assertEquals("body", sent.get(2));
+        assertEquals(2, sleeps.size());
+        assertTrue("first backoff jittered within [50, 100]", sleeps.get(0) >= 50 && sleeps.get(0) <= 100);
+        assertTrue("second backoff jittered within [100, 200]", sleeps.get(1) >= 100 && sleeps.get(1) <= 200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testClose_doesNotRetryRejectedRequest() {
+        failures.add(new HttpException(400, "bad request"));
+
+        try {
+            post("body");
+            fail("should throw");
+        } catch (IOException e) {
+            assertEquals(400, ((HttpException) e).getStatus());
+        }
+        assertEquals(1, sent.size());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void testClose_honorsRetryAfter() throws IOException {
+        failures.add(new HttpException(429, "slow down", 1500));
+
+        post("body");
+
+        assertEquals(2, sent.size());
+        assertEquals(Long.valueOf(1500), sleeps.get(0));
+    }
+
+    @Test
+    public void testClose_staysWithinElapsedLimit() {
+        for (int i = 0; i < 4; i++) {
+            failures.add(new HttpException(429, "slow down", 1500));
+        }
+
+        try {
+            post("body");
+            fail("should throw");
+        } catch (IOException e) {
+            assertTrue(e instanceof HttpException);
+        }
+        assertEquals("a second 1500ms wait would pass the 2000ms limit", 2, sent.size());
+        assertTrue(now <= 2000);
+    }
+
+    @Test
+    public void testClose_passesEncodedBodyDown() throws IOException {
+        final List<String> received = new ArrayList<String>();
+        factory = new RetryingURLWriterFactory(new EncodedURLWriterFactory() {
+            public Writer getWriter(URL url) {
+                throw new UnsupportedOperationException("should be sent as bytes");
+            }
+
+            public void send(URL url, byte[] body, int off, int len) throws IOException {
+                received.add(new String(body, off, len, "UTF-8"));
+                if (received.size() == 1) throw new IOException("connection reset");
+            }
+        }, new RetryPolicy(4, 100, 400, 2000), breaker, new Random(1)) {
+            @Override
+            protected void sleep(long millis) {
+            }
+        };
+
+        post("caf\u00e9");
+
+        assertEquals(Arrays.asList("caf\u00e9", "caf\u00e9"), received);
+    }
+
+    @Test
+    public void testCircuitBreaker_opensAndRecovers() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            failures.add(new HttpException(500, "error"));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                post("body");
+                fail("should throw");
+            } catch (HttpException expected) {
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        int attempts = sent.size();
+        try {
+            post("body");
+            fail("should throw");
+        } catch (CircuitOpenException e) {
+            assertTrue(e.getRemainingMillis() > 0);
+        }
+        assertEquals("should not touch the network while open", attempts, sent.size());
+
+        now += 10000;
+        failures.clear();
+        post("trial");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getTimesOpened());
+    }
+
+    @Test
+    public void testCircuitBreaker_reopensWhenTrialFails() {
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        now += 10000;
+
+        assertTrue(breaker.allowRequest());
+        assertFalse("only one trial request at a time", breaker.allowRequest());
+        breaker.onFailure(0);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(10000, breaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void testCircuitBreaker_reopensWhenTrialThrows() throws IOException {
+        URLWriterFactory throwingFactory = new URLWriterFactory() {
+            public Writer getWriter(URL url) {
+                throw new IllegalStateException("broken delegate");
+            }
+        };
+        factory = new RetryingURLWriterFactory(throwingFactory, new RetryPolicy(4, 100, 400, 2000), breaker,
+                new Random(1));
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        now += 10000;
+
+        try {
+            post("trial");
+            fail("should throw");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals("the trial should count as a failure", CircuitBreaker.State.OPEN, breaker.getState());
+        now += 10000;
+        assertTrue("should let another trial through once open time passes", breaker.allowRequest());
+    }
+
+    @Test
+    public void testCircuitBreaker_reopensWhenTrialInterrupted() throws IOException {
+        factory = new RetryingURLWriterFactory(failingFactory, new RetryPolicy(4, 100, 400, 2000), breaker,
+                new Random(1)) {
+            @Override
+            protected void sleep(long millis) throws InterruptedException {
+                throw new InterruptedException();
+            }
+        };
+        failures.add(new HttpException(503, "unavailable"));
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        now += 10000;
+
+        try {
+            post("trial");
+            fail("should throw");
+        } catch (InterruptedIOException expected) {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals("the trial should count as a failure", CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(120000, HttpException.parseRetryAfter("120", 0));
+        assertEquals(-1, HttpException.parseRetryAfter("soon", 0));
+        assertEquals(-1, HttpException.parseRetryAfter(null, 0));
+        assertEquals(30000, HttpException.parseRetryAfter("Thu, 01 Jan 1970 00:00:30 GMT", 0));
+    }
+
+    private void post(String body) throws IOException {
+        Writer writer = factory.getWriter(url);
+        writer.write(body);
+        writer.close();
+    }
+}
@@ -0,0 +1,171 @@
+package com.acknsyn.brandon.urlwriter.spool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SegmentedSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private SegmentedSpool spool;
+
+    @Before
+    public void setup() throws IOException {
+        directory = new File(folder.getRoot(), "spool");
+        spool = new SegmentedSpool(directory, 1000, 100, 4, 60000);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        spool.close();
+    }
+
+    @Test
+    public void testPeekAndConsume_inOrder() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            append("record-" + i);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("record-" + i, peekString());
+            assertEquals("peek should not consume", "record-" + i, peekString());
+            assertTrue(spool.consume(spool.peek()));
+        }
+        assertNull(spool.peek());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void testAppend_rollsSegments() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append("0123456789012345678901234567890123456789");
+        }
+
+        assertEquals("48 byte records, two per 100 byte segment", 5, directory.list().length);
+        assertEquals(480, spool.getSizeInBytes());
+    }
+
+    @Test
+    public void testAppend_evictsOldestOverBudget() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            append(String.format("record-%02d-0123456789012345678901234567890", i));
+        }
+
+        assertTrue("should stay within budget", spool.getSizeInBytes() <= 1000);
+        assertTrue(spool.getEvictedBytes() > 0);
+        assertEquals("oldest records should be evicted", "record-10-0123456789012345678901234567890",
+                peekString());
+    }
+
+    @Test
+    public void testConsume_ignoresRecordEvictedSincePeek() throws IOException {
+        append("record-00-0123456789012345678901234567890");
+        SegmentedSpool.Record peeked = spool.peek();
+
+        //appends made while the peeked record is being sent evict its segment
+        for (int i = 1; i < 30; i++) {
+            append(String.format("record-%02d-0123456789012345678901234567890", i));
+        }
+        String oldest = peekString();
+
+        assertFalse("evicted record should not be consumed", spool.consume(peeked));
+        assertEquals("oldest remaining record should not be skipped", oldest, peekString());
+        assertTrue(spool.consume(spool.peek()));
+    }
+
+    @Test
+    public void testAppend_dropsRecordOverBudget() throws IOException {
+        spool.append(new byte[2000], 0, 2000);
+
+        assertEquals(1, spool.getDroppedRecords());
+        assertNull(spool.peek());
+    }
+
+    @Test
+    public void testAppend_syncsInBatches() throws IOException {
+        for (int i = 0; i < 9; i++) {
+            append("r" + i);
+        }
+
+        assertEquals("should sync once every 4 appends", 2, spool.getSyncCount());
+    }
+
+    @Test
+    public void testReopen_replaysWhatWasLeft() throws IOException {
+        append("first");
+        append("second");
+        append("third");
+        spool.consume(spool.peek());
+        spool.close();
+
+        spool = new SegmentedSpool(directory, 1000, 100, 4, 60000);
+        assertEquals("consumed position is not persisted", "first", peekString());
+
+        append("fourth");
+        String[] expected = {"first", "second", "third", "fourth"};
+        for (String record : expected) {
+            assertEquals(record, peekString());
+            spool.consume(spool.peek());
+        }
+        assertNull(spool.peek());
+    }
+
+    @Test
+    public void testPeek_skipsTornRecord() throws IOException {
+        append("complete");
+        append("torn");
+        spool.close();
+
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 2);
+        file.close();
+
+        spool = new SegmentedSpool(directory, 1000, 100, 4, 60000);
+        assertEquals("complete", peekString());
+        spool.consume(spool.peek());
+        assertNull("torn record should be discarded", spool.peek());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testIsEmpty_doesNotDiscardAnything() throws IOException {
+        assertTrue(spool.isEmpty());
+        append("complete");
+        append("torn");
+        spool.close();
+
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 2);
+        file.close();
+
+        spool = new SegmentedSpool(directory, 1000, 100, 4, 60000);
+        assertFalse(spool.isEmpty());
+        assertEquals("complete", peekString());
+        spool.consume(spool.peek());
+        assertFalse("only peek discards the torn record", spool.isEmpty());
+        assertEquals(1, directory.list().length);
+        assertNull(spool.peek());
+        assertTrue(spool.isEmpty());
+    }
+
+    private String peekString() throws IOException {
+        return new String(spool.peek().getData(), "UTF-8");
+    }
+
+    private void append(String record) throws IOException {
+        byte[] bytes = record.getBytes("UTF-8");
+        spool.append(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,191 @@
+package com.acknsyn.brandon.urlwriter.spool;
+
+import com.acknsyn.brandon.urlwriter.URLWriterFactory;
+import com.acknsyn.brandon.urlwriter.http.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SpoolingURLWriterFactoryTest {
+    //replays on the thread that closed the writer, so tests can check them straight away
+    private static final Executor CALLER = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private URL url;
+    private List<String> sent;
+    private List<String> requestedUrls;
+    private int failStatus;
+    private SpoolingURLWriterFactory factory;
+
+    @Before
+    public void setup() throws IOException {
+        url = new URL("http://example.com/api/v1/series?api_key=secret");
+        sent = new ArrayList<String>();
+        requestedUrls = new ArrayList<String>();
+
+        URLWriterFactory failingFactory = new URLWriterFactory() {
+            public Writer getWriter(final URL url) throws IOException {
+                return new StringWriter() {
+                    @Override
+                    public void close() throws IOException {
+                        if (failStatus > 0) throw new HttpException(failStatus, "failed");
+                        sent.add(toString());
+                        requestedUrls.add(url.toString());
+                    }
+                };
+            }
+        };
+
+        factory = new SpoolingURLWriterFactory(failingFactory, folder.getRoot(), 1024 * 1024, 64 * 1024, 16, 1000, 2,
+                CALLER);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        factory.close();
+    }
+
+    @Test
+    public void testClose_spoolsAndReplaysInOrder() throws IOException {
+        failStatus = 503;
+        post("one");
+        post("two");
+        post("three");
+        assertEquals(3, factory.getSpooledRequests());
+        assertTrue(sent.isEmpty());
+
+        failStatus = 0;
+        post("four");
+        assertEquals("should replay at most 2 after a success", list("four", "one", "two"), sent);
+
+        post("five");
+        assertEquals(list("four", "one", "two", "five", "three"), sent);
+        assertEquals(3, factory.getReplayedRequests());
+        assertEquals(0, factory.getSpooledBytes());
+        for (String requested : requestedUrls) {
+            assertEquals("replays go to the live url", url.toString(), requested);
+        }
+    }
+
+    @Test
+    public void testClose_doesNotSpoolRejectedRequest() throws IOException {
+        failStatus = 400;
+        post("bad");
+
+        assertEquals(0, factory.getSpooledRequests());
+        failStatus = 0;
+        post("good");
+        assertEquals(list("good"), sent);
+    }
+
+    @Test
+    public void testSpool_survivesRestart() throws IOException {
+        failStatus = 500;
+        post("\u00e9t\u00e9");
+        factory.close();
+
+        failStatus = 0;
+        factory = new SpoolingURLWriterFactory(new URLWriterFactory() {
+            public Writer getWriter(URL url) throws IOException {
+                return new StringWriter() {
+                    @Override
+                    public void close() {
+                        sent.add(toString());
+                    }
+                };
+            }
+        }, folder.getRoot(), 1024 * 1024, 64 * 1024, 16, 1000, 2, CALLER);
+        post("next");
+
+        assertEquals(list("next", "\u00e9t\u00e9"), sent);
+    }
+
+    @Test
+    public void testReplay_doesNotHoldUpCaller() throws Exception {
+        final CountDownLatch replaying = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        failStatus = 503;
+        post("spooled");
+        factory.close();
+
+        failStatus = 0;
+        factory = new SpoolingURLWriterFactory(new URLWriterFactory() {
+            public Writer getWriter(URL url) throws IOException {
+                return new StringWriter() {
+                    @Override
+                    public void close() throws IOException {
+                        if (toString().equals("spooled")) {
+                            replaying.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new IOException("interrupted");
+                            }
+                        }
+                    }
+                };
+            }
+        }, folder.getRoot(), 1024 * 1024, 64 * 1024, 16, 1000, 2);
+
+        post("first");
+        assertTrue("replay should start in the background", replaying.await(5, TimeUnit.SECONDS));
+        post("second");
+        assertEquals("should not wait on the replay for stats", 0, factory.getReplayedRequests());
+        assertTrue(factory.getSpooledBytes() > 0);
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.getReplayedRequests() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, factory.getReplayedRequests());
+    }
+
+    @Test
+    public void testSpool_doesNotStoreQueryString() throws IOException {
+        failStatus = 503;
+        post("body");
+
+        String[] endpoints = folder.getRoot().list();
+        assertEquals(1, endpoints.length);
+        assertFalse(endpoints[0].contains("secret"));
+    }
+
+    private void post(String body) {
+        try {
+            Writer writer = factory.getWriter(url);
+            writer.write(body);
+            writer.close();
+        } catch (IOException e) {
+            //spooled, or rejected
+        }
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<String>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}